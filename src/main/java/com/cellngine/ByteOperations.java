@@ -16,12 +16,14 @@
 */
 package com.cellngine;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * A collection of handy operations to perform on byte arrays and {@link java.io.InputStream
@@ -40,11 +42,11 @@ public class ByteOperations
 	 */
 	public static byte[] toBytes(final int input)
 	{
-		final ByteBuffer bb = ByteBuffer.allocate(4);
+		final byte[] bytes = new byte[4];
 
-		bb.putInt(input);
+		putInt(bytes, 0, input);
 
-		return bb.array();
+		return bytes;
 	}
 
 	/**
@@ -56,11 +58,11 @@ public class ByteOperations
 	 */
 	public static byte[] toBytes(final long input)
 	{
-		final ByteBuffer bb = ByteBuffer.allocate(8);
+		final byte[] bytes = new byte[8];
 
-		bb.putLong(input);
+		putLong(bytes, 0, input);
 
-		return bb.array();
+		return bytes;
 	}
 
 	/**
@@ -76,14 +78,13 @@ public class ByteOperations
 	 */
 	public static byte[] toBytes(final String input)
 	{
-		try
-		{
-			return toBytes(input.getBytes("UTF-8"));
-		}
-		catch (final UnsupportedEncodingException e)
-		{
-			throw new RuntimeException(e);
-		}
+		final int length = StringCodec.getEncodedLength(input);
+		final byte[] bytes = new byte[4 + length];
+
+		putInt(bytes, 0, length);
+		StringCodec.encode(input, bytes, 4);
+
+		return bytes;
 	}
 
 	/**
@@ -142,8 +143,9 @@ public class ByteOperations
 	 */
 	public static int getInt(final byte[] bytes) throws BufferUnderflowException
 	{
-		final ByteBuffer bb = ByteBuffer.wrap(bytes);
-		return bb.getInt();
+		if (bytes.length < 4) { throw new BufferUnderflowException(); }
+
+		return getInt(bytes, 0);
 	}
 
 	/**
@@ -159,8 +161,9 @@ public class ByteOperations
 	 */
 	public static long getLong(final byte[] bytes) throws BufferUnderflowException
 	{
-		final ByteBuffer bb = ByteBuffer.wrap(bytes);
-		return bb.getLong();
+		if (bytes.length < 8) { throw new BufferUnderflowException(); }
+
+		return getLong(bytes, 0);
 	}
 
 	/**
@@ -178,11 +181,8 @@ public class ByteOperations
 	public static String getString(final byte[] bytes) throws BufferUnderflowException
 	{
 		final ByteBuffer bb = ByteBuffer.wrap(bytes);
-		final int length = bb.getInt();
-		final byte[] buffer = new byte[length];
 
-		bb.get(buffer);
-		return CO.toString(buffer);
+		return StringCodec.decode(bb, bb.getInt());
 	}
 
 	/**
@@ -219,9 +219,7 @@ public class ByteOperations
 	 */
 	public static int getInt(final InputStream in) throws IOException
 	{
-		final byte[] buffer = new byte[4];
-		in.read(buffer);
-		return getInt(buffer);
+		return getInt(CO.readFully(in, 4));
 	}
 
 	/**
@@ -240,9 +238,7 @@ public class ByteOperations
 	 */
 	public static long getLong(final InputStream in) throws IOException
 	{
-		final byte[] buffer = new byte[8];
-		in.read(buffer);
-		return getLong(buffer);
+		return getLong(CO.readFully(in, 8));
 	}
 
 	/**
@@ -263,15 +259,36 @@ public class ByteOperations
 	 */
 	public static String getString(final InputStream in) throws IOException
 	{
-		byte[] buffer = new byte[4];
-		in.read(buffer);
+		return getString(in, null);
+	}
+
+	/**
+	 * Reads the {@link java.io.InputStream InputStream} and returns the expected value, like
+	 * {@link #getString(InputStream)}, but looks the value up in the provided cache first. Use
+	 * this for values that are repeated a lot, such as names and keys.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read the bytes from. The
+	 *            {@link java.io.InputStream InputStream} may still have data left after this
+	 *            function has been called.
+	 * @param cache
+	 *            The {@link com.cellngine.StringCodec.Cache Cache} to use, or {@code null} to
+	 *            always decode.
+	 * @return A {@link java.lang.String String} object.
+	 * @throws IOException
+	 *             If the {@link java.io.InputStream InputStream} does not contain the
+	 *             necessary amount of bytes to return a value, or the length is negative. The
+	 *             length is not trusted: no more memory is allocated than the stream supplies.
+	 */
+	public static String getString(final InputStream in, final StringCodec.Cache cache) throws IOException
+	{
+		final int length = getInt(in);
 
-		final int length = getInt(buffer);
+		if (length < 0) { throw new IOException("Invalid length: " + length); }
 
-		buffer = new byte[length];
-		in.read(buffer);
+		final byte[] bytes = CO.readFully(in, length);
 
-		return CO.toString(buffer);
+		return cache == null ? StringCodec.decode(bytes, 0, length) : cache.decode(bytes, 0, length);
 	}
 
 	/**
@@ -294,4 +311,1215 @@ public class ByteOperations
 	{
 		return CO.toBigDecimal(getString(in));
 	}
-}
\ No newline at end of file
+
+	/*
+	 * Offset accessors. These read and write values at any position of an array without wrapping it
+	 * in a ByteBuffer. Every accessor performs a single bounds check up front, which the JIT can hoist
+	 * out of loops; the individual array accesses are then known to be in range.
+	 */
+
+	private static void checkIndex(final byte[] bytes, final int offset, final int size)
+	{
+		if (offset < 0 || offset > bytes.length - size) { throw new IndexOutOfBoundsException("Offset " + offset
+				+ " out of bounds for " + size + " bytes in an array of length " + bytes.length); }
+	}
+
+	/**
+	 * @param bytes
+	 *            The array to read from.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @return The big-endian value at the given position.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static short getShort(final byte[] bytes, final int offset)
+	{
+		checkIndex(bytes, offset, 2);
+
+		return (short) ((bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF);
+	}
+
+	/**
+	 * @param bytes
+	 *            The array to read from.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @return The little-endian value at the given position.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static short getShortLE(final byte[] bytes, final int offset)
+	{
+		checkIndex(bytes, offset, 2);
+
+		return (short) (bytes[offset] & 0xFF | (bytes[offset + 1] & 0xFF) << 8);
+	}
+
+	/**
+	 * @param bytes
+	 *            The array to read from.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @return The big-endian value at the given position.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static int getInt(final byte[] bytes, final int offset)
+	{
+		checkIndex(bytes, offset, 4);
+
+		return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8
+				| bytes[offset + 3] & 0xFF;
+	}
+
+	/**
+	 * @param bytes
+	 *            The array to read from.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @return The little-endian value at the given position.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static int getIntLE(final byte[] bytes, final int offset)
+	{
+		checkIndex(bytes, offset, 4);
+
+		return bytes[offset] & 0xFF | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16
+				| (bytes[offset + 3] & 0xFF) << 24;
+	}
+
+	/**
+	 * @param bytes
+	 *            The array to read from.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @return The big-endian value at the given position.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static long getLong(final byte[] bytes, final int offset)
+	{
+		checkIndex(bytes, offset, 8);
+
+		return (long) getInt(bytes, offset) << 32 | getInt(bytes, offset + 4) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param bytes
+	 *            The array to read from.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @return The little-endian value at the given position.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static long getLongLE(final byte[] bytes, final int offset)
+	{
+		checkIndex(bytes, offset, 8);
+
+		return getIntLE(bytes, offset) & 0xFFFFFFFFL | (long) getIntLE(bytes, offset + 4) << 32;
+	}
+
+	/**
+	 * Stores a big-endian value at the given position.
+	 *
+	 * @param bytes
+	 *            The array to write to.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @param value
+	 *            The value to store.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static void putShort(final byte[] bytes, final int offset, final short value)
+	{
+		checkIndex(bytes, offset, 2);
+
+		bytes[offset] = (byte) (value >>> 8);
+		bytes[offset + 1] = (byte) value;
+	}
+
+	/**
+	 * Stores a little-endian value at the given position.
+	 *
+	 * @param bytes
+	 *            The array to write to.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @param value
+	 *            The value to store.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static void putShortLE(final byte[] bytes, final int offset, final short value)
+	{
+		checkIndex(bytes, offset, 2);
+
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >>> 8);
+	}
+
+	/**
+	 * Stores a big-endian value at the given position.
+	 *
+	 * @param bytes
+	 *            The array to write to.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @param value
+	 *            The value to store.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static void putInt(final byte[] bytes, final int offset, final int value)
+	{
+		checkIndex(bytes, offset, 4);
+
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Stores a little-endian value at the given position.
+	 *
+	 * @param bytes
+	 *            The array to write to.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @param value
+	 *            The value to store.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static void putIntLE(final byte[] bytes, final int offset, final int value)
+	{
+		checkIndex(bytes, offset, 4);
+
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >>> 8);
+		bytes[offset + 2] = (byte) (value >>> 16);
+		bytes[offset + 3] = (byte) (value >>> 24);
+	}
+
+	/**
+	 * Stores a big-endian value at the given position.
+	 *
+	 * @param bytes
+	 *            The array to write to.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @param value
+	 *            The value to store.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static void putLong(final byte[] bytes, final int offset, final long value)
+	{
+		checkIndex(bytes, offset, 8);
+
+		putInt(bytes, offset, (int) (value >>> 32));
+		putInt(bytes, offset + 4, (int) value);
+	}
+
+	/**
+	 * Stores a little-endian value at the given position.
+	 *
+	 * @param bytes
+	 *            The array to write to.
+	 * @param offset
+	 *            The position of the value within the array.
+	 * @param value
+	 *            The value to store.
+	 * @throws IndexOutOfBoundsException
+	 *             If the value does not fit within the array.
+	 */
+	public static void putLongLE(final byte[] bytes, final int offset, final long value)
+	{
+		checkIndex(bytes, offset, 8);
+
+		putIntLE(bytes, offset, (int) value);
+		putIntLE(bytes, offset + 4, (int) (value >>> 32));
+	}
+
+	/*
+	 * Bulk accessors. These copy whole arrays through a view buffer (e.g. ByteBuffer.asIntBuffer()),
+	 * which the JDK implements as a single bulk copy with byte swapping where needed instead of one
+	 * call per element.
+	 */
+
+	/**
+	 * Reads the element count of a length-prefixed array and makes sure the elements are present.
+	 */
+	private static int getCount(final ByteBuffer bb, final int elementSize) throws BufferUnderflowException
+	{
+		final int count = bb.getInt();
+
+		if (count < 0 || count > bb.remaining() / elementSize) { throw new BufferUnderflowException(); }
+
+		return count;
+	}
+
+	/**
+	 * Writes the elements of the array to the buffer, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to.
+	 * @param input
+	 *            The array to take the elements from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The amount of elements to write.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the buffer does not have enough space left.
+	 */
+	public static void putShorts(final ByteBuffer bb, final short[] input, final int offset, final int length)
+	{
+		bb.asShortBuffer().put(input, offset, length);
+		bb.position(bb.position() + length * 2);
+	}
+
+	/**
+	 * Reads elements from the buffer into the array, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @param output
+	 *            The array to store the elements in.
+	 * @param offset
+	 *            The index of the first element to store.
+	 * @param length
+	 *            The amount of elements to read.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain enough bytes.
+	 */
+	public static void getShorts(final ByteBuffer bb, final short[] output, final int offset, final int length)
+			throws BufferUnderflowException
+	{
+		bb.asShortBuffer().get(output, offset, length);
+		bb.position(bb.position() + length * 2);
+	}
+
+	/**
+	 * Converts the provided {@code input} to a byte array representation.<br />
+	 * <br />
+	 *
+	 * The amount of elements is added in front of the elements, which are stored in big-endian
+	 * order.
+	 *
+	 * @param input
+	 *            An array of short values.
+	 * @return A byte array representation of the {@code input}.
+	 */
+	public static byte[] toBytes(final short[] input)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(4 + input.length * 2);
+		bb.putInt(input.length);
+		putShorts(bb, input, 0, input.length);
+
+		return bb.array();
+	}
+
+	/**
+	 * Converts the provided {@code bytes} to the expected value. This function assumes that the
+	 * amount of elements has been prefixed to the byte array, as done by
+	 * {@link #toBytes(short[])}.
+	 *
+	 * @param bytes
+	 *            A byte array to take the value from. The array may be larger than the amount
+	 *            of bytes needed to retrieve the value.
+	 * @return An array of short values.
+	 * @throws BufferUnderflowException
+	 *             If the byte array does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static short[] getShortArray(final byte[] bytes) throws BufferUnderflowException
+	{
+		return getShortArray(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads an array written by {@link #toBytes(short[])} from the buffer, starting at its current
+	 * position, and advances the position. The elements are read in big-endian order regardless of
+	 * the byte order of the buffer.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @return An array of short values.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static short[] getShortArray(final ByteBuffer bb) throws BufferUnderflowException
+	{
+		final ByteBuffer be = bb.duplicate().order(ByteOrder.BIG_ENDIAN);
+		final short[] output = new short[getCount(be, 2)];
+		getShorts(be, output, 0, output.length);
+		bb.position(be.position());
+
+		return output;
+	}
+
+	/**
+	 * Writes the elements of the array to the buffer, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to.
+	 * @param input
+	 *            The array to take the elements from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The amount of elements to write.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the buffer does not have enough space left.
+	 */
+	public static void putInts(final ByteBuffer bb, final int[] input, final int offset, final int length)
+	{
+		bb.asIntBuffer().put(input, offset, length);
+		bb.position(bb.position() + length * 4);
+	}
+
+	/**
+	 * Reads elements from the buffer into the array, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @param output
+	 *            The array to store the elements in.
+	 * @param offset
+	 *            The index of the first element to store.
+	 * @param length
+	 *            The amount of elements to read.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain enough bytes.
+	 */
+	public static void getInts(final ByteBuffer bb, final int[] output, final int offset, final int length)
+			throws BufferUnderflowException
+	{
+		bb.asIntBuffer().get(output, offset, length);
+		bb.position(bb.position() + length * 4);
+	}
+
+	/**
+	 * Converts the provided {@code input} to a byte array representation.<br />
+	 * <br />
+	 *
+	 * The amount of elements is added in front of the elements, which are stored in big-endian
+	 * order.
+	 *
+	 * @param input
+	 *            An array of int values.
+	 * @return A byte array representation of the {@code input}.
+	 */
+	public static byte[] toBytes(final int[] input)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(4 + input.length * 4);
+		bb.putInt(input.length);
+		putInts(bb, input, 0, input.length);
+
+		return bb.array();
+	}
+
+	/**
+	 * Converts the provided {@code bytes} to the expected value. This function assumes that the
+	 * amount of elements has been prefixed to the byte array, as done by
+	 * {@link #toBytes(int[])}.
+	 *
+	 * @param bytes
+	 *            A byte array to take the value from. The array may be larger than the amount
+	 *            of bytes needed to retrieve the value.
+	 * @return An array of int values.
+	 * @throws BufferUnderflowException
+	 *             If the byte array does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static int[] getIntArray(final byte[] bytes) throws BufferUnderflowException
+	{
+		return getIntArray(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads an array written by {@link #toBytes(int[])} from the buffer, starting at its current
+	 * position, and advances the position. The elements are read in big-endian order regardless of
+	 * the byte order of the buffer.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @return An array of int values.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static int[] getIntArray(final ByteBuffer bb) throws BufferUnderflowException
+	{
+		final ByteBuffer be = bb.duplicate().order(ByteOrder.BIG_ENDIAN);
+		final int[] output = new int[getCount(be, 4)];
+		getInts(be, output, 0, output.length);
+		bb.position(be.position());
+
+		return output;
+	}
+
+	/**
+	 * Writes the elements of the array to the buffer, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to.
+	 * @param input
+	 *            The array to take the elements from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The amount of elements to write.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the buffer does not have enough space left.
+	 */
+	public static void putLongs(final ByteBuffer bb, final long[] input, final int offset, final int length)
+	{
+		bb.asLongBuffer().put(input, offset, length);
+		bb.position(bb.position() + length * 8);
+	}
+
+	/**
+	 * Reads elements from the buffer into the array, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @param output
+	 *            The array to store the elements in.
+	 * @param offset
+	 *            The index of the first element to store.
+	 * @param length
+	 *            The amount of elements to read.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain enough bytes.
+	 */
+	public static void getLongs(final ByteBuffer bb, final long[] output, final int offset, final int length)
+			throws BufferUnderflowException
+	{
+		bb.asLongBuffer().get(output, offset, length);
+		bb.position(bb.position() + length * 8);
+	}
+
+	/**
+	 * Converts the provided {@code input} to a byte array representation.<br />
+	 * <br />
+	 *
+	 * The amount of elements is added in front of the elements, which are stored in big-endian
+	 * order.
+	 *
+	 * @param input
+	 *            An array of long values.
+	 * @return A byte array representation of the {@code input}.
+	 */
+	public static byte[] toBytes(final long[] input)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(4 + input.length * 8);
+		bb.putInt(input.length);
+		putLongs(bb, input, 0, input.length);
+
+		return bb.array();
+	}
+
+	/**
+	 * Converts the provided {@code bytes} to the expected value. This function assumes that the
+	 * amount of elements has been prefixed to the byte array, as done by
+	 * {@link #toBytes(long[])}.
+	 *
+	 * @param bytes
+	 *            A byte array to take the value from. The array may be larger than the amount
+	 *            of bytes needed to retrieve the value.
+	 * @return An array of long values.
+	 * @throws BufferUnderflowException
+	 *             If the byte array does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static long[] getLongArray(final byte[] bytes) throws BufferUnderflowException
+	{
+		return getLongArray(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads an array written by {@link #toBytes(long[])} from the buffer, starting at its current
+	 * position, and advances the position. The elements are read in big-endian order regardless of
+	 * the byte order of the buffer.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @return An array of long values.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static long[] getLongArray(final ByteBuffer bb) throws BufferUnderflowException
+	{
+		final ByteBuffer be = bb.duplicate().order(ByteOrder.BIG_ENDIAN);
+		final long[] output = new long[getCount(be, 8)];
+		getLongs(be, output, 0, output.length);
+		bb.position(be.position());
+
+		return output;
+	}
+
+	/**
+	 * Writes the elements of the array to the buffer, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to.
+	 * @param input
+	 *            The array to take the elements from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The amount of elements to write.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the buffer does not have enough space left.
+	 */
+	public static void putFloats(final ByteBuffer bb, final float[] input, final int offset, final int length)
+	{
+		bb.asFloatBuffer().put(input, offset, length);
+		bb.position(bb.position() + length * 4);
+	}
+
+	/**
+	 * Reads elements from the buffer into the array, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @param output
+	 *            The array to store the elements in.
+	 * @param offset
+	 *            The index of the first element to store.
+	 * @param length
+	 *            The amount of elements to read.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain enough bytes.
+	 */
+	public static void getFloats(final ByteBuffer bb, final float[] output, final int offset, final int length)
+			throws BufferUnderflowException
+	{
+		bb.asFloatBuffer().get(output, offset, length);
+		bb.position(bb.position() + length * 4);
+	}
+
+	/**
+	 * Converts the provided {@code input} to a byte array representation.<br />
+	 * <br />
+	 *
+	 * The amount of elements is added in front of the elements, which are stored in big-endian
+	 * order.
+	 *
+	 * @param input
+	 *            An array of float values.
+	 * @return A byte array representation of the {@code input}.
+	 */
+	public static byte[] toBytes(final float[] input)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(4 + input.length * 4);
+		bb.putInt(input.length);
+		putFloats(bb, input, 0, input.length);
+
+		return bb.array();
+	}
+
+	/**
+	 * Converts the provided {@code bytes} to the expected value. This function assumes that the
+	 * amount of elements has been prefixed to the byte array, as done by
+	 * {@link #toBytes(float[])}.
+	 *
+	 * @param bytes
+	 *            A byte array to take the value from. The array may be larger than the amount
+	 *            of bytes needed to retrieve the value.
+	 * @return An array of float values.
+	 * @throws BufferUnderflowException
+	 *             If the byte array does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static float[] getFloatArray(final byte[] bytes) throws BufferUnderflowException
+	{
+		return getFloatArray(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads an array written by {@link #toBytes(float[])} from the buffer, starting at its current
+	 * position, and advances the position. The elements are read in big-endian order regardless of
+	 * the byte order of the buffer.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @return An array of float values.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static float[] getFloatArray(final ByteBuffer bb) throws BufferUnderflowException
+	{
+		final ByteBuffer be = bb.duplicate().order(ByteOrder.BIG_ENDIAN);
+		final float[] output = new float[getCount(be, 4)];
+		getFloats(be, output, 0, output.length);
+		bb.position(be.position());
+
+		return output;
+	}
+
+	/**
+	 * Writes the elements of the array to the buffer, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to.
+	 * @param input
+	 *            The array to take the elements from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The amount of elements to write.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the buffer does not have enough space left.
+	 */
+	public static void putDoubles(final ByteBuffer bb, final double[] input, final int offset, final int length)
+	{
+		bb.asDoubleBuffer().put(input, offset, length);
+		bb.position(bb.position() + length * 8);
+	}
+
+	/**
+	 * Reads elements from the buffer into the array, in the byte order of the buffer, and advances
+	 * its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @param output
+	 *            The array to store the elements in.
+	 * @param offset
+	 *            The index of the first element to store.
+	 * @param length
+	 *            The amount of elements to read.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain enough bytes.
+	 */
+	public static void getDoubles(final ByteBuffer bb, final double[] output, final int offset, final int length)
+			throws BufferUnderflowException
+	{
+		bb.asDoubleBuffer().get(output, offset, length);
+		bb.position(bb.position() + length * 8);
+	}
+
+	/**
+	 * Converts the provided {@code input} to a byte array representation.<br />
+	 * <br />
+	 *
+	 * The amount of elements is added in front of the elements, which are stored in big-endian
+	 * order.
+	 *
+	 * @param input
+	 *            An array of double values.
+	 * @return A byte array representation of the {@code input}.
+	 */
+	public static byte[] toBytes(final double[] input)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(4 + input.length * 8);
+		bb.putInt(input.length);
+		putDoubles(bb, input, 0, input.length);
+
+		return bb.array();
+	}
+
+	/**
+	 * Converts the provided {@code bytes} to the expected value. This function assumes that the
+	 * amount of elements has been prefixed to the byte array, as done by
+	 * {@link #toBytes(double[])}.
+	 *
+	 * @param bytes
+	 *            A byte array to take the value from. The array may be larger than the amount
+	 *            of bytes needed to retrieve the value.
+	 * @return An array of double values.
+	 * @throws BufferUnderflowException
+	 *             If the byte array does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static double[] getDoubleArray(final byte[] bytes) throws BufferUnderflowException
+	{
+		return getDoubleArray(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads an array written by {@link #toBytes(double[])} from the buffer, starting at its current
+	 * position, and advances the position. The elements are read in big-endian order regardless of
+	 * the byte order of the buffer.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @return An array of double values.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static double[] getDoubleArray(final ByteBuffer bb) throws BufferUnderflowException
+	{
+		final ByteBuffer be = bb.duplicate().order(ByteOrder.BIG_ENDIAN);
+		final double[] output = new double[getCount(be, 8)];
+		getDoubles(be, output, 0, output.length);
+		bb.position(be.position());
+
+		return output;
+	}
+
+	/*
+	 * Compact encodings. Varints store 7 bits per byte, least significant group first, with the high
+	 * bit set on every byte but the last (LEB128); a value below 128 takes a single byte. Signed
+	 * values that may be negative should be zigzag encoded first, otherwise they always take the
+	 * maximum amount of bytes.
+	 */
+
+	/**
+	 * Maps signed values to unsigned ones so that values close to zero stay small: 0, -1, 1, -2, 2
+	 * become 0, 1, 2, 3, 4.
+	 *
+	 * @param value
+	 *            A signed value.
+	 * @return The zigzag encoded value.
+	 */
+	public static int encodeZigZag(final int value)
+	{
+		return value << 1 ^ value >> 31;
+	}
+
+	/**
+	 * @param value
+	 *            A value returned by {@link #encodeZigZag(int)}.
+	 * @return The original signed value.
+	 */
+	public static int decodeZigZag(final int value)
+	{
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	/**
+	 * Maps signed values to unsigned ones so that values close to zero stay small: 0, -1, 1, -2, 2
+	 * become 0, 1, 2, 3, 4.
+	 *
+	 * @param value
+	 *            A signed value.
+	 * @return The zigzag encoded value.
+	 */
+	public static long encodeZigZag(final long value)
+	{
+		return value << 1 ^ value >> 63;
+	}
+
+	/**
+	 * @param value
+	 *            A value returned by {@link #encodeZigZag(long)}.
+	 * @return The original signed value.
+	 */
+	public static long decodeZigZag(final long value)
+	{
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	/**
+	 * @param value
+	 *            The value to encode.
+	 * @return The amount of bytes {@link #putVarInt(ByteBuffer, int)} will write for the value,
+	 *         between 1 and 5.
+	 */
+	public static int getVarIntSize(final int value)
+	{
+		return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+	/**
+	 * @param value
+	 *            The value to encode.
+	 * @return The amount of bytes {@link #putVarLong(ByteBuffer, long)} will write for the value,
+	 *         between 1 and 10.
+	 */
+	public static int getVarLongSize(final long value)
+	{
+		return (63 - Long.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+	/**
+	 * Converts the provided {@code input} to a varint representation. The value is treated as
+	 * unsigned; use {@link #encodeZigZag(int)} for values that may be negative.
+	 *
+	 * @param input
+	 *            The value to convert.
+	 * @return A byte array of 1 to 5 bytes.
+	 */
+	public static byte[] toVarInt(final int input)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(getVarIntSize(input));
+		putVarInt(bb, input);
+
+		return bb.array();
+	}
+
+	/**
+	 * Converts the provided {@code input} to a varint representation. The value is treated as
+	 * unsigned; use {@link #encodeZigZag(long)} for values that may be negative.
+	 *
+	 * @param input
+	 *            The value to convert.
+	 * @return A byte array of 1 to 10 bytes.
+	 */
+	public static byte[] toVarLong(final long input)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(getVarLongSize(input));
+		putVarLong(bb, input);
+
+		return bb.array();
+	}
+
+	/**
+	 * Writes the value as a varint and advances the position of the buffer.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to.
+	 * @param value
+	 *            The value to write, treated as unsigned.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the buffer does not have enough space left.
+	 */
+	public static void putVarInt(final ByteBuffer bb, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			bb.put((byte) (value | 0x80));
+			value >>>= 7;
+		}
+
+		bb.put((byte) value);
+	}
+
+	/**
+	 * Writes the value as a varint and advances the position of the buffer.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to.
+	 * @param value
+	 *            The value to write, treated as unsigned.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the buffer does not have enough space left.
+	 */
+	public static void putVarLong(final ByteBuffer bb, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			bb.put((byte) (value | 0x80));
+			value >>>= 7;
+		}
+
+		bb.put((byte) value);
+	}
+
+	/**
+	 * Reads a varint from the buffer and advances its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @return The value, as written by {@link #putVarInt(ByteBuffer, int)}.
+	 * @throws BufferUnderflowException
+	 *             If the buffer ends before the last byte of the value.
+	 * @throws IllegalArgumentException
+	 *             If the value does not fit in an int.
+	 */
+	public static int getVarInt(final ByteBuffer bb) throws BufferUnderflowException
+	{
+		int value = 0;
+
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			final byte b = bb.get();
+
+			//The last byte only holds the 4 highest bits of the value.
+			if (shift == 28 && (b & 0x70) != 0) { throw new IllegalArgumentException("Malformed varint"); }
+
+			value |= (b & 0x7F) << shift;
+
+			if (b >= 0) { return value; }
+		}
+
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	/**
+	 * Reads a varint from the buffer and advances its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @return The value, as written by {@link #putVarLong(ByteBuffer, long)}.
+	 * @throws BufferUnderflowException
+	 *             If the buffer ends before the last byte of the value.
+	 * @throws IllegalArgumentException
+	 *             If the value does not fit in a long.
+	 */
+	public static long getVarLong(final ByteBuffer bb) throws BufferUnderflowException
+	{
+		long value = 0;
+
+		for (int shift = 0; shift < 70; shift += 7)
+		{
+			final byte b = bb.get();
+
+			//The last byte only holds the highest bit of the value.
+			if (shift == 63 && (b & 0x7E) != 0) { throw new IllegalArgumentException("Malformed varint"); }
+
+			value |= (long) (b & 0x7F) << shift;
+
+			if (b >= 0) { return value; }
+		}
+
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	/**
+	 * Reads a varint from the {@link java.io.InputStream InputStream}, one byte at a time. The
+	 * stream should be buffered.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read the bytes from. The
+	 *            {@link java.io.InputStream InputStream} may still have data left after this
+	 *            function has been called.
+	 * @return The value, as written by {@link #putVarInt(ByteBuffer, int)}.
+	 * @throws IOException
+	 *             If the {@link java.io.InputStream InputStream} ends before the last byte of
+	 *             the value, or the value does not fit in an int.
+	 */
+	public static int getVarInt(final InputStream in) throws IOException
+	{
+		int value = 0;
+
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			final int b = in.read();
+
+			if (b < 0) { throw new EOFException(); }
+
+			//The last byte only holds the 4 highest bits of the value.
+			if (shift == 28 && (b & 0x70) != 0) { throw new IOException("Malformed varint"); }
+
+			value |= (b & 0x7F) << shift;
+
+			if (b < 0x80) { return value; }
+		}
+
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Reads a varint from the {@link java.io.InputStream InputStream}, one byte at a time. The
+	 * stream should be buffered.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read the bytes from. The
+	 *            {@link java.io.InputStream InputStream} may still have data left after this
+	 *            function has been called.
+	 * @return The value, as written by {@link #putVarLong(ByteBuffer, long)}.
+	 * @throws IOException
+	 *             If the {@link java.io.InputStream InputStream} ends before the last byte of
+	 *             the value, or the value does not fit in a long.
+	 */
+	public static long getVarLong(final InputStream in) throws IOException
+	{
+		long value = 0;
+
+		for (int shift = 0; shift < 70; shift += 7)
+		{
+			final int b = in.read();
+
+			if (b < 0) { throw new EOFException(); }
+
+			//The last byte only holds the highest bit of the value.
+			if (shift == 63 && (b & 0x7E) != 0) { throw new IOException("Malformed varint"); }
+
+			value |= (long) (b & 0x7F) << shift;
+
+			if (b < 0x80) { return value; }
+		}
+
+		throw new IOException("Malformed varint");
+	}
+
+	/*
+	 * Compact BigDecimal encoding: the zigzag varint scale, a varint byte count and the unscaled value
+	 * as big-endian two's complement (as BigInteger.toByteArray()). Unscaled values that fit in a
+	 * long, which covers all currency amounts, never go through a BigInteger while decoding and
+	 * never through a String in either direction.
+	 */
+
+	/**
+	 * @param input
+	 *            The value to encode.
+	 * @return The amount of bytes {@link #putCompactBigDecimal(ByteBuffer, BigDecimal)} will write
+	 *         for the value.
+	 */
+	public static int getCompactBigDecimalSize(final BigDecimal input)
+	{
+		final int length = input.unscaledValue().bitLength() / 8 + 1;
+
+		return getVarIntSize(encodeZigZag(input.scale())) + getVarIntSize(length) + length;
+	}
+
+	/**
+	 * Converts the provided {@code input} to its compact binary representation.
+	 *
+	 * @param input
+	 *            A {@link java.math.BigDecimal BigDecimal} object.
+	 * @return A byte array representation of the {@code input}.
+	 */
+	public static byte[] toCompactBytes(final BigDecimal input)
+	{
+		final ByteBuffer bb = ByteBuffer.allocate(getCompactBigDecimalSize(input));
+		putCompactBigDecimal(bb, input);
+
+		return bb.array();
+	}
+
+	/**
+	 * Writes the value in its compact binary representation and advances the position of the
+	 * buffer.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to.
+	 * @param input
+	 *            A {@link java.math.BigDecimal BigDecimal} object.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the buffer does not have enough space left.
+	 */
+	public static void putCompactBigDecimal(final ByteBuffer bb, final BigDecimal input)
+	{
+		final BigInteger unscaled = input.unscaledValue();
+		final int bitLength = unscaled.bitLength();
+
+		putVarInt(bb, encodeZigZag(input.scale()));
+
+		if (bitLength < 64)
+		{
+			final long value = unscaled.longValue();
+			final int length = bitLength / 8 + 1;
+
+			putVarInt(bb, length);
+
+			for (int shift = (length - 1) * 8; shift >= 0; shift -= 8)
+			{
+				bb.put((byte) (value >> shift));
+			}
+		}
+		else
+		{
+			final byte[] bytes = unscaled.toByteArray();
+
+			putVarInt(bb, bytes.length);
+			bb.put(bytes);
+		}
+	}
+
+	/**
+	 * Reads a value written by {@link #putCompactBigDecimal(ByteBuffer, BigDecimal)} and advances
+	 * the position of the buffer.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @return A {@link java.math.BigDecimal BigDecimal} object.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain the necessary amount of bytes to return a
+	 *             value.
+	 * @throws IllegalArgumentException
+	 *             If the encoding is malformed.
+	 */
+	public static BigDecimal getCompactBigDecimal(final ByteBuffer bb) throws BufferUnderflowException
+	{
+		final int scale = decodeZigZag(getVarInt(bb));
+		final int length = getVarInt(bb);
+
+		if (length < 1) { throw new IllegalArgumentException("Invalid length: " + length); }
+		if (length > bb.remaining()) { throw new BufferUnderflowException(); }
+
+		if (length <= 8)
+		{
+			long value = bb.get();
+
+			for (int i = 1; i < length; i++)
+			{
+				value = value << 8 | bb.get() & 0xFF;
+			}
+
+			return BigDecimal.valueOf(value, scale);
+		}
+
+		final byte[] bytes = new byte[length];
+		bb.get(bytes);
+
+		return new BigDecimal(new BigInteger(bytes), scale);
+	}
+
+	/**
+	 * Converts the provided {@code bytes} to the expected value. This function assumes the
+	 * format of {@link #toCompactBytes(BigDecimal)}.
+	 *
+	 * @param bytes
+	 *            A byte array to take the value from. The array may be larger than the amount
+	 *            of bytes needed to retrieve the value.
+	 * @return A {@link java.math.BigDecimal BigDecimal} object.
+	 * @throws BufferUnderflowException
+	 *             If the byte array does not contain the necessary amount
+	 *             of bytes to return a value.
+	 */
+	public static BigDecimal getCompactBigDecimal(final byte[] bytes) throws BufferUnderflowException
+	{
+		return getCompactBigDecimal(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads the {@link java.io.InputStream InputStream} and returns a value written by
+	 * {@link #putCompactBigDecimal(ByteBuffer, BigDecimal)}.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read the bytes from. The
+	 *            {@link java.io.InputStream InputStream} may still have data left after this
+	 *            function has been called.
+	 * @return A {@link java.math.BigDecimal BigDecimal} object.
+	 * @throws IOException
+	 *             If the {@link java.io.InputStream InputStream} does not contain the
+	 *             necessary amount of bytes to return a value, or the encoding is malformed.
+	 */
+	public static BigDecimal getCompactBigDecimal(final InputStream in) throws IOException
+	{
+		final int scale = decodeZigZag(getVarInt(in));
+		final int length = getVarInt(in);
+
+		if (length < 1) { throw new IOException("Invalid length: " + length); }
+
+		final byte[] bytes = CO.readFully(in, length);
+
+		if (length <= 8)
+		{
+			long value = bytes[0];
+
+			for (int i = 1; i < length; i++)
+			{
+				value = value << 8 | bytes[i] & 0xFF;
+			}
+
+			return BigDecimal.valueOf(value, scale);
+		}
+
+		return new BigDecimal(new BigInteger(bytes), scale);
+	}
+}
@@ -16,19 +16,27 @@
 */
 package com.cellngine;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.cellngine.crypto.DigestPool;
+import com.cellngine.io.BufferPool;
 
 /**
  * A collection of common operations.
@@ -38,6 +46,27 @@ import java.security.NoSuchAlgorithmException;
  */
 public class CO
 {
+	private static final BigDecimal	BIG_DECIMAL_ZERO	= new BigDecimal("0.00");
+
+	/**
+	 * The maximum amount of bytes handed to a single transferTo() or transferFrom() call. Some
+	 * platforms transfer at most this much per call anyway, and smaller calls keep the copy
+	 * responsive to interrupts.
+	 */
+	private static final long		MAX_TRANSFER_SIZE	= 8 * 1024 * 1024;
+
+	/**
+	 * The largest array some virtual machines can allocate.
+	 */
+	private static final int		MAX_ARRAY_SIZE		= Integer.MAX_VALUE - 8;
+
+	/**
+	 * The amount of bytes {@link #readFully(InputStream, int)} allocates before any data has
+	 * arrived. Lengths read from a stream can't be trusted, so larger arrays are only grown as
+	 * the data actually comes in.
+	 */
+	private static final int		INITIAL_READ_SIZE	= 64 * 1024;
+
 	/**
 	 * Converts a byte array to a hexadecimal String, courtesy of <a
 	 * href="http://stackoverflow.com/a/9855338">Stack Overflow</a>.
@@ -80,11 +109,17 @@ public class CO
 	 */
 	public static byte[] readFully(final InputStream source, final int length) throws IOException
 	{
+		if (length < 0) { throw new IllegalArgumentException("Invalid length: " + length); }
+
 		int bytesRead = 0;
-		final byte[] contents = new byte[length];
+		byte[] contents = new byte[Math.min(length, INITIAL_READ_SIZE)];
 		while (bytesRead < length)
 		{
-			final int read = source.read(contents, bytesRead, length - bytesRead);
+			if (bytesRead == contents.length)
+			{
+				contents = Arrays.copyOf(contents, (int) Math.min(length, 2L * contents.length));
+			}
+			final int read = source.read(contents, bytesRead, contents.length - bytesRead);
 			if (read == -1) { throw new EOFException(); }
 			bytesRead += read;
 		}
@@ -180,14 +215,7 @@ public class CO
 	 */
 	public static String toString(final byte[] bytes)
 	{
-		try
-		{
-			return new String(bytes, "UTF-8");
-		}
-		catch (final Exception e)
-		{
-			throw new RuntimeException(e);
-		}
+		return StringCodec.decode(bytes, 0, bytes.length);
 	}
 
 	/**
@@ -196,14 +224,7 @@ public class CO
 	 */
 	public static int toInt(final Object o)
 	{
-		try
-		{
-			return Integer.parseInt(toString(o));
-		}
-		catch (final Exception e)
-		{
-			return 0;
-		}
+		return parseInt(toString(o), 0);
 	}
 
 	/**
@@ -212,30 +233,310 @@ public class CO
 	 */
 	public static long toLong(final Object o)
 	{
-		try
+		return parseLong(toString(o), 0l);
+	}
+
+	/**
+	 * @param o
+	 *            An object to convert to an {@link java.math.BigDecimal BigDecimal}.
+	 */
+	public static BigDecimal toBigDecimal(final Object o)
+	{
+		return parseBigDecimal(toString(o), BIG_DECIMAL_ZERO);
+	}
+
+	/*
+	 * Exception-free parsers. These accept the same input as Integer.parseInt(), Long.parseLong() and
+	 * new BigDecimal(String), but return a default value for malformed or out of range input instead
+	 * of throwing, and parse ranges of a CharSequence or of a byte array (ASCII, e.g. straight out of
+	 * a message) without creating a String first. Apart from the returned BigDecimal they allocate
+	 * nothing.
+	 */
+
+	/**
+	 * @param s
+	 *            The characters to parse.
+	 * @param defaultValue
+	 *            The value to return if the characters are not a valid int.
+	 * @return The parsed value, or {@code defaultValue}.
+	 */
+	public static int parseInt(final CharSequence s, final int defaultValue)
+	{
+		return parseInt(s, 0, s.length(), defaultValue);
+	}
+
+	/**
+	 * @param s
+	 *            The characters to parse.
+	 * @param start
+	 *            The index of the first character.
+	 * @param end
+	 *            The index after the last character.
+	 * @param defaultValue
+	 *            The value to return if the characters are not a valid int.
+	 * @return The parsed value, or {@code defaultValue}.
+	 */
+	public static int parseInt(final CharSequence s, final int start, final int end, final int defaultValue)
+	{
+		checkRange(start, end, s.length());
+		return (int) parseLong(s, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE, defaultValue);
+	}
+
+	/**
+	 * @param bytes
+	 *            The array holding the ASCII characters to parse.
+	 * @param offset
+	 *            The index of the first character.
+	 * @param length
+	 *            The amount of characters.
+	 * @param defaultValue
+	 *            The value to return if the characters are not a valid int.
+	 * @return The parsed value, or {@code defaultValue}.
+	 */
+	public static int parseInt(final byte[] bytes, final int offset, final int length, final int defaultValue)
+	{
+		checkRange(offset, offset + length, bytes.length);
+		return (int) parseLong(bytes, offset, offset + length, Integer.MIN_VALUE, Integer.MAX_VALUE, defaultValue);
+	}
+
+	/**
+	 * @param s
+	 *            The characters to parse.
+	 * @param defaultValue
+	 *            The value to return if the characters are not a valid long.
+	 * @return The parsed value, or {@code defaultValue}.
+	 */
+	public static long parseLong(final CharSequence s, final long defaultValue)
+	{
+		return parseLong(s, 0, s.length(), defaultValue);
+	}
+
+	/**
+	 * @param s
+	 *            The characters to parse.
+	 * @param start
+	 *            The index of the first character.
+	 * @param end
+	 *            The index after the last character.
+	 * @param defaultValue
+	 *            The value to return if the characters are not a valid long.
+	 * @return The parsed value, or {@code defaultValue}.
+	 */
+	public static long parseLong(final CharSequence s, final int start, final int end, final long defaultValue)
+	{
+		checkRange(start, end, s.length());
+		return parseLong(s, start, end, Long.MIN_VALUE, Long.MAX_VALUE, defaultValue);
+	}
+
+	/**
+	 * @param bytes
+	 *            The array holding the ASCII characters to parse.
+	 * @param offset
+	 *            The index of the first character.
+	 * @param length
+	 *            The amount of characters.
+	 * @param defaultValue
+	 *            The value to return if the characters are not a valid long.
+	 * @return The parsed value, or {@code defaultValue}.
+	 */
+	public static long parseLong(final byte[] bytes, final int offset, final int length, final long defaultValue)
+	{
+		checkRange(offset, offset + length, bytes.length);
+		return parseLong(bytes, offset, offset + length, Long.MIN_VALUE, Long.MAX_VALUE, defaultValue);
+	}
+
+	/**
+	 * @param s
+	 *            The characters to parse.
+	 * @param defaultValue
+	 *            The value to return if the characters are not a valid
+	 *            {@link java.math.BigDecimal BigDecimal}.
+	 * @return The parsed value, or {@code defaultValue}.
+	 */
+	public static BigDecimal parseBigDecimal(final CharSequence s, final BigDecimal defaultValue)
+	{
+		return parseBigDecimal(s, 0, s.length(), defaultValue);
+	}
+
+	/**
+	 * @param s
+	 *            The characters to parse.
+	 * @param start
+	 *            The index of the first character.
+	 * @param end
+	 *            The index after the last character.
+	 * @param defaultValue
+	 *            The value to return if the characters are not a valid
+	 *            {@link java.math.BigDecimal BigDecimal}.
+	 * @return The parsed value, or {@code defaultValue}.
+	 */
+	public static BigDecimal parseBigDecimal(final CharSequence s, final int start, final int end,
+			final BigDecimal defaultValue)
+	{
+		checkRange(start, end, s.length());
+		return parseBigDecimal((Object) s, start, end, defaultValue);
+	}
+
+	/**
+	 * @param bytes
+	 *            The array holding the ASCII characters to parse.
+	 * @param offset
+	 *            The index of the first character.
+	 * @param length
+	 *            The amount of characters.
+	 * @param defaultValue
+	 *            The value to return if the characters are not a valid
+	 *            {@link java.math.BigDecimal BigDecimal}.
+	 * @return The parsed value, or {@code defaultValue}.
+	 */
+	public static BigDecimal parseBigDecimal(final byte[] bytes, final int offset, final int length,
+			final BigDecimal defaultValue)
+	{
+		checkRange(offset, offset + length, bytes.length);
+		return parseBigDecimal((Object) bytes, offset, offset + length, defaultValue);
+	}
+
+	private static void checkRange(final int start, final int end, final int length)
+	{
+		if (start < 0 || end < start || end > length) { throw new IndexOutOfBoundsException("Range [" + start + ", "
+				+ end + ") out of bounds for length " + length); }
+	}
+
+	/**
+	 * Returns the character at the index of either a CharSequence or an array of ASCII bytes, so that
+	 * both share the parsers below. Bytes outside of ASCII map to Latin-1 characters, none of which is a digit.
+	 */
+	private static char charAt(final Object source, final int index)
+	{
+		return source instanceof byte[] ? (char) (((byte[]) source)[index] & 0xFF) : ((CharSequence) source)
+				.charAt(index);
+	}
+
+	/**
+	 * Parses a decimal number within {@code [min, max]}, accumulating negatively like
+	 * {@link java.lang.Long#parseLong(String)} so that {@code min} itself can be parsed.
+	 */
+	private static long parseLong(final Object source, final int start, final int end, final long min,
+			final long max, final long defaultValue)
+	{
+		if (start == end) { return defaultValue; }
+
+		int i = start;
+		final char first = charAt(source, i);
+		final boolean negative = first == '-';
+
+		if (negative || first == '+')
 		{
-			return Long.parseLong(toString(o));
+			if (++i == end) { return defaultValue; }
 		}
-		catch (final Exception e)
+
+		final long limit = negative ? min : -max;
+		final long multiplyLimit = limit / 10;
+		long result = 0;
+
+		for (; i < end; i++)
 		{
-			return 0l;
+			final int digit = Character.digit(charAt(source, i), 10);
+
+			if (digit < 0 || result < multiplyLimit) { return defaultValue; }
+
+			result *= 10;
+
+			if (result < limit + digit) { return defaultValue; }
+
+			result -= digit;
 		}
+
+		return negative ? result : -result;
 	}
 
 	/**
-	 * @param o
-	 *            An object to convert to an {@link java.math.BigDecimal BigDecimal}.
+	 * Parses the grammar of {@link java.math.BigDecimal#BigDecimal(String)}: an optional sign,
+	 * digits with an optional decimal point, and an optional exponent. Unscaled values that fit in
+	 * a long are built without any intermediate objects; larger ones are validated here and then
+	 * handed to the BigDecimal constructor, which can no longer fail.
 	 */
-	public static BigDecimal toBigDecimal(final Object o)
+	private static BigDecimal parseBigDecimal(final Object source, final int start, final int end,
+			final BigDecimal defaultValue)
 	{
-		try
+		int i = start;
+
+		if (i < end && (charAt(source, i) == '-' || charAt(source, i) == '+'))
 		{
-			return new BigDecimal(toString(o));
+			i++;
 		}
-		catch (final Exception e)
+
+		final boolean negative = i > start && charAt(source, start) == '-';
+		long unscaled = 0;
+		boolean fitsLong = true;
+		int digits = 0;
+		long scale = 0;
+		boolean point = false;
+
+		for (; i < end; i++)
 		{
-			return new BigDecimal("0.00");
+			final char c = charAt(source, i);
+
+			if (c == '.')
+			{
+				if (point) { return defaultValue; }
+
+				point = true;
+				continue;
+			}
+
+			final int digit = Character.digit(c, 10);
+
+			if (digit < 0)
+			{
+				break;
+			}
+
+			if (unscaled > (Long.MAX_VALUE - digit) / 10)
+			{
+				fitsLong = false;
+			}
+			else
+			{
+				unscaled = unscaled * 10 + digit;
+			}
+
+			digits++;
+
+			if (point)
+			{
+				scale++;
+			}
+		}
+
+		if (digits == 0) { return defaultValue; }
+
+		if (i < end)
+		{
+			final char e = charAt(source, i);
+
+			if (e != 'e' && e != 'E') { return defaultValue; }
+
+			//The exponent must fit in an int, like the BigDecimal constructor requires.
+			final long exponent = parseLong(source, i + 1, end, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE);
+
+			if (exponent == Long.MIN_VALUE) { return defaultValue; }
+
+			scale -= exponent;
+		}
+
+		if (scale < Integer.MIN_VALUE || scale > Integer.MAX_VALUE) { return defaultValue; }
+
+		if (fitsLong) { return BigDecimal.valueOf(negative ? -unscaled : unscaled, (int) scale); }
+
+		final char[] chars = new char[end - start];
+
+		for (int j = 0; j < chars.length; j++)
+		{
+			chars[j] = charAt(source, start + j);
 		}
+
+		return new BigDecimal(chars);
 	}
 
 	/**
@@ -251,18 +552,28 @@ public class CO
 	 */
 	public static byte[] getBytesFromFile(final File file) throws FileNotFoundException, IOException
 	{
-		FileInputStream fis = null;
-
-		try
-		{
-			fis = new FileInputStream(file);
+		return getBytesFromFile(file, MAX_ARRAY_SIZE);
+	}
 
-			return getBytesFromInputStream(fis, false);
-		}
-		finally
-		{
-			closeInputStream(fis);
-		}
+	/**
+	 * Reads a file and returns its contents as a byte array. The array is allocated at the size of
+	 * the file up front, so no data is copied around while reading.
+	 *
+	 * @param file
+	 *            The file to read.
+	 * @param maxLength
+	 *            The maximum amount of bytes to read.
+	 * @return A byte array representing the contents of the file.
+	 * @throws FileNotFoundException
+	 *             If the file could not be found.
+	 * @throws IOException
+	 *             If there was an error while reading the file, or if the file is larger than
+	 *             {@code maxLength}.
+	 */
+	public static byte[] getBytesFromFile(final File file, final int maxLength) throws FileNotFoundException,
+			IOException
+	{
+		return getBytesFromInputStream(new FileInputStream(file), true, maxLength);
 	}
 
 	/**
@@ -280,28 +591,69 @@ public class CO
 	 */
 	public static byte[] getBytesFromInputStream(final InputStream in, final boolean close) throws IOException
 	{
-		ByteArrayOutputStream baos = null;
+		return getBytesFromInputStream(in, close, MAX_ARRAY_SIZE);
+	}
 
+	/**
+	 * Reads an {@link java.io.InputStream InputStream} and returns its contents as a byte array.<br />
+	 * <br />
+	 *
+	 * The remaining length of a {@link java.io.FileInputStream FileInputStream} or
+	 * {@link java.io.ByteArrayInputStream ByteArrayInputStream} is known in advance, in which case
+	 * the array is allocated at exactly that size. Files that report a size of 0, such as pipes,
+	 * are treated like any other stream. For other streams
+	 * {@link java.io.InputStream#available() available()} serves as the initial size, and the
+	 * array grows as needed; it is only copied once more at the end if it ended up too large.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read.
+	 * @param close
+	 *            {@code true} to close the {@link java.io.InputStream InputStream} after reading,
+	 *            {@code false} to keep it open.
+	 * @param maxLength
+	 *            The maximum amount of bytes to read.
+	 * @return A byte array representing the contents of the {@link java.io.InputStream InputStream}
+	 *         .
+	 * @throws IOException
+	 *             If there was an error while reading the {@link java.io.InputStream InputStream},
+	 *             or if it holds more than {@code maxLength} bytes.
+	 */
+	public static byte[] getBytesFromInputStream(final InputStream in, final boolean close, final int maxLength)
+			throws IOException
+	{
 		try
 		{
-			baos = new ByteArrayOutputStream();
+			//An exact length for files and byte arrays, merely a hint for anything else.
+			final long known = getKnownLength(in);
+			final long expected = known >= 0 ? known : Math.min(in.available(), maxLength);
 
-			byte[] buffer;
-			int i;
+			if (expected > maxLength) { throw new IOException("Input too large: " + expected + " bytes, maximum: "
+					+ maxLength); }
+
+			byte[] bytes = new byte[(int) expected];
+			int length = 0;
 
-			do
+			while (true)
 			{
-				buffer = new byte[1024];
+				if (length == bytes.length)
+				{
+					//Only grow if the stream has not ended yet.
+					final int b = in.read();
 
-				i = in.read(buffer);
+					if (b < 0) { return bytes; }
+					if (length >= maxLength) { throw new IOException("Input too large: more than " + maxLength
+							+ " bytes"); }
 
-				if (i > -1)
-				{
-					baos.write(buffer, 0, i);
+					bytes = Arrays.copyOf(bytes, (int) Math.min(maxLength, Math.max(8192, 2l * length)));
+					bytes[length++] = (byte) b;
 				}
-			} while (i > -1);
 
-			return baos.toByteArray();
+				final int i = in.read(bytes, length, bytes.length - length);
+
+				if (i < 0) { return length == bytes.length ? bytes : Arrays.copyOf(bytes, length); }
+
+				length += i;
+			}
 		}
 		finally
 		{
@@ -309,9 +661,110 @@ public class CO
 			{
 				closeInputStream(in);
 			}
+		}
+	}
+
+	/**
+	 * Reads a file into a {@link java.nio.ByteBuffer ByteBuffer}. Large files that are read once,
+	 * or only partially, are best mapped: the operating system then pages the data in on demand
+	 * and nothing is copied onto the Java heap.
+	 *
+	 * @param file
+	 *            The file to read.
+	 * @param map
+	 *            {@code true} to map the file into memory read-only, {@code false} to read it into
+	 *            a heap buffer.
+	 * @return A {@link java.nio.ByteBuffer ByteBuffer} holding the contents of the file, with its
+	 *         position at 0 and its limit at the length of the file.
+	 * @throws FileNotFoundException
+	 *             If the file could not be found.
+	 * @throws IOException
+	 *             If there was an error while reading the file, or if the file is larger than a
+	 *             {@link java.nio.ByteBuffer ByteBuffer} can hold.
+	 */
+	public static ByteBuffer getByteBufferFromFile(final File file, final boolean map) throws FileNotFoundException,
+			IOException
+	{
+		final FileInputStream fis = new FileInputStream(file);
+
+		try
+		{
+			final FileChannel channel = fis.getChannel();
+			final long size = channel.size();
+
+			if (size > MAX_ARRAY_SIZE) { throw new IOException("File too large: " + size + " bytes"); }
+
+			//The mapping stays valid after the channel has been closed.
+			if (map) { return channel.map(FileChannel.MapMode.READ_ONLY, 0, size); }
+
+			final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			readFully(fis, buffer);
+			buffer.flip();
+
+			return buffer;
+		}
+		finally
+		{
+			closeInputStream(fis);
+		}
+	}
+
+	/**
+	 * Reads from the {@link java.io.InputStream InputStream} into the {@link java.nio.ByteBuffer
+	 * ByteBuffer} until the buffer is full or the stream has ended, and advances the position of
+	 * the buffer. Heap buffers are read into directly.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read from.
+	 * @param buffer
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read into.
+	 * @return The amount of bytes read.
+	 * @throws IOException
+	 *             If there was an error while reading the {@link java.io.InputStream InputStream}.
+	 */
+	public static int readFully(final InputStream in, final ByteBuffer buffer) throws IOException
+	{
+		final int start = buffer.position();
+
+		if (in instanceof FileInputStream)
+		{
+			final FileChannel channel = ((FileInputStream) in).getChannel();
+
+			while (buffer.hasRemaining() && channel.read(buffer) > -1)
+			{
+				//Keep reading.
+			}
+		}
+		else if (buffer.hasArray())
+		{
+			int i;
+
+			while (buffer.hasRemaining()
+					&& (i = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())) > -1)
+			{
+				buffer.position(buffer.position() + i);
+			}
+		}
+		else
+		{
+			final byte[] array = BufferPool.DEFAULT.acquire();
 
-			closeOutputStream(baos);
+			try
+			{
+				int i;
+
+				while (buffer.hasRemaining() && (i = in.read(array, 0, Math.min(array.length, buffer.remaining()))) > -1)
+				{
+					buffer.put(array, 0, i);
+				}
+			}
+			finally
+			{
+				BufferPool.DEFAULT.release(array);
+			}
 		}
+
+		return buffer.position() - start;
 	}
 
 	/**
@@ -325,9 +778,67 @@ public class CO
 	 */
 	public static byte[] makeHash(final byte[] input, final String algorithm) throws NoSuchAlgorithmException
 	{
-		final MessageDigest md = MessageDigest.getInstance(algorithm);
+		final MessageDigest md = DigestPool.acquire(algorithm);
 
-		return md.digest(input);
+		try
+		{
+			return md.digest(input);
+		}
+		finally
+		{
+			DigestPool.release(md);
+		}
+	}
+
+	/**
+	 * @param input
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to perform the hash operation on. The
+	 *            bytes between its position and limit are hashed; the position is not changed.
+	 * @param algorithm
+	 *            The algorithm to use. (e.x., MD5, SHA1, SHA-256, SHA-256)
+	 * @return A new byte array representing the hashed version of {@code input}.
+	 * @throws NoSuchAlgorithmException
+	 *             If the provided algorithm is not available to this Java virtual machine.
+	 */
+	public static byte[] makeHash(final ByteBuffer input, final String algorithm) throws NoSuchAlgorithmException
+	{
+		final MessageDigest md = DigestPool.acquire(algorithm);
+
+		try
+		{
+			md.update(input.duplicate());
+			return md.digest();
+		}
+		finally
+		{
+			DigestPool.release(md);
+		}
+	}
+
+	/**
+	 * @param input
+	 *            The file to perform the hash operation on.
+	 * @param algorithm
+	 *            The algorithm to use. (e.x., MD5, SHA1, SHA-256, SHA-256)
+	 * @return A new byte array representing the hashed version of the contents of the file.
+	 * @throws NoSuchAlgorithmException
+	 *             If the provided algorithm is not available to this Java virtual machine.
+	 * @throws IOException
+	 *             If there was an error while reading the file.
+	 */
+	public static byte[] makeHash(final File input, final String algorithm) throws NoSuchAlgorithmException,
+			IOException
+	{
+		final FileInputStream fis = new FileInputStream(input);
+
+		try
+		{
+			return makeHash(fis, algorithm);
+		}
+		finally
+		{
+			closeInputStream(fis);
+		}
 	}
 
 	/**
@@ -344,24 +855,25 @@ public class CO
 	public static byte[] makeHash(final InputStream input, final String algorithm) throws NoSuchAlgorithmException,
 			IOException
 	{
-		final MessageDigest md = MessageDigest.getInstance(algorithm);
-
-		byte[] buffer;
-		int i;
+		final MessageDigest md = DigestPool.acquire(algorithm);
+		final byte[] buffer = BufferPool.DEFAULT.acquire();
 
-		do
+		try
 		{
-			buffer = new byte[1024];
-
-			i = input.read(buffer);
+			int i;
 
-			if (i > -1)
+			while ((i = input.read(buffer)) > -1)
 			{
 				md.update(buffer, 0, i);
 			}
-		} while (i > -1);
 
-		return md.digest();
+			return md.digest();
+		}
+		finally
+		{
+			BufferPool.DEFAULT.release(buffer);
+			DigestPool.release(md);
+		}
 	}
 
 	/**
@@ -375,19 +887,13 @@ public class CO
 	 */
 	public static byte[] makeHash(final String input, final String algorithm) throws NoSuchAlgorithmException
 	{
-		try
-		{
-			return makeHash(input.getBytes("UTF-8"), algorithm);
-		}
-		catch (final UnsupportedEncodingException e)
-		{
-			throw new RuntimeException(e);
-		}
+		return makeHash(input.getBytes(Constants.charset), algorithm);
 	}
 
 	/**
 	 * Writes the contents of the provided {@link java.io.InputStream InputStream} to the provided
-	 * {@link java.io.OutputStream OutputStream}.
+	 * {@link java.io.OutputStream OutputStream}, and flushes the {@link java.io.OutputStream
+	 * OutputStream} once all data has been written.
 	 *
 	 * @param in
 	 *            The {@link java.io.InputStream InputStream} to read from.
@@ -395,24 +901,180 @@ public class CO
 	 *            The {@link java.io.OutputStream OutputStream} to write to.
 	 * @throws IOException
 	 *             If an error occurred during either the reading or writing process.
+	 * @see #copy(InputStream, OutputStream)
 	 */
 	public static void writeInputStreamToOutputStream(final InputStream in, final OutputStream out) throws IOException
 	{
-		byte[] buffer;
-		int i;
+		copy(in, out);
+		out.flush();
+	}
+
+	/*
+	 * Copy engine. Copies between files, and from files to sockets, are left to the operating system
+	 * through FileChannel.transferTo() and transferFrom() (sendfile and friends), so the data never
+	 * passes through the Java heap. All other copies go through a pooled 64 KB buffer. Nothing is
+	 * flushed per chunk; flushing is up to the caller.
+	 */
+
+	/**
+	 * Copies the remaining contents of the provided {@link java.io.InputStream InputStream} to the
+	 * provided {@link java.io.OutputStream OutputStream}. A {@link java.io.FileInputStream
+	 * FileInputStream} is transferred by the operating system when the destination is a
+	 * {@link java.io.FileOutputStream FileOutputStream}. Neither stream is flushed or closed.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read from.
+	 * @param out
+	 *            The {@link java.io.OutputStream OutputStream} to write to.
+	 * @return The amount of bytes copied.
+	 * @throws IOException
+	 *             If an error occurred during either the reading or writing process.
+	 */
+	public static long copy(final InputStream in, final OutputStream out) throws IOException
+	{
+		long copied = 0;
 
-		do
+		if (in instanceof FileInputStream && out instanceof FileOutputStream)
 		{
-			buffer = new byte[1024];
+			copied = transfer(((FileInputStream) in).getChannel(), ((FileOutputStream) out).getChannel());
+		}
 
-			i = in.read(buffer);
+		//Also picks up whatever a transfer could not see, e.g. files that report a size of 0.
+		final byte[] buffer = BufferPool.DEFAULT.acquire();
 
-			if (i > -1)
+		try
+		{
+			int i;
+
+			while ((i = in.read(buffer)) > -1)
 			{
 				out.write(buffer, 0, i);
-				out.flush();
+				copied += i;
+			}
+		}
+		finally
+		{
+			BufferPool.DEFAULT.release(buffer);
+		}
+
+		return copied;
+	}
+
+	/**
+	 * Copies the provided {@link java.nio.channels.FileChannel FileChannel}, from its position to its
+	 * end, to the provided channel and advances its position. The operating system transfers the
+	 * data directly, e.g. with sendfile when the destination is a
+	 * {@link java.nio.channels.SocketChannel SocketChannel}. The destination must be in blocking
+	 * mode.
+	 *
+	 * @param in
+	 *            The {@link java.nio.channels.FileChannel FileChannel} to read from.
+	 * @param out
+	 *            The channel to write to.
+	 * @return The amount of bytes copied.
+	 * @throws IOException
+	 *             If an error occurred during either the reading or writing process.
+	 */
+	public static long copy(final FileChannel in, final WritableByteChannel out) throws IOException
+	{
+		return transfer(in, out);
+	}
+
+	/**
+	 * Copies the provided channel, up to its end, to the provided {@link java.nio.channels.FileChannel
+	 * FileChannel}, starting at its position, and advances its position. The operating system
+	 * transfers the data directly where possible. The source must be in blocking mode.
+	 *
+	 * @param in
+	 *            The channel to read from.
+	 * @param out
+	 *            The {@link java.nio.channels.FileChannel FileChannel} to write to.
+	 * @return The amount of bytes copied.
+	 * @throws IOException
+	 *             If an error occurred during either the reading or writing process.
+	 */
+	public static long copy(final ReadableByteChannel in, final FileChannel out) throws IOException
+	{
+		if (in instanceof FileChannel) { return transfer((FileChannel) in, out); }
+
+		long position = out.position();
+		final long start = position;
+		long transferred;
+
+		//transferFrom() returns 0 once a blocking source reaches its end.
+		while ((transferred = out.transferFrom(in, position, MAX_TRANSFER_SIZE)) > 0)
+		{
+			position += transferred;
+		}
+
+		out.position(position);
+		return position - start;
+	}
+
+	/**
+	 * Copies the provided channel, up to its end, to the other provided channel, through a pooled
+	 * buffer. Channels in non-blocking mode are not supported.
+	 *
+	 * @param in
+	 *            The channel to read from.
+	 * @param out
+	 *            The channel to write to.
+	 * @return The amount of bytes copied.
+	 * @throws IOException
+	 *             If an error occurred during either the reading or writing process.
+	 */
+	public static long copy(final ReadableByteChannel in, final WritableByteChannel out) throws IOException
+	{
+		if (in instanceof FileChannel) { return transfer((FileChannel) in, out); }
+		if (out instanceof FileChannel) { return copy(in, (FileChannel) out); }
+
+		final byte[] array = BufferPool.DEFAULT.acquire();
+		final ByteBuffer buffer = ByteBuffer.wrap(array);
+		long copied = 0;
+
+		try
+		{
+			while (in.read(buffer) > -1)
+			{
+				buffer.flip();
+
+				while (buffer.hasRemaining())
+				{
+					copied += out.write(buffer);
+				}
+
+				buffer.clear();
 			}
-		} while (i > -1);
+		}
+		finally
+		{
+			BufferPool.DEFAULT.release(array);
+		}
+
+		return copied;
+	}
+
+	private static long transfer(final FileChannel in, final WritableByteChannel out) throws IOException
+	{
+		long position = in.position();
+		final long start = position;
+		final long size = in.size();
+
+		while (position < size)
+		{
+			final long transferred = in.transferTo(position, Math.min(size - position, MAX_TRANSFER_SIZE), out);
+
+			if (transferred <= 0)
+			{
+				//The file has shrunk, or the destination does not accept any more data right now.
+				break;
+			}
+
+			position += transferred;
+		}
+
+		in.position(position);
+		return position - start;
 	}
 
 	/**
@@ -425,24 +1087,79 @@ public class CO
 	 * @return The amount of bytes represented as an {@link java.lang.Integer Integer}.
 	 * @throws IOException
 	 *             If there was an error while reading the {@link java.io.InputStream InputStream}
-	 *             object.
+	 *             object, or if it holds more than {@link java.lang.Integer#MAX_VALUE} bytes.
+	 * @see #getLength(InputStream)
 	 */
 	public static int getLengthOfInputStream(final InputStream in) throws IOException
 	{
-		int i = 0;
-		int length = 0;
-		byte[] buffer;
+		final long length = drain(in);
+
+		if (length > Integer.MAX_VALUE) { throw new IOException("Stream too long: " + length + " bytes"); }
 
-		do
+		return (int) length;
+	}
+
+	/**
+	 * Determines the amount of bytes left in the provided {@link java.io.InputStream InputStream}.
+	 * The remaining length of a {@link java.io.FileInputStream FileInputStream} or a
+	 * {@link java.io.ByteArrayInputStream ByteArrayInputStream} is known without reading anything,
+	 * in which case the stream is left untouched. Any other stream is read up to its end to count
+	 * its bytes, and can not be used for anything else afterwards.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} object to get the byte count from.
+	 * @return The amount of bytes left in the stream.
+	 * @throws IOException
+	 *             If there was an error while reading the {@link java.io.InputStream InputStream}
+	 *             object.
+	 */
+	public static long getLength(final InputStream in) throws IOException
+	{
+		final long length = getKnownLength(in);
+
+		return length >= 0 ? length : drain(in);
+	}
+
+	/**
+	 * @return The amount of bytes left in the stream if that is known without reading it, or -1.
+	 */
+	private static long getKnownLength(final InputStream in) throws IOException
+	{
+		if (in instanceof FileInputStream)
+		{
+			final FileChannel channel = ((FileInputStream) in).getChannel();
+			final long size = channel.size();
+
+			//Pipes and special files report a size of 0; their length is unknown.
+			if (size > 0) { return Math.max(0, size - channel.position()); }
+		}
+		else if (in instanceof ByteArrayInputStream)
 		{
-			buffer = new byte[1024];
-			i = in.read(buffer);
+			//The exact amount of remaining bytes, by contract.
+			return in.available();
+		}
+
+		return -1;
+	}
 
-			if (i > -1)
+	private static long drain(final InputStream in) throws IOException
+	{
+		final byte[] buffer = BufferPool.DEFAULT.acquire();
+		long length = 0;
+
+		try
+		{
+			int i;
+
+			while ((i = in.read(buffer)) > -1)
 			{
-				length = length + i;
+				length += i;
 			}
-		} while (i > -1);
+		}
+		finally
+		{
+			BufferPool.DEFAULT.release(buffer);
+		}
 
 		return length;
 	}
@@ -0,0 +1,375 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the UTF-8 representation of {@link java.lang.String String} objects, as
+ * used by {@link com.cellngine.ByteOperations#toBytes(String)}, using {@link Constants#charset}.<br />
+ * <br />
+ *
+ * Encoding writes straight into the destination instead of going through
+ * {@link java.lang.String#getBytes(java.nio.charset.Charset) String.getBytes()} and an additional
+ * copy. Runs of ASCII characters, which make up most names and keys, are copied with a single
+ * comparison per character. Unpaired surrogates are replaced by {@code '?'}, just like
+ * {@link java.lang.String#getBytes(java.nio.charset.Charset) String.getBytes()} does.<br />
+ * <br />
+ *
+ * Decoding can optionally go through a {@link StringCodec.Cache Cache}, which returns the same
+ * {@link java.lang.String String} instance for byte sequences that occur over and over again.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public final class StringCodec
+{
+	private StringCodec()
+	{
+	}
+
+	/**
+	 * @param input
+	 *            The characters to encode.
+	 * @return The exact amount of bytes {@link #encode(CharSequence, byte[], int)} will write for
+	 *         the characters.
+	 */
+	public static int getEncodedLength(final CharSequence input)
+	{
+		final int length = input.length();
+		int bytes = length;
+
+		for (int i = 0; i < length; i++)
+		{
+			final char c = input.charAt(i);
+
+			if (c < 0x80)
+			{
+				continue;
+			}
+			else if (c < 0x800)
+			{
+				bytes += 1;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(input.charAt(i + 1)))
+			{
+				//Four bytes for two chars.
+				bytes += 2;
+				i++;
+			}
+			else if (!Character.isSurrogate(c))
+			{
+				bytes += 2;
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Writes the UTF-8 representation of the characters into the array. The array must be large
+	 * enough to hold {@link #getEncodedLength(CharSequence)} bytes; three bytes per character are
+	 * always enough.
+	 *
+	 * @param input
+	 *            The characters to encode.
+	 * @param dest
+	 *            The array to write to.
+	 * @param offset
+	 *            The index of the first byte to write.
+	 * @return The amount of bytes written.
+	 * @throws IndexOutOfBoundsException
+	 *             If the array is too small, in which case part of the bytes has been written.
+	 */
+	public static int encode(final CharSequence input, final byte[] dest, final int offset)
+	{
+		final int length = input.length();
+		int i = 0;
+		int j = offset;
+
+		for (; i < length; i++)
+		{
+			final char c = input.charAt(i);
+
+			if (c >= 0x80)
+			{
+				break;
+			}
+
+			dest[j++] = (byte) c;
+		}
+
+		for (; i < length; i++)
+		{
+			final char c = input.charAt(i);
+
+			if (c < 0x80)
+			{
+				dest[j++] = (byte) c;
+			}
+			else if (c < 0x800)
+			{
+				dest[j++] = (byte) (0xC0 | c >> 6);
+				dest[j++] = (byte) (0x80 | c & 0x3F);
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(input.charAt(i + 1)))
+			{
+				final int codePoint = Character.toCodePoint(c, input.charAt(++i));
+				dest[j++] = (byte) (0xF0 | codePoint >> 18);
+				dest[j++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				dest[j++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				dest[j++] = (byte) (0x80 | codePoint & 0x3F);
+			}
+			else if (Character.isSurrogate(c))
+			{
+				dest[j++] = '?';
+			}
+			else
+			{
+				dest[j++] = (byte) (0xE0 | c >> 12);
+				dest[j++] = (byte) (0x80 | c >> 6 & 0x3F);
+				dest[j++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+
+		return j - offset;
+	}
+
+	/**
+	 * Writes the UTF-8 representation of the characters into the buffer and advances its
+	 * position. Nothing is written if the buffer does not have enough space left.
+	 *
+	 * @param input
+	 *            The characters to encode.
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to.
+	 * @return The amount of bytes written.
+	 * @throws BufferOverflowException
+	 *             If the buffer does not have enough space left.
+	 */
+	public static int encode(final CharSequence input, final ByteBuffer bb) throws BufferOverflowException
+	{
+		if (!bb.hasArray())
+		{
+			//Rare enough that the JDK encoder and a copy will do.
+			final byte[] bytes = input.toString().getBytes(Constants.charset);
+			bb.put(bytes);
+			return bytes.length;
+		}
+
+		//Only count the bytes exactly when the worst case of three bytes per char might not fit.
+		if (bb.remaining() / 3 < input.length()
+				&& bb.remaining() < getEncodedLength(input)) { throw new BufferOverflowException(); }
+
+		final int bytes = encode(input, bb.array(), bb.arrayOffset() + bb.position());
+		bb.position(bb.position() + bytes);
+
+		return bytes;
+	}
+
+	/**
+	 * @param input
+	 *            The characters to encode.
+	 * @return A new array holding exactly the UTF-8 representation of the characters.
+	 */
+	public static byte[] encode(final CharSequence input)
+	{
+		final byte[] bytes = new byte[getEncodedLength(input)];
+		encode(input, bytes, 0);
+
+		return bytes;
+	}
+
+	/**
+	 * @param bytes
+	 *            The array holding the UTF-8 representation.
+	 * @param offset
+	 *            The index of the first byte.
+	 * @param length
+	 *            The amount of bytes.
+	 * @return The decoded {@link java.lang.String String}.
+	 * @throws IndexOutOfBoundsException
+	 *             If the range lies outside of the array.
+	 */
+	public static String decode(final byte[] bytes, final int offset, final int length)
+	{
+		return new String(bytes, offset, length, Constants.charset);
+	}
+
+	/**
+	 * Decodes the next {@code length} bytes of the buffer and advances its position.
+	 *
+	 * @param bb
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from.
+	 * @param length
+	 *            The amount of bytes.
+	 * @return The decoded {@link java.lang.String String}.
+	 * @throws BufferUnderflowException
+	 *             If the buffer does not contain enough bytes.
+	 */
+	public static String decode(final ByteBuffer bb, final int length) throws BufferUnderflowException
+	{
+		if (length < 0 || length > bb.remaining()) { throw new BufferUnderflowException(); }
+
+		final String string;
+
+		if (bb.hasArray())
+		{
+			string = decode(bb.array(), bb.arrayOffset() + bb.position(), length);
+			bb.position(bb.position() + length);
+		}
+		else
+		{
+			final byte[] bytes = new byte[length];
+			bb.get(bytes);
+			string = decode(bytes, 0, length);
+		}
+
+		return string;
+	}
+
+	/**
+	 * A bounded cache of decoded {@link java.lang.String String}s, keyed by their UTF-8
+	 * representation. Decoding a byte sequence that is in the cache returns the cached instance
+	 * without allocating anything, which both saves the decoding and keeps a single copy of
+	 * strings that are repeated a lot, such as file names, element names and message keys.<br />
+	 * <br />
+	 *
+	 * The cache is direct-mapped: every byte sequence has exactly one slot, and a sequence that
+	 * maps to an occupied slot replaces its entry. The cache therefore never holds more than its
+	 * size, and lookups cost one hash and one comparison. Sequences longer than the maximum length
+	 * are never cached.<br />
+	 * <br />
+	 *
+	 * A cache may be shared between threads. Entries are immutable, so concurrent lookups at worst
+	 * miss an entry that was just stored by another thread.
+	 */
+	public static final class Cache
+	{
+		/**
+		 * The default amount of entries.
+		 */
+		public static final int	DEFAULT_SIZE		= 1024;
+
+		/**
+		 * The default length, in bytes, of the longest cached byte sequence.
+		 */
+		public static final int	DEFAULT_MAX_LENGTH	= 64;
+
+		private static final class Entry
+		{
+			final int		hash;
+			final byte[]	bytes;
+			final String	string;
+
+			Entry(final int hash, final byte[] bytes, final String string)
+			{
+				this.hash = hash;
+				this.bytes = bytes;
+				this.string = string;
+			}
+		}
+
+		private final Entry[]	entries;
+		private final int		maxLength;
+
+		public Cache()
+		{
+			this(DEFAULT_SIZE, DEFAULT_MAX_LENGTH);
+		}
+
+		/**
+		 * @param size
+		 *            The amount of entries, rounded up to a power of two.
+		 * @param maxLength
+		 *            The length, in bytes, of the longest byte sequence to cache.
+		 */
+		public Cache(final int size, final int maxLength)
+		{
+			if (size < 1 || size > 1 << 30) { throw new IllegalArgumentException("Invalid size: " + size); }
+			if (maxLength < 0) { throw new IllegalArgumentException("Invalid maximum length: " + maxLength); }
+
+			int capacity = 1;
+
+			while (capacity < size)
+			{
+				capacity <<= 1;
+			}
+
+			this.entries = new Entry[capacity];
+			this.maxLength = maxLength;
+		}
+
+		/**
+		 * @see StringCodec#decode(byte[], int, int)
+		 */
+		public String decode(final byte[] bytes, final int offset, final int length)
+		{
+			if (length > this.maxLength || offset < 0 || length < 0 || offset > bytes.length - length) { return StringCodec
+					.decode(bytes, offset, length); }
+
+			int hash = length;
+
+			for (int i = offset; i < offset + length; i++)
+			{
+				hash = 31 * hash + bytes[i];
+			}
+
+			hash ^= hash >>> 16;
+
+			final int index = hash & this.entries.length - 1;
+			final Entry entry = this.entries[index];
+
+			if (entry != null && entry.hash == hash && this.matches(entry.bytes, bytes, offset, length)) { return entry.string; }
+
+			final byte[] key = new byte[length];
+			System.arraycopy(bytes, offset, key, 0, length);
+
+			final String string = StringCodec.decode(key, 0, length);
+			this.entries[index] = new Entry(hash, key, string);
+
+			return string;
+		}
+
+		/**
+		 * @see StringCodec#decode(ByteBuffer, int)
+		 */
+		public String decode(final ByteBuffer bb, final int length) throws BufferUnderflowException
+		{
+			if (!bb.hasArray() || length > this.maxLength) { return StringCodec.decode(bb, length); }
+			if (length < 0 || length > bb.remaining()) { throw new BufferUnderflowException(); }
+
+			final String string = this.decode(bb.array(), bb.arrayOffset() + bb.position(), length);
+			bb.position(bb.position() + length);
+
+			return string;
+		}
+
+		private boolean matches(final byte[] key, final byte[] bytes, final int offset, final int length)
+		{
+			if (key.length != length) { return false; }
+
+			for (int i = 0; i < length; i++)
+			{
+				if (key[i] != bytes[offset + i]) { return false; }
+			}
+
+			return true;
+		}
+	}
+}
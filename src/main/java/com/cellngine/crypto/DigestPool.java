@@ -0,0 +1,84 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A per-thread pool of {@link java.security.MessageDigest MessageDigest} instances, keyed by
+ * algorithm. {@link java.security.MessageDigest#getInstance(String) MessageDigest.getInstance()}
+ * walks the installed security providers on every call, which costs far more than hashing a small
+ * input; this pool does that lookup once per algorithm and thread.<br />
+ * <br />
+ *
+ * Every {@link #acquire(String)} must be paired with a {@link #release(MessageDigest)} on the same
+ * thread, preferably in a {@code finally} block. A digest that is acquired is taken out of the
+ * pool, so nested use of the same algorithm on one thread simply creates another instance.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public final class DigestPool
+{
+	private static final ThreadLocal<Map<String, MessageDigest>>	IDLE	= new ThreadLocal<Map<String, MessageDigest>>();
+
+	private DigestPool()
+	{
+	}
+
+	/**
+	 * @param algorithm
+	 *            The algorithm to use. (e.x., MD5, SHA1, SHA-256, SHA-512)
+	 * @return A reset {@link java.security.MessageDigest MessageDigest} for the algorithm, owned by
+	 *         the calling thread until it is released.
+	 * @throws NoSuchAlgorithmException
+	 *             If the provided algorithm is not available to this Java virtual machine.
+	 */
+	public static MessageDigest acquire(final String algorithm) throws NoSuchAlgorithmException
+	{
+		final MessageDigest md = getIdle().remove(algorithm);
+
+		return md != null ? md : MessageDigest.getInstance(algorithm);
+	}
+
+	/**
+	 * Resets the digest and returns it to the pool of the calling thread.
+	 *
+	 * @param md
+	 *            A digest returned by {@link #acquire(String)}.
+	 */
+	public static void release(final MessageDigest md)
+	{
+		md.reset();
+		getIdle().put(md.getAlgorithm(), md);
+	}
+
+	private static Map<String, MessageDigest> getIdle()
+	{
+		Map<String, MessageDigest> digests = IDLE.get();
+
+		if (digests == null)
+		{
+			digests = new HashMap<String, MessageDigest>();
+			IDLE.set(digests);
+		}
+
+		return digests;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.crypto;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The HMAC-based key derivation function (HKDF) of RFC 5869, using HMAC-SHA512. It turns a single
+ * secret, such as the encryption seed of a {@link com.cellngine.resources.ResourceFile
+ * ResourceFile}, into any number of independent keys: every distinct {@code salt} and {@code info}
+ * yields a different key, and none of the keys reveals the secret or any of the other keys. This
+ * makes it safe to encrypt several streams that were all configured with the same seed, which a
+ * stream cipher such as {@link RC4} must never do with one key.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public final class HKDF
+{
+	private static final String	ALGORITHM	= "HmacSHA512";
+
+	/**
+	 * The length of the output of a single HMAC-SHA512 invocation, in bytes.
+	 */
+	public static final int		HASH_LENGTH	= 64;
+
+	private HKDF()
+	{
+	}
+
+	/**
+	 * Derives a key from the secret.
+	 *
+	 * @param secret
+	 *            The input keying material.
+	 * @param salt
+	 *            A non-secret random value, or {@code null}.
+	 * @param info
+	 *            Context information that binds the key to its purpose, or {@code null}.
+	 * @param length
+	 *            The length of the key, at most 255 times {@link #HASH_LENGTH}.
+	 * @return The derived key.
+	 * @throws IllegalArgumentException
+	 *             If the length is invalid.
+	 */
+	public static byte[] derive(final byte[] secret, final byte[] salt, final byte[] info, final int length)
+	{
+		return expand(extract(salt, secret), info, length);
+	}
+
+	/**
+	 * The extract step: condenses the secret into a pseudorandom key.
+	 *
+	 * @param salt
+	 *            A non-secret random value, or {@code null} for a salt of zeroes.
+	 * @param secret
+	 *            The input keying material.
+	 * @return A pseudorandom key of {@link #HASH_LENGTH} bytes.
+	 */
+	public static byte[] extract(final byte[] salt, final byte[] secret)
+	{
+		return mac(salt == null || salt.length == 0 ? new byte[HASH_LENGTH] : salt).doFinal(secret);
+	}
+
+	/**
+	 * The expand step: stretches a pseudorandom key into a key of the requested length.
+	 *
+	 * @param key
+	 *            A pseudorandom key, as returned by {@link #extract(byte[], byte[])}.
+	 * @param info
+	 *            Context information that binds the key to its purpose, or {@code null}.
+	 * @param length
+	 *            The length of the key, at most 255 times {@link #HASH_LENGTH}.
+	 * @return The derived key.
+	 * @throws IllegalArgumentException
+	 *             If the length is invalid.
+	 */
+	public static byte[] expand(final byte[] key, final byte[] info, final int length)
+	{
+		if (length < 0 || length > 255 * HASH_LENGTH) { throw new IllegalArgumentException("Invalid length: "
+				+ length); }
+
+		final Mac mac = mac(key);
+		final byte[] output = new byte[length];
+		byte[] block = new byte[0];
+
+		for (int offset = 0, counter = 1; offset < length; offset += HASH_LENGTH, counter++)
+		{
+			mac.update(block);
+
+			if (info != null)
+			{
+				mac.update(info);
+			}
+
+			mac.update((byte) counter);
+			block = mac.doFinal();
+
+			System.arraycopy(block, 0, output, offset, Math.min(HASH_LENGTH, length - offset));
+		}
+
+		return output;
+	}
+
+	private static Mac mac(final byte[] key)
+	{
+		try
+		{
+			final Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(new SecretKeySpec(key, ALGORITHM));
+
+			return mac;
+		}
+		catch (final NoSuchAlgorithmException e)
+		{
+			//HmacSHA512 ships with every JDK this project supports.
+			throw new RuntimeException(e);
+		}
+		catch (final InvalidKeyException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -104,6 +104,32 @@ public class RC4 implements StreamCipher
 		return output;
 	}
 
+	/**
+	 * Applies the RC4 encryption scheme to a region of the given buffer, overwriting the input with
+	 * the result of the XOR operation.
+	 *
+	 * @param buffer
+	 *            The buffer containing the plain- or ciphertext that shall be en- or decrypted.
+	 * @param offset
+	 *            The offset of the first byte to process.
+	 * @param length
+	 *            The amount of bytes to process.
+	 * @throws <code>NullPointerException</code> if <code>buffer</code> is <code>null</code>.
+	 * @throws <code>IndexOutOfBoundsException</code> if the region lies outside of the buffer.
+	 */
+	private void crypt(final byte[] buffer, final int offset, final int length)
+	{
+		if (buffer == null) { throw new NullPointerException(); }
+		if (offset < 0 || length < 0 || offset > buffer.length - length) { throw new IndexOutOfBoundsException(); }
+
+		final int end = offset + length;
+
+		for (int i = offset; i < end; i++)
+		{
+			buffer[i] = (byte) (buffer[i] ^ this.getByte());
+		}
+	}
+
 	@Override
 	public byte[] encrypt(final byte[] input)
 	{
@@ -116,6 +142,18 @@ public class RC4 implements StreamCipher
 		return this.crypt(input);
 	}
 
+	@Override
+	public void encrypt(final byte[] buffer, final int offset, final int length)
+	{
+		this.crypt(buffer, offset, length);
+	}
+
+	@Override
+	public void decrypt(final byte[] buffer, final int offset, final int length)
+	{
+		this.crypt(buffer, offset, length);
+	}
+
 	/**
 	 * Swaps the values of two elements in the S-Box.
 	 */
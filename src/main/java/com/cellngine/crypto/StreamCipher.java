@@ -16,6 +16,8 @@
 */
 package com.cellngine.crypto;
 
+import java.util.Arrays;
+
 /**
  * An interface all symmetric, byte-oriented stream ciphers should implement. The key used for en-
  * and decryption should be passed to the constructor of the specific implementation.
@@ -49,4 +51,48 @@ public interface StreamCipher
 	 * @throws <code>NullPointerException</code> if <code>input</code> is <code>null</code>.
 	 */
 	public byte[] decrypt(final byte[] input);
+
+	/**
+	 * Encrypts a region of the given buffer in place.<br /><br />
+	 *
+	 * Calling this function advances the cipher state by <code>length</code> bytes, exactly like a
+	 * call to {@link #encrypt(byte[])} with an array of the same length would. The default
+	 * implementation encrypts a copy of the region and writes the result back; implementations
+	 * should override it to work in place.
+	 *
+	 * @param buffer
+	 *            The buffer containing the plain- or ciphertext that shall be encrypted.
+	 * @param offset
+	 *            The offset of the first byte to encrypt.
+	 * @param length
+	 *            The amount of bytes to encrypt.
+	 * @throws <code>NullPointerException</code> if <code>buffer</code> is <code>null</code>.
+	 */
+	public default void encrypt(final byte[] buffer, final int offset, final int length)
+	{
+		final byte[] result = this.encrypt(Arrays.copyOfRange(buffer, offset, offset + length));
+		System.arraycopy(result, 0, buffer, offset, length);
+	}
+
+	/**
+	 * Decrypts a region of the given buffer in place.<br /><br />
+	 *
+	 * Calling this function advances the cipher state by <code>length</code> bytes, exactly like a
+	 * call to {@link #decrypt(byte[])} with an array of the same length would. The default
+	 * implementation decrypts a copy of the region and writes the result back; implementations
+	 * should override it to work in place.
+	 *
+	 * @param buffer
+	 *            The buffer containing the ciphertext that shall be decrypted.
+	 * @param offset
+	 *            The offset of the first byte to decrypt.
+	 * @param length
+	 *            The amount of bytes to decrypt.
+	 * @throws <code>NullPointerException</code> if <code>buffer</code> is <code>null</code>.
+	 */
+	public default void decrypt(final byte[] buffer, final int offset, final int length)
+	{
+		final byte[] result = this.decrypt(Arrays.copyOfRange(buffer, offset, offset + length));
+		System.arraycopy(result, 0, buffer, offset, length);
+	}
 }
@@ -0,0 +1,248 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.io;
+
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.CO;
+import com.cellngine.StringCodec;
+
+/**
+ * Reads values written by a {@link com.cellngine.io.BinaryWriter BinaryWriter} or
+ * {@link com.cellngine.ByteOperations#toBytes(int) ByteOperations.toBytes} from a
+ * {@link java.nio.ByteBuffer ByteBuffer}, advancing its position. Primitive values are read
+ * without allocating anything.<br />
+ * <br />
+ *
+ * This class is not thread-safe.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class BinaryReader
+{
+	private final ByteBuffer	buffer;
+
+	/**
+	 * @param bytes
+	 *            The array to read from.
+	 */
+	public BinaryReader(final byte[] bytes)
+	{
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * @param bytes
+	 *            An array containing the data to read.
+	 * @param offset
+	 *            The offset of the data within the array.
+	 * @param length
+	 *            The length of the data.
+	 */
+	public BinaryReader(final byte[] bytes, final int offset, final int length)
+	{
+		this(ByteBuffer.wrap(bytes, offset, length));
+	}
+
+	/**
+	 * @param buffer
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read from, starting at its current
+	 *            position. Its byte order is ignored.
+	 */
+	public BinaryReader(final ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return The next value.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public byte getByte() throws BufferUnderflowException
+	{
+		return this.buffer.get();
+	}
+
+	/**
+	 * @return The next value.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public int getInt() throws BufferUnderflowException
+	{
+		final ByteBuffer buffer = this.buffer;
+
+		if (buffer.remaining() < 4) { throw new BufferUnderflowException(); }
+
+		return (buffer.get() & 0xFF) << 24 | (buffer.get() & 0xFF) << 16 | (buffer.get() & 0xFF) << 8
+				| buffer.get() & 0xFF;
+	}
+
+	/**
+	 * @return The next value.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public long getLong() throws BufferUnderflowException
+	{
+		if (this.buffer.remaining() < 8) { throw new BufferUnderflowException(); }
+
+		return (long) this.getInt() << 32 | this.getInt() & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Reads bytes that have been written without a length.
+	 *
+	 * @param bytes
+	 *            The array to read into.
+	 * @param offset
+	 *            The offset within the array.
+	 * @param length
+	 *            The amount of bytes to read.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public void getRaw(final byte[] bytes, final int offset, final int length) throws BufferUnderflowException
+	{
+		this.buffer.get(bytes, offset, length);
+	}
+
+	/**
+	 * @return The next length-prefixed byte array.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public byte[] getBytes() throws BufferUnderflowException
+	{
+		final byte[] bytes = new byte[this.getLength()];
+		this.buffer.get(bytes);
+
+		return bytes;
+	}
+
+	/**
+	 * @return The next length-prefixed {@link java.lang.String String}.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public String getString() throws BufferUnderflowException
+	{
+		return StringCodec.decode(this.buffer, this.getLength());
+	}
+
+	/**
+	 * Like {@link #getString()}, but looks the value up in the provided cache first. Use this for
+	 * values that are repeated a lot, such as names and keys.
+	 *
+	 * @param cache
+	 *            The {@link com.cellngine.StringCodec.Cache Cache} to use.
+	 * @return The next length-prefixed {@link java.lang.String String}.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public String getString(final StringCodec.Cache cache) throws BufferUnderflowException
+	{
+		return cache.decode(this.buffer, this.getLength());
+	}
+
+	/**
+	 * @return The next value.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public BigDecimal getBigDecimal() throws BufferUnderflowException
+	{
+		return CO.toBigDecimal(this.getString());
+	}
+
+	/**
+	 * @return The next value, in the format of {@link com.cellngine.ByteOperations#toVarInt(int)}.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public int getVarInt() throws BufferUnderflowException
+	{
+		return ByteOperations.getVarInt(this.buffer);
+	}
+
+	/**
+	 * @return The next value, in the format of
+	 *         {@link com.cellngine.ByteOperations#toVarLong(long)}.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public long getVarLong() throws BufferUnderflowException
+	{
+		return ByteOperations.getVarLong(this.buffer);
+	}
+
+	/**
+	 * @return The next value, in the format of
+	 *         {@link com.cellngine.ByteOperations#toCompactBytes(BigDecimal)}.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public BigDecimal getCompactBigDecimal() throws BufferUnderflowException
+	{
+		return ByteOperations.getCompactBigDecimal(this.buffer);
+	}
+
+	/**
+	 * Reads a length prefix and makes sure that the announced amount of bytes is present.
+	 */
+	private int getLength() throws BufferUnderflowException
+	{
+		final int length = this.getInt();
+
+		if (length < 0 || length > this.buffer.remaining()) { throw new BufferUnderflowException(); }
+
+		return length;
+	}
+
+	/**
+	 * @param bytes
+	 *            The amount of bytes to skip.
+	 * @throws BufferUnderflowException
+	 *             If there are not enough bytes left.
+	 */
+	public void skip(final int bytes) throws BufferUnderflowException
+	{
+		if (bytes < 0 || bytes > this.buffer.remaining()) { throw new BufferUnderflowException(); }
+
+		this.buffer.position(this.buffer.position() + bytes);
+	}
+
+	/**
+	 * @return The amount of bytes that have not been read yet.
+	 */
+	public int remaining()
+	{
+		return this.buffer.remaining();
+	}
+
+	/**
+	 * @return The position within the underlying {@link java.nio.ByteBuffer ByteBuffer}.
+	 */
+	public int position()
+	{
+		return this.buffer.position();
+	}
+}
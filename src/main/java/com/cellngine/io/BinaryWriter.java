@@ -0,0 +1,288 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.StringCodec;
+
+/**
+ * Writes values into a growable {@link java.nio.ByteBuffer ByteBuffer} in the big-endian format of
+ * {@link com.cellngine.ByteOperations ByteOperations}, without allocating anything per value.
+ * Variable length values (byte arrays, {@link java.lang.String String}s and
+ * {@link java.math.BigDecimal BigDecimal}s) are prefixed with their length, just like
+ * {@link com.cellngine.ByteOperations#toBytes(byte[])} does. The written data can be read back
+ * with a {@link com.cellngine.io.BinaryReader BinaryReader}.<br />
+ * <br />
+ *
+ * A writer can be reused for any amount of messages by calling {@link #reset()} in between.<br />
+ * <br />
+ *
+ * This class is not thread-safe.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class BinaryWriter
+{
+	private ByteBuffer	buffer;
+
+	public BinaryWriter()
+	{
+		this(256);
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            The initial capacity of the buffer in bytes.
+	 */
+	public BinaryWriter(final int initialCapacity)
+	{
+		this(ByteBuffer.allocate(initialCapacity));
+	}
+
+	/**
+	 * @param buffer
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to write to, e.g. one taken from a pool.
+	 *            It is cleared and set to big-endian. Once it is full the data is moved to a larger
+	 *            heap buffer, see {@link #getBuffer()}.
+	 */
+	public BinaryWriter(final ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+		this.buffer.clear();
+		this.buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Makes sure that the given amount of bytes can be written.
+	 */
+	private ByteBuffer ensureRemaining(final int bytes)
+	{
+		if (this.buffer.remaining() < bytes)
+		{
+			final long required = (long) this.buffer.position() + bytes;
+
+			if (required > Integer.MAX_VALUE) { throw new OutOfMemoryError(); }
+
+			final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE,
+					Math.max(required, this.buffer.capacity() * 2L)));
+
+			this.buffer.flip();
+			buffer.put(this.buffer);
+			this.buffer = buffer;
+		}
+
+		return this.buffer;
+	}
+
+	/**
+	 * @param input
+	 *            The value to write.
+	 * @return This writer.
+	 */
+	public BinaryWriter putByte(final byte input)
+	{
+		this.ensureRemaining(1).put(input);
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The value to write, in the format of
+	 *            {@link com.cellngine.ByteOperations#toBytes(int)}.
+	 * @return This writer.
+	 */
+	public BinaryWriter putInt(final int input)
+	{
+		this.ensureRemaining(4).putInt(input);
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The value to write, in the format of
+	 *            {@link com.cellngine.ByteOperations#toBytes(long)}.
+	 * @return This writer.
+	 */
+	public BinaryWriter putLong(final long input)
+	{
+		this.ensureRemaining(8).putLong(input);
+		return this;
+	}
+
+	/**
+	 * Writes the bytes as they are, without a length.
+	 *
+	 * @param input
+	 *            An array containing the bytes to write.
+	 * @param offset
+	 *            The offset of the bytes within the array.
+	 * @param length
+	 *            The amount of bytes to write.
+	 * @return This writer.
+	 */
+	public BinaryWriter putRaw(final byte[] input, final int offset, final int length)
+	{
+		this.ensureRemaining(length).put(input, offset, length);
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The array to write, in the format of
+	 *            {@link com.cellngine.ByteOperations#toBytes(byte[])}.
+	 * @return This writer.
+	 */
+	public BinaryWriter putBytes(final byte[] input)
+	{
+		this.ensureRemaining(4 + input.length).putInt(input.length).put(input);
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The {@link java.lang.String String} to write, in the format of
+	 *            {@link com.cellngine.ByteOperations#toBytes(String)}.
+	 * @return This writer.
+	 */
+	public BinaryWriter putString(final String input)
+	{
+		//UTF-8 never needs more than three bytes per char.
+		final ByteBuffer buffer = this.ensureRemaining(4 + input.length() * 3);
+		final int start = buffer.position();
+		buffer.position(start + 4);
+
+		buffer.putInt(start, StringCodec.encode(input, buffer));
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The value to write, in the format of
+	 *            {@link com.cellngine.ByteOperations#toBytes(BigDecimal)}.
+	 * @return This writer.
+	 */
+	public BinaryWriter putBigDecimal(final BigDecimal input)
+	{
+		return this.putString(input.toString());
+	}
+
+	/**
+	 * @param input
+	 *            The value to write, in the format of
+	 *            {@link com.cellngine.ByteOperations#toVarInt(int)}.
+	 * @return This writer.
+	 */
+	public BinaryWriter putVarInt(final int input)
+	{
+		ByteOperations.putVarInt(this.ensureRemaining(5), input);
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The value to write, in the format of
+	 *            {@link com.cellngine.ByteOperations#toVarLong(long)}.
+	 * @return This writer.
+	 */
+	public BinaryWriter putVarLong(final long input)
+	{
+		ByteOperations.putVarLong(this.ensureRemaining(10), input);
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The value to write, in the format of
+	 *            {@link com.cellngine.ByteOperations#toCompactBytes(BigDecimal)}.
+	 * @return This writer.
+	 */
+	public BinaryWriter putCompactBigDecimal(final BigDecimal input)
+	{
+		ByteOperations.putCompactBigDecimal(this.ensureRemaining(ByteOperations.getCompactBigDecimalSize(input)),
+				input);
+		return this;
+	}
+
+	/**
+	 * @return The amount of bytes written since the last {@link #reset()}.
+	 */
+	public int size()
+	{
+		return this.buffer.position();
+	}
+
+	/**
+	 * Discards everything that has been written, keeping the buffer for reuse.
+	 */
+	public void reset()
+	{
+		this.buffer.clear();
+	}
+
+	/**
+	 * Writes everything that has been written so far to the stream with a single call and resets
+	 * this writer.
+	 *
+	 * @param out
+	 *            The {@link java.io.OutputStream OutputStream} to write to.
+	 * @throws IOException
+	 *             If the stream could not be written to.
+	 */
+	public void writeTo(final OutputStream out) throws IOException
+	{
+		if (this.buffer.hasArray())
+		{
+			out.write(this.buffer.array(), this.buffer.arrayOffset(), this.buffer.position());
+		}
+		else
+		{
+			out.write(this.toByteArray());
+		}
+
+		this.reset();
+	}
+
+	/**
+	 * @return A copy of everything that has been written so far.
+	 */
+	public byte[] toByteArray()
+	{
+		final ByteBuffer data = this.getBuffer();
+		final byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+
+		return bytes;
+	}
+
+	/**
+	 * @return A {@link java.nio.ByteBuffer ByteBuffer} sharing the contents of this writer, with
+	 *         everything that has been written so far between its position and limit.
+	 */
+	public ByteBuffer getBuffer()
+	{
+		final ByteBuffer data = this.buffer.duplicate();
+		data.flip();
+
+		return data;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free pool of equally sized byte arrays for code that streams data through a temporary
+ * buffer, such as hashing and copying. Large buffers mean fewer read and write calls, but
+ * allocating and zeroing one per operation would cost more than the calls it saves; pooling them
+ * gives both.<br />
+ * <br />
+ *
+ * A buffer must not be used any more after it has been released. At most the configured amount of
+ * buffers is kept; any surplus is left to the garbage collector.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public final class BufferPool
+{
+	/**
+	 * The size of the buffers of the {@link #DEFAULT} pool.
+	 */
+	public static final int			DEFAULT_BUFFER_SIZE	= 64 * 1024;
+
+	/**
+	 * A pool shared by the streaming operations of {@link com.cellngine.CO CO}.
+	 */
+	public static final BufferPool	DEFAULT				= new BufferPool(DEFAULT_BUFFER_SIZE, 16);
+
+	private final Queue<byte[]>		buffers				= new ConcurrentLinkedQueue<byte[]>();
+	private final AtomicInteger		pooledBuffers		= new AtomicInteger(0);
+	private final int				bufferSize;
+	private final int				maxPooledBuffers;
+
+	/**
+	 * @param bufferSize
+	 *            The size of the buffers, in bytes.
+	 * @param maxPooledBuffers
+	 *            The maximum amount of idle buffers to keep.
+	 */
+	public BufferPool(final int bufferSize, final int maxPooledBuffers)
+	{
+		if (bufferSize < 1) { throw new IllegalArgumentException("Invalid buffer size: " + bufferSize); }
+		if (maxPooledBuffers < 0) { throw new IllegalArgumentException("Invalid amount of buffers: "
+				+ maxPooledBuffers); }
+
+		this.bufferSize = bufferSize;
+		this.maxPooledBuffers = maxPooledBuffers;
+	}
+
+	/**
+	 * @return An idle buffer, or a new one if there is none. The contents are undefined.
+	 */
+	public byte[] acquire()
+	{
+		final byte[] buffer = this.buffers.poll();
+
+		if (buffer == null) { return new byte[this.bufferSize]; }
+
+		this.pooledBuffers.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Arrays of a different size are ignored.
+	 *
+	 * @param buffer
+	 *            A buffer returned by {@link #acquire()}.
+	 */
+	public void release(final byte[] buffer)
+	{
+		if (buffer.length != this.bufferSize) { return; }
+
+		if (this.pooledBuffers.incrementAndGet() <= this.maxPooledBuffers)
+		{
+			this.buffers.offer(buffer);
+		}
+		else
+		{
+			this.pooledBuffers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The size of the buffers, in bytes.
+	 */
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+}
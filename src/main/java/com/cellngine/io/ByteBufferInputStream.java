@@ -0,0 +1,99 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link java.io.InputStream InputStream} over the remaining bytes of a
+ * {@link java.nio.ByteBuffer ByteBuffer}. Reading from a (memory mapped) buffer takes no system
+ * calls; the stream has its own position, so the buffer that was passed in is not modified.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class ByteBufferInputStream extends InputStream
+{
+	private final ByteBuffer	buffer;
+	private int					mark;
+
+	/**
+	 * @param buffer
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read, from its position to its limit.
+	 */
+	public ByteBufferInputStream(final ByteBuffer buffer)
+	{
+		this.buffer = buffer.duplicate();
+		this.mark = this.buffer.position();
+	}
+
+	@Override
+	public int read()
+	{
+		return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+	{
+		if (off < 0 || len < 0 || len > b.length - off) { throw new IndexOutOfBoundsException(); }
+
+		if (len == 0) { return 0; }
+
+		if (!this.buffer.hasRemaining()) { return -1; }
+
+		final int n = Math.min(len, this.buffer.remaining());
+		this.buffer.get(b, off, n);
+
+		return n;
+	}
+
+	@Override
+	public long skip(final long n)
+	{
+		if (n <= 0) { return 0; }
+
+		final int skipped = (int) Math.min(n, this.buffer.remaining());
+		this.buffer.position(this.buffer.position() + skipped);
+
+		return skipped;
+	}
+
+	@Override
+	public int available()
+	{
+		return this.buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(final int readlimit)
+	{
+		this.mark = this.buffer.position();
+	}
+
+	@Override
+	public synchronized void reset()
+	{
+		this.buffer.position(this.mark);
+	}
+}
@@ -18,6 +18,7 @@ package com.cellngine.io;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ThreadFactory;
 
 import com.cellngine.crypto.StreamCipher;
 
@@ -34,6 +35,8 @@ public class DelayedStreamCipherInputStream extends CommonInputStream
 {
 	private final int			encryptionOffset;
 	private final StreamCipher	streamCipher;
+	private final int			readAheadBlocks;
+	private final ThreadFactory	threadFactory;
 	private boolean				positionReached	= false;
 
 	/**
@@ -48,10 +51,40 @@ public class DelayedStreamCipherInputStream extends CommonInputStream
 	 */
 	public DelayedStreamCipherInputStream(final InputStream inputStream, final StreamCipher streamCipher,
 			final int encryptionOffset)
+	{
+		this(inputStream, streamCipher, encryptionOffset, 0, null);
+	}
+
+	/**
+	 * Creates a {@link com.cellngine.io.DelayedStreamCipherInputStream DelayedStreamCipherInputStream}
+	 * that switches to a {@link com.cellngine.io.StreamCipherInputStream StreamCipherInputStream} in
+	 * read-ahead mode once the encrypted data begins.
+	 *
+	 * @param inputStream
+	 *            The {@link java.io.InputStream InputStream} to wrap around.
+	 * @param streamCipher
+	 *            The {@link com.cellngine.crypto.StreamCipher StreamCipher} object to use for the
+	 *            encryption.
+	 * @param encryptionOffset
+	 *            An @{link java.lang.Integer Integer} specifying the offset within the
+	 *            {@link java.io.InputStream InputStream} where the encrypted data begins.
+	 * @param readAheadBlocks
+	 *            The amount of blocks that may be read and decrypted ahead of the consumer, or
+	 *            {@code 0} to disable read-ahead.
+	 * @param threadFactory
+	 *            The {@link java.util.concurrent.ThreadFactory ThreadFactory} that creates the thread
+	 *            which reads ahead, or {@code null} to use daemon threads.
+	 * @see com.cellngine.io.StreamCipherInputStream#StreamCipherInputStream(InputStream, StreamCipher,
+	 *      int, ThreadFactory)
+	 */
+	public DelayedStreamCipherInputStream(final InputStream inputStream, final StreamCipher streamCipher,
+			final int encryptionOffset, final int readAheadBlocks, final ThreadFactory threadFactory)
 	{
 		super(inputStream);
 		this.streamCipher = streamCipher;
 		this.encryptionOffset = encryptionOffset;
+		this.readAheadBlocks = readAheadBlocks;
+		this.threadFactory = threadFactory;
 	}
 
 	private void checkPosition()
@@ -59,7 +92,16 @@ public class DelayedStreamCipherInputStream extends CommonInputStream
 		if (!this.positionReached && this.position >= this.encryptionOffset)
 		{
 			this.positionReached = true;
-			this.in = new StreamCipherInputStream(this.in, this.streamCipher);
+
+			if (this.readAheadBlocks < 1)
+			{
+				this.in = new StreamCipherInputStream(this.in, this.streamCipher);
+			}
+			else
+			{
+				this.in = new StreamCipherInputStream(this.in, this.streamCipher, this.readAheadBlocks,
+						this.threadFactory);
+			}
 		}
 	}
 
@@ -0,0 +1,139 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link java.io.InputStream InputStream} over a region of a
+ * {@link java.nio.channels.FileChannel FileChannel}. The stream keeps its own position and reads
+ * with positional reads, which leave the position of the channel alone, so any number of streams
+ * can share a single channel, from any number of threads. Skipping takes no I/O at all.<br />
+ * <br />
+ *
+ * Closing the stream does not close the channel.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class FileChannelInputStream extends InputStream
+{
+	private final FileChannel	channel;
+	private final long			end;
+
+	private long				position;
+	private long				mark;
+	private ByteBuffer			single		= null;
+
+	/**
+	 * @param channel
+	 *            The {@link java.nio.channels.FileChannel FileChannel} to read from.
+	 * @param position
+	 *            The position within the channel of the first byte of the region.
+	 * @param length
+	 *            The amount of bytes in the region.
+	 */
+	public FileChannelInputStream(final FileChannel channel, final long position, final long length)
+	{
+		if (position < 0 || length < 0) { throw new IllegalArgumentException("Invalid region: " + position + ", "
+				+ length); }
+
+		this.channel = channel;
+		this.position = position;
+		this.mark = position;
+		this.end = position + length;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if (this.single == null)
+		{
+			this.single = ByteBuffer.allocate(1);
+		}
+
+		this.single.clear();
+
+		return this.read(this.single) == 1 ? this.single.get(0) & 0xFF : -1;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException
+	{
+		if (off < 0 || len < 0 || len > b.length - off) { throw new IndexOutOfBoundsException(); }
+
+		if (len == 0) { return 0; }
+
+		return this.read(ByteBuffer.wrap(b, off, len));
+	}
+
+	private int read(final ByteBuffer dst) throws IOException
+	{
+		if (this.position >= this.end) { return -1; }
+
+		if (dst.remaining() > this.end - this.position)
+		{
+			dst.limit(dst.position() + (int) (this.end - this.position));
+		}
+
+		final int n = this.channel.read(dst, this.position);
+
+		if (n > 0)
+		{
+			this.position = this.position + n;
+		}
+
+		return n;
+	}
+
+	@Override
+	public long skip(final long n)
+	{
+		if (n <= 0) { return 0; }
+
+		final long skipped = Math.min(n, Math.max(0, this.end - this.position));
+		this.position = this.position + skipped;
+
+		return skipped;
+	}
+
+	@Override
+	public int available()
+	{
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(0, this.end - this.position));
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(final int readlimit)
+	{
+		this.mark = this.position;
+	}
+
+	@Override
+	public synchronized void reset()
+	{
+		this.position = this.mark;
+	}
+}
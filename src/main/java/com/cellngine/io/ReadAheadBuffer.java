@@ -0,0 +1,209 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import com.cellngine.crypto.StreamCipher;
+
+/**
+ * A bounded ring of blocks that a producer thread fills by reading from an
+ * {@link java.io.InputStream InputStream} and decrypting the data in place, while the consumer
+ * processes the blocks that were filled before. Blocks are handed back to the producer once the
+ * consumer is done with them, so no memory is allocated after construction.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+class ReadAheadBuffer implements Runnable
+{
+	/**
+	 * Creates the daemon threads used when no {@link java.util.concurrent.ThreadFactory
+	 * ThreadFactory} has been provided.
+	 */
+	private static final class DaemonThreadFactory implements ThreadFactory
+	{
+		@Override
+		public Thread newThread(final Runnable r)
+		{
+			final Thread thread = new Thread(r, "StreamCipherInputStream read-ahead");
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * A block of decrypted data. A length of {@code -1} marks the end of the stream.
+	 */
+	static final class Block
+	{
+		final byte[]	data;
+		int				length;
+
+		private Block(final byte[] data)
+		{
+			this.data = data;
+		}
+	}
+
+	private final InputStream			in;
+	private final StreamCipher			streamCipher;
+	private final BlockingQueue<Block>	free;
+	private final BlockingQueue<Block>	filled;
+	private final Thread				producer;
+
+	private volatile IOException		exception	= null;
+	private volatile boolean			closed		= false;
+
+	/**
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read from. It must not be read from
+	 *            by any other thread once this object has been created.
+	 * @param streamCipher
+	 *            The {@link com.cellngine.crypto.StreamCipher StreamCipher} object to use for
+	 *            decryption.
+	 * @param blocks
+	 *            The amount of blocks that may be read ahead.
+	 * @param blockSize
+	 *            The size of a single block in bytes.
+	 * @param threadFactory
+	 *            The {@link java.util.concurrent.ThreadFactory ThreadFactory} that creates the
+	 *            producer thread, or {@code null} to use a daemon thread.
+	 */
+	ReadAheadBuffer(final InputStream in, final StreamCipher streamCipher, final int blocks, final int blockSize,
+			final ThreadFactory threadFactory)
+	{
+		if (blocks < 1) { throw new IllegalArgumentException("At least one block is required."); }
+
+		this.in = in;
+		this.streamCipher = streamCipher;
+		this.free = new ArrayBlockingQueue<Block>(blocks);
+		//One extra slot so the end-of-stream marker always fits.
+		this.filled = new ArrayBlockingQueue<Block>(blocks + 1);
+
+		for (int i = 0; i < blocks; i++)
+		{
+			this.free.add(new Block(new byte[blockSize]));
+		}
+
+		this.producer = (threadFactory == null ? new DaemonThreadFactory() : threadFactory).newThread(this);
+		this.producer.start();
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			while (!this.closed)
+			{
+				final Block block = this.free.take();
+
+				block.length = this.in.read(block.data);
+
+				if (block.length > 0)
+				{
+					this.streamCipher.decrypt(block.data, 0, block.length);
+				}
+
+				this.filled.put(block);
+
+				if (block.length == -1) { return; }
+			}
+		}
+		catch (final InterruptedException e) /* closed */
+		{
+		}
+		catch (final IOException e)
+		{
+			this.fail(e);
+		}
+		catch (final RuntimeException e)
+		{
+			this.fail(new IOException(e));
+		}
+	}
+
+	private void fail(final IOException e)
+	{
+		if (!this.closed)
+		{
+			this.exception = e;
+
+			//Wake up the consumer; the exception is thrown once all earlier blocks have been read.
+			final Block end = new Block(new byte[0]);
+			end.length = -1;
+			this.filled.offer(end);
+		}
+	}
+
+	/**
+	 * Waits for the next block of decrypted data.
+	 *
+	 * @return The next block. Its length is {@code -1} if the end of the stream has been reached.
+	 * @throws IOException
+	 *             If the producer failed to read from the stream, or if the calling thread was
+	 *             interrupted.
+	 */
+	Block take() throws IOException
+	{
+		final Block block;
+
+		try
+		{
+			block = this.filled.take();
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+
+		if (block.length == -1 && this.exception != null)
+		{
+			this.filled.offer(block);
+			throw this.exception;
+		}
+
+		return block;
+	}
+
+	/**
+	 * Hands a block that has been fully read back to the producer.
+	 */
+	void release(final Block block)
+	{
+		if (block.length > -1)
+		{
+			this.free.offer(block);
+		}
+	}
+
+	/**
+	 * Stops the producer thread. The underlying {@link java.io.InputStream InputStream} is not
+	 * closed.
+	 */
+	void close()
+	{
+		this.closed = true;
+		this.producer.interrupt();
+	}
+}
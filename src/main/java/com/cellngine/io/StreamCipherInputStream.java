@@ -19,6 +19,7 @@ package com.cellngine.io;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ThreadFactory;
 
 import com.cellngine.crypto.StreamCipher;
 
@@ -28,14 +29,30 @@ import com.cellngine.crypto.StreamCipher;
  * <br />
  *
  * The implementation of this class is taken from the {@link javax.crypto.CipherInputStream} class
- * provided by the Java SDK.
+ * provided by the Java SDK.<br />
+ * <br />
+ *
+ * Optionally a read-ahead mode can be enabled, in which a separate thread reads and decrypts the
+ * next blocks of data while the current block is being processed. This allows disk or network I/O,
+ * decryption and the consumer of this stream to run in parallel.
  *
  * @author A.J.A. Boer <jboer@jboer.nl>
  *
  */
 public class StreamCipherInputStream extends FilterInputStream
 {
-	private final StreamCipher	streamCipher;
+	/**
+	 * The size of a single block of data that is read ahead.
+	 */
+	public static final int			READ_AHEAD_BLOCK_SIZE	= 65536;
+
+	private final StreamCipher		streamCipher;
+
+	// the producer of decrypted blocks in read-ahead mode, null otherwise
+	private final ReadAheadBuffer	readAhead;
+
+	// the block that obuffer currently points to in read-ahead mode
+	private ReadAheadBuffer.Block	block					= null;
 
 	/* the buffer holding data that have been read in from the
 	   underlying stream, but have not been processed by the cipher
@@ -66,6 +83,54 @@ public class StreamCipherInputStream extends FilterInputStream
 	{
 		super(inputStream);
 		this.streamCipher = streamCipher;
+		this.readAhead = null;
+	}
+
+	/**
+	 * Creates a {@link com.cellngine.io.StreamCipherInputStream StreamCipherInputStream} in
+	 * read-ahead mode, using a daemon thread to read and decrypt the data.
+	 *
+	 * @param inputStream
+	 *            The {@link java.io.InputStream InputStream} object to wrap around. It must not be
+	 *            read from directly once this object has been created.
+	 * @param streamCipher
+	 *            The {@link com.cellngine.crypto.StreamCipher StreamCipher} object to use for
+	 *            decryption.
+	 * @param readAheadBlocks
+	 *            The amount of blocks of {@link #READ_AHEAD_BLOCK_SIZE} bytes that may be read and
+	 *            decrypted ahead of the consumer.
+	 */
+	public StreamCipherInputStream(final InputStream inputStream, final StreamCipher streamCipher,
+			final int readAheadBlocks)
+	{
+		this(inputStream, streamCipher, readAheadBlocks, null);
+	}
+
+	/**
+	 * Creates a {@link com.cellngine.io.StreamCipherInputStream StreamCipherInputStream} in
+	 * read-ahead mode.
+	 *
+	 * @param inputStream
+	 *            The {@link java.io.InputStream InputStream} object to wrap around. It must not be
+	 *            read from directly once this object has been created.
+	 * @param streamCipher
+	 *            The {@link com.cellngine.crypto.StreamCipher StreamCipher} object to use for
+	 *            decryption.
+	 * @param readAheadBlocks
+	 *            The amount of blocks of {@link #READ_AHEAD_BLOCK_SIZE} bytes that may be read and
+	 *            decrypted ahead of the consumer.
+	 * @param threadFactory
+	 *            The {@link java.util.concurrent.ThreadFactory ThreadFactory} that creates the thread
+	 *            which reads ahead, e.g. a factory for virtual threads where those are available.
+	 *            Provide {@code null} to use a daemon thread.
+	 */
+	public StreamCipherInputStream(final InputStream inputStream, final StreamCipher streamCipher,
+			final int readAheadBlocks, final ThreadFactory threadFactory)
+	{
+		super(inputStream);
+		this.streamCipher = streamCipher;
+		this.readAhead = new ReadAheadBuffer(inputStream, streamCipher, readAheadBlocks, READ_AHEAD_BLOCK_SIZE,
+				threadFactory);
 	}
 
 	/**
@@ -83,6 +148,8 @@ public class StreamCipherInputStream extends FilterInputStream
 	{
 		if (this.done) { return -1; }
 
+		if (this.readAhead != null) { return this.getMoreReadAheadData(); }
+
 		final int readin = this.in.read(this.ibuffer);
 
 		if (readin == -1)
@@ -93,33 +160,46 @@ public class StreamCipherInputStream extends FilterInputStream
 		}
 		else
 		{
-			final byte[] buffer = new byte[readin];
-			System.arraycopy(this.ibuffer, 0, buffer, 0, buffer.length);
-
-			try
-			{
-				this.obuffer = this.streamCipher.decrypt(buffer);
-			}
-			catch (final NullPointerException e)
-			{
-				this.obuffer = null;
-			}
+			//The data is decrypted in place, the input buffer doubles as the output buffer.
+			this.streamCipher.decrypt(this.ibuffer, 0, readin);
 
+			this.obuffer = this.ibuffer;
 			this.ostart = 0;
-
-			if (this.obuffer == null)
-			{
-				this.ofinish = 0;
-			}
-			else
-			{
-				this.ofinish = this.obuffer.length;
-			}
+			this.ofinish = readin;
 
 			return this.ofinish;
 		}
 	}
 
+	/**
+	 * Read-ahead counterpart of {@link #getMoreData()}: hands the current block back to the producer
+	 * and waits for the next one.
+	 */
+	private int getMoreReadAheadData() throws IOException
+	{
+		if (this.block != null)
+		{
+			this.readAhead.release(this.block);
+			this.block = null;
+		}
+
+		final ReadAheadBuffer.Block next = this.readAhead.take();
+
+		if (next.length == -1)
+		{
+			this.done = true;
+
+			return -1;
+		}
+
+		this.block = next;
+		this.obuffer = next.data;
+		this.ostart = 0;
+		this.ofinish = next.length;
+
+		return this.ofinish;
+	}
+
 	@Override
 	public int read() throws IOException
 	{
@@ -203,6 +283,11 @@ public class StreamCipherInputStream extends FilterInputStream
 	@Override
 	public void close() throws IOException
 	{
+		if (this.readAhead != null)
+		{
+			this.readAhead.close();
+		}
+
 		this.in.close();
 
 		this.ostart = 0;
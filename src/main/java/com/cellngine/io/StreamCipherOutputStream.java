@@ -31,8 +31,14 @@ import com.cellngine.crypto.StreamCipher;
  */
 public class StreamCipherOutputStream extends FilterOutputStream
 {
+	// the largest amount of bytes that is encrypted and passed on in a single write
+	private static final int	MAX_BUFFER_SIZE	= 65536;
+
 	private final StreamCipher	streamCipher;
 
+	// holds the encrypted copy of the data, the caller's array is never modified
+	private byte[]				buffer			= new byte[512];
+
 	/**
 	 * @param outputStream
 	 *            The {@link java.io.OutputStream OutputStream} object to wrap around.
@@ -61,14 +67,26 @@ public class StreamCipherOutputStream extends FilterOutputStream
 	@Override
 	public void write(final byte[] b, final int off, final int len) throws IOException
 	{
-		byte[] buffer = new byte[len];
+		if (off < 0 || len < 0 || len > b.length - off) { throw new IndexOutOfBoundsException(); }
+
+		if (len > this.buffer.length && this.buffer.length < MAX_BUFFER_SIZE)
+		{
+			this.buffer = new byte[Math.min(len, MAX_BUFFER_SIZE)];
+		}
+
+		int written = 0;
+
+		while (written < len)
+		{
+			final int n = Math.min(len - written, this.buffer.length);
 
-		System.arraycopy(b, off, buffer, 0, len);
+			System.arraycopy(b, off + written, this.buffer, 0, n);
 
-		buffer = this.streamCipher.encrypt(buffer);
+			this.streamCipher.encrypt(this.buffer, 0, n);
 
-		System.arraycopy(buffer, off, b, 0, len);
+			this.out.write(this.buffer, 0, n);
 
-		this.out.write(b, off, len);
+			written = written + n;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,443 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.io;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import com.cellngine.CO;
+import com.cellngine.crypto.StreamCipher;
+
+/**
+ * Builds a single-pass {@link java.io.InputStream InputStream} that reads a region of a source
+ * stream, decrypts it and optionally inflates it.<br />
+ * <br />
+ *
+ * The layered equivalent of a pipeline is a chain of {@link com.cellngine.io.StreamCipherInputStream
+ * StreamCipherInputStream}, {@link com.cellngine.io.BoundedInputStream BoundedInputStream} and
+ * {@link java.util.zip.GZIPInputStream GZIPInputStream} objects, each of which copies the data into
+ * its own buffer. A pipeline instead shares one buffer between all stages: the bounded region is read
+ * into it, decrypted in place and inflated straight into the array that is passed to
+ * {@link java.io.InputStream#read(byte[], int, int) read}. Uncompressed regions are read and decrypted
+ * directly within the caller's array.<br />
+ * <br />
+ *
+ * If the source is a {@link java.io.FileInputStream FileInputStream} the start of the region is found
+ * by repositioning its channel instead of reading the preceding bytes. The keystream of the
+ * {@link com.cellngine.crypto.StreamCipher StreamCipher} is advanced without reading the ciphertext.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class StreamPipeline
+{
+	public static final int		DEFAULT_BUFFER_SIZE	= 8192;
+
+	private final InputStream	source;
+	private long				offset				= 0;
+	private long				length				= -1;
+	private StreamCipher		streamCipher		= null;
+	private long				cipherOffset		= 0;
+	private boolean				inflate				= false;
+	private int					bufferSize			= DEFAULT_BUFFER_SIZE;
+
+	/**
+	 * @param source
+	 *            The {@link java.io.InputStream InputStream} to read from. All offsets passed to this
+	 *            pipeline are relative to the current position of the source.
+	 */
+	public StreamPipeline(final InputStream source)
+	{
+		if (source == null) { throw new NullPointerException(); }
+
+		this.source = source;
+	}
+
+	/**
+	 * Limits the pipeline to a region of the source.
+	 *
+	 * @param offset
+	 *            The offset of the first byte of the region.
+	 * @param length
+	 *            The amount of bytes within the region, or {@code -1} to read until the end of the
+	 *            source.
+	 * @return This pipeline.
+	 */
+	public StreamPipeline region(final long offset, final long length)
+	{
+		if (offset < 0 || length < -1) { throw new IllegalArgumentException("Invalid region: " + offset + ", " + length); }
+
+		this.offset = offset;
+		this.length = length;
+
+		return this;
+	}
+
+	/**
+	 * Decrypts the region using the given {@link com.cellngine.crypto.StreamCipher StreamCipher}.
+	 *
+	 * @param streamCipher
+	 *            A freshly initialised {@link com.cellngine.crypto.StreamCipher StreamCipher}.
+	 * @param cipherOffset
+	 *            The offset within the source at which the encrypted data begins. This must not be
+	 *            larger than the offset of the region.
+	 * @return This pipeline.
+	 */
+	public StreamPipeline decrypt(final StreamCipher streamCipher, final long cipherOffset)
+	{
+		if (cipherOffset < 0) { throw new IllegalArgumentException("Invalid cipher offset: " + cipherOffset); }
+
+		this.streamCipher = streamCipher;
+		this.cipherOffset = cipherOffset;
+
+		return this;
+	}
+
+	/**
+	 * Inflates the (decrypted) region, which is expected to contain gzip compressed data.
+	 *
+	 * @return This pipeline.
+	 */
+	public StreamPipeline inflate()
+	{
+		this.inflate = true;
+
+		return this;
+	}
+
+	/**
+	 * @param bufferSize
+	 *            The size of the buffer shared between the stages. Defaults to
+	 *            {@link #DEFAULT_BUFFER_SIZE}.
+	 * @return This pipeline.
+	 */
+	public StreamPipeline bufferSize(final int bufferSize)
+	{
+		if (bufferSize < 1) { throw new IllegalArgumentException("Invalid buffer size: " + bufferSize); }
+
+		this.bufferSize = bufferSize;
+
+		return this;
+	}
+
+	/**
+	 * Positions the source at the start of the region and returns a stream over its contents. The
+	 * source is closed when the returned stream is closed, or when opening fails.
+	 *
+	 * @return An {@link java.io.InputStream InputStream} over the contents of the region.
+	 * @throws IOException
+	 *             If the source could not be positioned.
+	 */
+	public InputStream open() throws IOException
+	{
+		if (this.streamCipher != null && this.cipherOffset > this.offset) { throw new IllegalArgumentException(
+				"The region starts before the encrypted data."); }
+
+		final byte[] buffer = new byte[this.bufferSize];
+
+		try
+		{
+			this.skipSource(buffer);
+
+			if (this.streamCipher != null)
+			{
+				long keystream = this.offset - this.cipherOffset;
+
+				while (keystream > 0)
+				{
+					final int n = (int) Math.min(keystream, buffer.length);
+					this.streamCipher.decrypt(buffer, 0, n);
+					keystream = keystream - n;
+				}
+			}
+		}
+		catch (final IOException e)
+		{
+			CO.closeInputStream(this.source);
+			throw e;
+		}
+		catch (final RuntimeException e)
+		{
+			CO.closeInputStream(this.source);
+			throw e;
+		}
+
+		return new PipelineInputStream(this.source, this.streamCipher, buffer, this.length < 0 ? Long.MAX_VALUE
+				: this.length, this.inflate);
+	}
+
+	private void skipSource(final byte[] buffer) throws IOException
+	{
+		if (this.offset == 0) { return; }
+
+		if (this.source instanceof FileInputStream)
+		{
+			final FileChannel channel = ((FileInputStream) this.source).getChannel();
+			channel.position(channel.position() + this.offset);
+			return;
+		}
+
+		long n = this.offset;
+
+		while (n > 0)
+		{
+			long i = this.source.skip(n);
+
+			if (i <= 0)
+			{
+				//The skip method may skip fewer bytes than requested, so fall back to reading.
+				i = this.source.read(buffer, 0, (int) Math.min(n, buffer.length));
+
+				if (i == -1) { throw new EOFException("Unable to skip " + this.offset
+						+ " bytes; end of file reached after " + (this.offset - n) + " bytes."); }
+			}
+
+			n = n - i;
+		}
+	}
+
+	/**
+	 * The stream returned by {@link StreamPipeline#open()}.
+	 */
+	private static final class PipelineInputStream extends InputStream
+	{
+		private static final int	FHCRC		= 2;
+		private static final int	FEXTRA		= 4;
+		private static final int	FNAME		= 8;
+		private static final int	FCOMMENT	= 16;
+
+		private final InputStream	in;
+		private final StreamCipher	streamCipher;
+		private final byte[]		buffer;
+		private final Inflater		inflater;
+		private final CRC32			crc;
+		private final byte[]		single		= new byte[1];
+
+		private long				remaining;
+		private int					bufferPosition	= 0;
+		private int					bufferLimit		= 0;
+		private boolean				headerRead		= false;
+		private boolean				finished		= false;
+
+		private PipelineInputStream(final InputStream in, final StreamCipher streamCipher, final byte[] buffer,
+				final long remaining, final boolean inflate)
+		{
+			this.in = in;
+			this.streamCipher = streamCipher;
+			this.buffer = buffer;
+			this.remaining = remaining;
+			this.inflater = inflate ? new Inflater(true) : null;
+			this.crc = inflate ? new CRC32() : null;
+		}
+
+		/**
+		 * Reads (at most) {@code len} bytes of the region into {@code b} and decrypts them in place.
+		 */
+		private int readRegion(final byte[] b, final int off, final int len) throws IOException
+		{
+			if (this.remaining <= 0) { return -1; }
+
+			final int i = this.in.read(b, off, (int) Math.min(len, this.remaining));
+
+			if (i > 0)
+			{
+				this.remaining = this.remaining - i;
+
+				if (this.streamCipher != null)
+				{
+					this.streamCipher.decrypt(b, off, i);
+				}
+			}
+
+			return i;
+		}
+
+		private boolean fill() throws IOException
+		{
+			this.bufferPosition = 0;
+			this.bufferLimit = Math.max(0, this.readRegion(this.buffer, 0, this.buffer.length));
+
+			return this.bufferLimit > 0;
+		}
+
+		private int readBufferedByte() throws IOException
+		{
+			if (this.bufferPosition >= this.bufferLimit && !this.fill()) { throw new EOFException(
+					"Unexpected end of gzip data."); }
+
+			return this.buffer[this.bufferPosition++] & 0xff;
+		}
+
+		private int readBufferedShort() throws IOException
+		{
+			return this.readBufferedByte() | (this.readBufferedByte() << 8);
+		}
+
+		private long readBufferedInt() throws IOException
+		{
+			return (this.readBufferedShort() | ((long) this.readBufferedShort() << 16)) & 0xffffffffL;
+		}
+
+		private void readHeader() throws IOException
+		{
+			if (this.readBufferedShort() != 0x8b1f) { throw new ZipException("Not in GZIP format"); }
+			if (this.readBufferedByte() != 8) { throw new ZipException("Unsupported compression method"); }
+
+			final int flags = this.readBufferedByte();
+
+			//Modification time, extra flags and operating system.
+			for (int i = 0; i < 6; i++)
+			{
+				this.readBufferedByte();
+			}
+
+			if ((flags & FEXTRA) == FEXTRA)
+			{
+				for (int i = this.readBufferedShort(); i > 0; i--)
+				{
+					this.readBufferedByte();
+				}
+			}
+
+			if ((flags & FNAME) == FNAME)
+			{
+				while (this.readBufferedByte() != 0)
+				{
+				}
+			}
+
+			if ((flags & FCOMMENT) == FCOMMENT)
+			{
+				while (this.readBufferedByte() != 0)
+				{
+				}
+			}
+
+			if ((flags & FHCRC) == FHCRC)
+			{
+				this.readBufferedShort();
+			}
+
+			this.headerRead = true;
+
+			if (this.bufferPosition < this.bufferLimit)
+			{
+				this.inflater.setInput(this.buffer, this.bufferPosition, this.bufferLimit - this.bufferPosition);
+			}
+		}
+
+		private void readTrailer() throws IOException
+		{
+			//The inflater is always fed with the tail of the buffer, so whatever it did not consume
+			//is found at the end of it.
+			this.bufferPosition = this.bufferLimit - this.inflater.getRemaining();
+
+			if (this.readBufferedInt() != this.crc.getValue()
+					|| this.readBufferedInt() != (this.inflater.getBytesWritten() & 0xffffffffL)) { throw new ZipException(
+					"Corrupt GZIP trailer"); }
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			return this.read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b) throws IOException
+		{
+			return this.read(b, 0, b.length);
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			if (off < 0 || len < 0 || len > b.length - off) { throw new IndexOutOfBoundsException(); }
+			if (len == 0) { return 0; }
+
+			if (this.inflater == null) { return this.readRegion(b, off, len); }
+
+			if (this.finished) { return -1; }
+
+			if (!this.headerRead)
+			{
+				this.readHeader();
+			}
+
+			while (true)
+			{
+				final int i;
+
+				try
+				{
+					i = this.inflater.inflate(b, off, len);
+				}
+				catch (final DataFormatException e)
+				{
+					throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid ZLIB data format");
+				}
+
+				if (i > 0)
+				{
+					this.crc.update(b, off, i);
+					return i;
+				}
+
+				if (this.inflater.finished())
+				{
+					this.readTrailer();
+					this.finished = true;
+					return -1;
+				}
+
+				if (this.inflater.needsDictionary()) { throw new ZipException("Unexpected preset dictionary"); }
+
+				if (this.inflater.needsInput())
+				{
+					if (!this.fill()) { throw new EOFException("Unexpected end of ZLIB input stream"); }
+
+					this.inflater.setInput(this.buffer, 0, this.bufferLimit);
+				}
+			}
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			if (this.inflater != null) { return 0; }
+
+			return (int) Math.min(this.in.available(), this.remaining);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (this.inflater != null)
+			{
+				this.inflater.end();
+			}
+
+			this.in.close();
+		}
+	}
+}
@@ -0,0 +1,561 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.cellngine.crypto.StreamCipher;
+
+/**
+ * A single connection of a {@link com.cellngine.net.Transport Transport}.<br />
+ * <br />
+ *
+ * Messages passed to {@link #send(byte[])} are framed and collected in an
+ * {@link com.cellngine.net.OutboundQueue OutboundQueue}. Everything that has been sent by the time
+ * the connection gets around to writing is encrypted with one cipher call and written with one
+ * gathering write, so bursts of small messages are coalesced into few system calls. When that
+ * happens is decided by the {@link com.cellngine.net.FlushPolicy FlushPolicy} of the connection.
+ * Once the
+ * amount of unwritten data exceeds the high water mark of the transport the connection becomes
+ * unwritable until it drops below the low water mark again, see
+ * {@link com.cellngine.net.ConnectionHandler#writabilityChanged}.<br />
+ * <br />
+ *
+ * All methods of this class are thread-safe.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class Connection
+{
+	private final Transport					transport;
+	private final SocketChannel				channel;
+	private final OutboundQueue				outbound;
+	private final FrameDecoder				decoder;
+
+	private final ReentrantLock				writeLock				= new ReentrantLock();
+	private final AtomicBoolean				closed					= new AtomicBoolean(false);
+
+	private FlushPolicy						flushPolicy;
+	private MessageDeflater					deflater				= null;
+	private MessageInflater					inflater				= null;
+	private boolean							writable				= true;
+	private boolean							flushScheduled			= false;
+	private boolean							delayedFlushScheduled	= false;
+	private boolean							readSuspended			= false;
+	private volatile Object					attachment				= null;
+
+	SelectionKey							key						= null;
+
+	Connection(final Transport transport, final SocketChannel channel)
+	{
+		this.transport = transport;
+		this.channel = channel;
+		this.outbound = new OutboundQueue(transport, transport.getMaxFrameSize());
+		this.flushPolicy = transport.getFlushPolicy();
+		this.decoder = new FrameDecoder(transport.getMaxFrameSize());
+	}
+
+	/**
+	 * Sets the ciphers used for all messages that are sent and received from now on. This is
+	 * typically called once a handshake has been completed, e.g. from within
+	 * {@link com.cellngine.net.ConnectionHandler#received} so that the switch happens exactly
+	 * between two messages.
+	 *
+	 * @param encryption
+	 *            The {@link com.cellngine.crypto.StreamCipher StreamCipher} for outbound data, or
+	 *            {@code null} for none.
+	 * @param decryption
+	 *            The {@link com.cellngine.crypto.StreamCipher StreamCipher} for inbound data, or
+	 *            {@code null} for none.
+	 */
+	public void setStreamCiphers(final StreamCipher encryption, final StreamCipher decryption)
+	{
+		//Messages that have been sent before still use the previous cipher.
+		this.outbound.setStreamCipher(encryption);
+
+		synchronized (this.decoder)
+		{
+			this.decoder.setStreamCipher(decryption);
+		}
+	}
+
+	/**
+	 * Enables compression for all messages that are sent and received from now on. Messages are
+	 * compressed before they are encrypted. Like {@link #setStreamCiphers}, this must happen at the
+	 * same point of the conversation on both sides, and the remote side must use matching settings.
+	 *
+	 * @param deflater
+	 *            The {@link com.cellngine.net.MessageDeflater MessageDeflater} for outbound
+	 *            messages, or {@code null} for none.
+	 * @param inflater
+	 *            The {@link com.cellngine.net.MessageInflater MessageInflater} for inbound messages,
+	 *            or {@code null} for none.
+	 */
+	public void setCompression(final MessageDeflater deflater, final MessageInflater inflater)
+	{
+		synchronized (this)
+		{
+			this.deflater = deflater;
+		}
+
+		synchronized (this.decoder)
+		{
+			this.inflater = inflater;
+		}
+	}
+
+	/**
+	 * Queues a message for sending.
+	 *
+	 * @param message
+	 *            The message to send.
+	 * @throws IOException
+	 *             If the connection has been closed.
+	 * @throws IllegalArgumentException
+	 *             If the message is larger than the maximum frame size of the transport.
+	 */
+	public void send(final byte[] message) throws IOException
+	{
+		this.send(message, 0, message.length);
+	}
+
+	/**
+	 * Queues a message for sending.
+	 *
+	 * @param message
+	 *            An array containing the message to send.
+	 * @param offset
+	 *            The offset of the message within the array.
+	 * @param length
+	 *            The length of the message.
+	 * @throws IOException
+	 *             If the connection has been closed.
+	 * @throws IllegalArgumentException
+	 *             If the message is larger than the maximum frame size of the transport.
+	 */
+	public void send(final byte[] message, final int offset, final int length) throws IOException
+	{
+		boolean schedule = false;
+		long delay = -1;
+		boolean unwritable = false;
+
+		synchronized (this)
+		{
+			if (this.closed.get()) { throw new ClosedChannelException(); }
+
+			final long pendingBytes;
+
+			if (this.deflater != null)
+			{
+				final ByteBuffer compressed = this.deflater.compress(message, offset, length);
+				pendingBytes = this.outbound.add(compressed.array(), compressed.arrayOffset() + compressed.position(),
+						compressed.remaining());
+			}
+			else
+			{
+				pendingBytes = this.outbound.add(message, offset, length);
+			}
+
+			if (this.writable && pendingBytes > this.transport.getHighWaterMark())
+			{
+				this.writable = false;
+				unwritable = true;
+			}
+
+			if (this.flushPolicy.isDue(this.outbound.getUndrainedBytes()))
+			{
+				schedule = !this.flushScheduled;
+				this.flushScheduled = true;
+			}
+			else if (!this.delayedFlushScheduled)
+			{
+				delay = this.flushPolicy.getMaxDelay(TimeUnit.NANOSECONDS);
+				this.delayedFlushScheduled = delay >= 0;
+			}
+		}
+
+		if (unwritable)
+		{
+			this.transport.getHandler().writabilityChanged(this, false);
+		}
+
+		if (schedule)
+		{
+			this.transport.scheduleFlush(this);
+		}
+		else if (delay >= 0)
+		{
+			this.transport.scheduleFlush(this, delay);
+		}
+	}
+
+	/**
+	 * Writes everything that has been sent so far, regardless of the
+	 * {@link com.cellngine.net.FlushPolicy FlushPolicy}. Whether this happens on the calling thread
+	 * depends on the {@link com.cellngine.net.Transport.Mode Mode} of the transport.
+	 */
+	public void flush()
+	{
+		final boolean schedule;
+
+		synchronized (this)
+		{
+			if (this.closed.get()) { return; }
+
+			schedule = !this.flushScheduled;
+			this.flushScheduled = true;
+		}
+
+		if (schedule)
+		{
+			this.transport.scheduleFlush(this);
+		}
+	}
+
+	/**
+	 * Called by the transport once the maximum delay of the flush policy has passed.
+	 */
+	void delayedFlush()
+	{
+		synchronized (this)
+		{
+			this.delayedFlushScheduled = false;
+		}
+
+		this.flush();
+	}
+
+	/**
+	 * @param flushPolicy
+	 *            The {@link com.cellngine.net.FlushPolicy FlushPolicy} that decides when sent
+	 *            messages are written.
+	 */
+	public void setFlushPolicy(final FlushPolicy flushPolicy)
+	{
+		if (flushPolicy == null) { throw new NullPointerException(); }
+
+		final boolean waiting;
+
+		synchronized (this)
+		{
+			this.flushPolicy = flushPolicy;
+			waiting = this.outbound.getUndrainedBytes() > 0;
+		}
+
+		//Messages that are already waiting must not be held back any longer than before.
+		if (waiting)
+		{
+			this.flush();
+		}
+	}
+
+	public synchronized FlushPolicy getFlushPolicy()
+	{
+		return this.flushPolicy;
+	}
+
+	/**
+	 * @return {@code false} if the amount of unwritten data has exceeded the high water mark of the
+	 *         transport and not yet dropped below the low water mark.
+	 */
+	public synchronized boolean isWritable()
+	{
+		return this.writable;
+	}
+
+	/**
+	 * @return The amount of bytes that have been sent but not yet written to the socket.
+	 */
+	public long getPendingBytes()
+	{
+		return this.outbound.getPendingBytes();
+	}
+
+	/**
+	 * Stops reading from the connection until {@link #resumeReading()} is called. Data sent by the
+	 * remote side then piles up in the socket buffers, which eventually slows down the sender.
+	 */
+	public void suspendReading()
+	{
+		this.setReadSuspended(true);
+	}
+
+	/**
+	 * Resumes reading after a call to {@link #suspendReading()}.
+	 */
+	public void resumeReading()
+	{
+		this.setReadSuspended(false);
+	}
+
+	private void setReadSuspended(final boolean readSuspended)
+	{
+		synchronized (this.decoder)
+		{
+			this.readSuspended = readSuspended;
+			this.decoder.notifyAll();
+		}
+
+		this.transport.updateInterest(this);
+	}
+
+	boolean isReadSuspended()
+	{
+		synchronized (this.decoder)
+		{
+			return this.readSuspended;
+		}
+	}
+
+	/**
+	 * Blocks the calling thread while reading has been suspended.
+	 *
+	 * @return {@code false} if the connection has been closed in the meantime.
+	 */
+	boolean awaitReading() throws IOException
+	{
+		synchronized (this.decoder)
+		{
+			try
+			{
+				while (this.readSuspended && !this.closed.get())
+				{
+					this.decoder.wait();
+				}
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new ClosedChannelException();
+			}
+		}
+
+		return !this.closed.get();
+	}
+
+	/**
+	 * @return The address of the remote side, or {@code null} if it is unknown.
+	 */
+	public SocketAddress getRemoteAddress()
+	{
+		try
+		{
+			return this.channel.getRemoteAddress();
+		}
+		catch (final IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @param attachment
+	 *            An arbitrary object to associate with this connection, e.g. a session.
+	 */
+	public void setAttachment(final Object attachment)
+	{
+		this.attachment = attachment;
+	}
+
+	/**
+	 * @return The object passed to {@link #setAttachment(Object)}.
+	 */
+	public Object getAttachment()
+	{
+		return this.attachment;
+	}
+
+	/**
+	 * @return {@code true} if this connection has not been closed yet.
+	 */
+	public boolean isOpen()
+	{
+		return !this.closed.get();
+	}
+
+	/**
+	 * Closes the connection. Data that has not been written yet is discarded.
+	 */
+	public void close()
+	{
+		this.close(null);
+	}
+
+	void close(final IOException cause)
+	{
+		if (this.closed.compareAndSet(false, true))
+		{
+			try
+			{
+				this.channel.close();
+			}
+			catch (final IOException e) /* no problem */
+			{
+			}
+
+			synchronized (this.decoder)
+			{
+				this.decoder.notifyAll();
+			}
+
+			this.transport.closed(this);
+			this.transport.getHandler().disconnected(this, cause);
+		}
+	}
+
+	SocketChannel getChannel()
+	{
+		return this.channel;
+	}
+
+	/**
+	 * Performs a single read on the channel and delivers every complete message.
+	 *
+	 * @return The amount of bytes read, or {@code -1} if the remote side closed the connection.
+	 */
+	int read(final ByteBuffer buffer) throws IOException
+	{
+		final int i = this.channel.read(buffer);
+
+		if (i > 0)
+		{
+			buffer.flip();
+
+			synchronized (this.decoder)
+			{
+				this.decoder.feed(buffer);
+			}
+
+			buffer.clear();
+
+			byte[] message;
+			MessageInflater inflater;
+
+			while (!this.closed.get())
+			{
+				synchronized (this.decoder)
+				{
+					message = this.decoder.next();
+					inflater = this.inflater;
+				}
+
+				if (message == null)
+				{
+					break;
+				}
+
+				if (inflater != null)
+				{
+					final ByteBuffer decompressed = inflater.decompress(message, 0, message.length);
+					message = new byte[decompressed.remaining()];
+					decompressed.get(message);
+				}
+
+				this.transport.getHandler().received(this, message);
+			}
+		}
+
+		return i;
+	}
+
+	/**
+	 * Performs a single gathering write of the data that has been drained.
+	 */
+	private void write() throws IOException
+	{
+		if (this.outbound.write(this.channel) == 0) { return; }
+
+		boolean writable = false;
+
+		synchronized (this)
+		{
+			if (!this.writable && this.outbound.getPendingBytes() <= this.transport.getLowWaterMark())
+			{
+				this.writable = true;
+				writable = true;
+			}
+		}
+
+		if (writable)
+		{
+			this.transport.getHandler().writabilityChanged(this, true);
+		}
+	}
+
+	/**
+	 * Flushes on behalf of a non-blocking channel. Must only be called by the selector thread.
+	 *
+	 * @return {@code true} if everything has been written.
+	 */
+	boolean flushNonBlocking() throws IOException
+	{
+		synchronized (this)
+		{
+			this.flushScheduled = false;
+		}
+
+		this.outbound.drain();
+		this.write();
+
+		return this.outbound.isWritten();
+	}
+
+	/**
+	 * Flushes on behalf of a blocking channel. Messages sent by other threads while this thread is
+	 * writing are picked up before returning.
+	 */
+	void flushBlocking() throws IOException
+	{
+		this.writeLock.lock();
+
+		try
+		{
+			while (true)
+			{
+				this.outbound.drain();
+
+				if (this.outbound.isWritten())
+				{
+					synchronized (this)
+					{
+						if (this.outbound.getUndrainedBytes() == 0)
+						{
+							this.flushScheduled = false;
+							return;
+						}
+					}
+
+					continue;
+				}
+
+				this.write();
+			}
+		}
+		finally
+		{
+			this.writeLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.IOException;
+
+/**
+ * Receives the events of the {@link com.cellngine.net.Connection Connection} objects of a
+ * {@link com.cellngine.net.Transport Transport}.<br />
+ * <br />
+ *
+ * The events of a single connection are delivered by one thread at a time and in order. In
+ * {@link com.cellngine.net.Transport.Mode#SELECTOR SELECTOR} mode all connections share the same
+ * thread, so implementations should hand expensive work off to other threads.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public interface ConnectionHandler
+{
+	/**
+	 * Called once a connection has been established, before any message is received.
+	 *
+	 * @param connection
+	 *            The new connection.
+	 */
+	public void connected(final Connection connection);
+
+	/**
+	 * Called for every complete message that has been received.
+	 *
+	 * @param connection
+	 *            The connection the message was received on.
+	 * @param message
+	 *            The (decrypted) message.
+	 */
+	public void received(final Connection connection, final byte[] message);
+
+	/**
+	 * Called when the amount of outbound data that has not been written yet crosses the high
+	 * (becoming unwritable) or the low (becoming writable again) water mark.
+	 *
+	 * @param connection
+	 *            The connection whose state changed.
+	 * @param writable
+	 *            {@code true} if more messages may be sent, {@code false} if the sender should
+	 *            back off.
+	 */
+	public void writabilityChanged(final Connection connection, final boolean writable);
+
+	/**
+	 * Called once when a connection has been closed.
+	 *
+	 * @param connection
+	 *            The connection that has been closed.
+	 * @param cause
+	 *            The error that caused the connection to be closed, or {@code null} if it was
+	 *            closed regularly.
+	 */
+	public void disconnected(final Connection connection, final IOException cause);
+}
@@ -0,0 +1,112 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the messages sent on a {@link com.cellngine.net.Connection Connection} are written
+ * to the socket. Holding back small messages for a short while lets them be encrypted and written
+ * together, which saves system calls when many tiny messages are sent in quick succession.<br />
+ * <br />
+ *
+ * Messages are written as soon as one of the following applies:
+ * <ul>
+ * <li>at least {@link #getFlushSize()} bytes are waiting,</li>
+ * <li>the oldest waiting message has waited for {@link #getMaxDelay(TimeUnit)},</li>
+ * <li>{@link com.cellngine.net.Connection#flush()} is called.</li>
+ * </ul>
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public final class FlushPolicy
+{
+	/**
+	 * Writes every message right away. Messages that are sent while a write is in progress are
+	 * still coalesced. This is the default.
+	 */
+	public static final FlushPolicy	IMMEDIATE	= new FlushPolicy(0, 0, TimeUnit.NANOSECONDS);
+
+	/**
+	 * Only writes when {@link com.cellngine.net.Connection#flush()} is called or a full write buffer
+	 * has been collected, e.g. once at the end of every game tick.
+	 */
+	public static final FlushPolicy	EXPLICIT	= new FlushPolicy(Transport.BUFFER_SIZE, -1, TimeUnit.NANOSECONDS);
+
+	private final int				flushSize;
+	private final long				maxDelay;
+
+	/**
+	 * @param flushSize
+	 *            The amount of waiting bytes (including frame headers) that triggers a write.
+	 * @param maxDelay
+	 *            The maximum time a message is held back, {@code 0} to write right away or a
+	 *            negative value to only write once {@code flushSize} has been reached or
+	 *            {@link com.cellngine.net.Connection#flush()} is called.
+	 * @param unit
+	 *            The unit of {@code maxDelay}.
+	 */
+	public FlushPolicy(final int flushSize, final long maxDelay, final TimeUnit unit)
+	{
+		if (flushSize < 0) { throw new IllegalArgumentException("Invalid flush size: " + flushSize); }
+
+		this.flushSize = flushSize;
+		this.maxDelay = maxDelay < 0 ? -1 : unit.toNanos(maxDelay);
+	}
+
+	/**
+	 * @return The amount of waiting bytes that triggers a write.
+	 */
+	public int getFlushSize()
+	{
+		return this.flushSize;
+	}
+
+	/**
+	 * @param unit
+	 *            The unit of the returned value.
+	 * @return The maximum time a message is held back, or {@code -1} if there is no such limit.
+	 */
+	public long getMaxDelay(final TimeUnit unit)
+	{
+		return this.maxDelay < 0 ? -1 : unit.convert(this.maxDelay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return {@code true} if messages are written as soon as they are sent.
+	 */
+	public boolean isImmediate()
+	{
+		return this.maxDelay == 0 || this.flushSize == 0;
+	}
+
+	/**
+	 * @param waiting
+	 *            The amount of bytes that are waiting to be written.
+	 * @return {@code true} if the waiting bytes must be written right away.
+	 */
+	boolean isDue(final long waiting)
+	{
+		return this.isImmediate() || waiting >= this.flushSize;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FlushPolicy[flushSize=" + this.flushSize + ", maxDelay=" + this.maxDelay + "ns]";
+	}
+}
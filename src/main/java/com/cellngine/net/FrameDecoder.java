@@ -0,0 +1,278 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.crypto.StreamCipher;
+
+/**
+ * Decodes the length-prefixed frames produced by a {@link com.cellngine.net.FrameEncoder
+ * FrameEncoder}.<br />
+ * <br />
+ *
+ * Data may be fed to the decoder in chunks of any size, e.g. whatever a single read from a socket
+ * returned. Complete frames can then be taken out with {@link #next()}; partial frames stay
+ * buffered until the rest of their data arrives. A single read may therefore yield many frames.<br />
+ * <br />
+ *
+ * If a {@link com.cellngine.crypto.StreamCipher StreamCipher} has been set the data is decrypted in
+ * place, but only once the frame it belongs to is taken out. The cipher can therefore be changed
+ * between two frames (e.g. after a handshake) even if later frames have already been fed.<br />
+ * <br />
+ *
+ * This class is not thread-safe.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class FrameDecoder
+{
+	private final int		maxFrameSize;
+	private byte[]			buffer;
+	private int				start			= 0;
+	private int				end				= 0;
+
+	// the offset up to which the buffered data has been decrypted
+	private int				decrypted		= 0;
+	private StreamCipher	streamCipher	= null;
+
+	public FrameDecoder()
+	{
+		this(FrameEncoder.DEFAULT_MAX_FRAME_SIZE);
+	}
+
+	/**
+	 * @param maxFrameSize
+	 *            The maximum size of a single message in bytes. Larger frames are rejected before
+	 *            any memory is allocated for them.
+	 */
+	public FrameDecoder(final int maxFrameSize)
+	{
+		if (maxFrameSize < 0) { throw new IllegalArgumentException("Invalid maximum frame size: " + maxFrameSize); }
+
+		this.maxFrameSize = maxFrameSize;
+		this.buffer = new byte[(int) Math.min(8192, (long) maxFrameSize + FrameEncoder.HEADER_SIZE)];
+	}
+
+	/**
+	 * @param streamCipher
+	 *            The {@link com.cellngine.crypto.StreamCipher StreamCipher} used to decrypt all
+	 *            frames that have not been taken out yet, or {@code null} for no decryption.
+	 */
+	public void setStreamCipher(final StreamCipher streamCipher)
+	{
+		this.streamCipher = streamCipher;
+	}
+
+	/**
+	 * Adds data to the decoder.
+	 *
+	 * @param b
+	 *            An array containing the data.
+	 * @param off
+	 *            The offset of the data within the array.
+	 * @param len
+	 *            The amount of bytes to add.
+	 */
+	public void feed(final byte[] b, final int off, final int len)
+	{
+		if (off < 0 || len < 0 || len > b.length - off) { throw new IndexOutOfBoundsException(); }
+
+		this.ensureSpace(len);
+
+		System.arraycopy(b, off, this.buffer, this.end, len);
+		this.end = this.end + len;
+	}
+
+	/**
+	 * Adds all remaining data of the given {@link java.nio.ByteBuffer ByteBuffer} to the decoder.
+	 *
+	 * @param src
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to take the data from.
+	 */
+	public void feed(final ByteBuffer src)
+	{
+		final int len = src.remaining();
+
+		this.ensureSpace(len);
+
+		src.get(this.buffer, this.end, len);
+		this.end = this.end + len;
+	}
+
+	/**
+	 * Performs a single read on the given {@link java.io.InputStream InputStream}, adding whatever it
+	 * returns to the decoder. This blocks only as long as the {@link java.io.InputStream
+	 * InputStream} does for a single read.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read from.
+	 * @return The amount of bytes read, or {@code -1} if the end of the stream has been reached.
+	 * @throws IOException
+	 *             If an error occurred while reading.
+	 */
+	public int readFrom(final InputStream in) throws IOException
+	{
+		//Make sure that at least the remainder of the current frame fits into the buffer.
+		final int pending = this.pendingFrameLength();
+		this.ensureSpace(Math.max(1, pending - (this.end - this.start)));
+
+		final int i = in.read(this.buffer, this.end, this.buffer.length - this.end);
+
+		if (i > 0)
+		{
+			this.end = this.end + i;
+		}
+
+		return i;
+	}
+
+	/**
+	 * Reads from the given {@link java.io.InputStream InputStream} until a complete frame is
+	 * available.
+	 *
+	 * @param in
+	 *            The {@link java.io.InputStream InputStream} to read from.
+	 * @return The next message, or {@code null} if the end of the stream has been reached between
+	 *         two frames.
+	 * @throws EOFException
+	 *             If the end of the stream has been reached within a frame.
+	 * @throws IOException
+	 *             If an error occurred while reading, or if a frame exceeds the maximum frame size.
+	 */
+	public byte[] read(final InputStream in) throws IOException
+	{
+		byte[] message;
+
+		while ((message = this.next()) == null)
+		{
+			if (this.readFrom(in) == -1)
+			{
+				if (this.buffered() == 0) { return null; }
+
+				throw new EOFException("End of stream reached within a frame.");
+			}
+		}
+
+		return message;
+	}
+
+	/**
+	 * Takes the next complete message out of the decoder.
+	 *
+	 * @return The next message, or {@code null} if no complete frame has been buffered yet.
+	 * @throws IOException
+	 *             If the frame exceeds the maximum frame size.
+	 */
+	public byte[] next() throws IOException
+	{
+		final int length = this.pendingFrameLength();
+
+		if (length < 0 || this.end - this.start < length) { return null; }
+
+		this.decrypt(this.start + length);
+
+		final byte[] message = Arrays.copyOfRange(this.buffer, this.start + FrameEncoder.HEADER_SIZE, this.start
+				+ length);
+
+		this.start = this.start + length;
+
+		if (this.start == this.end)
+		{
+			this.start = 0;
+			this.end = 0;
+			this.decrypted = 0;
+		}
+
+		return message;
+	}
+
+	/**
+	 * @return The amount of bytes that have been fed to the decoder but not yet taken out as part of
+	 *         a message.
+	 */
+	public int buffered()
+	{
+		return this.end - this.start;
+	}
+
+	/**
+	 * @return The total length (including the prefix) of the frame at the start of the buffer, or
+	 *         {@code -1} if its prefix has not been buffered completely.
+	 */
+	private int pendingFrameLength() throws IOException
+	{
+		if (this.end - this.start < FrameEncoder.HEADER_SIZE) { return -1; }
+
+		this.decrypt(this.start + FrameEncoder.HEADER_SIZE);
+
+		final int length = ByteOperations.getInt(this.buffer, this.start);
+
+		if (length < 0 || length > this.maxFrameSize) { throw new IOException("Frame of " + (length & 0xffffffffL)
+				+ " bytes exceeds the maximum frame size of " + this.maxFrameSize + " bytes."); }
+
+		return length + FrameEncoder.HEADER_SIZE;
+	}
+
+	/**
+	 * Decrypts the buffered data up to (but not including) the given offset.
+	 */
+	private void decrypt(final int offset)
+	{
+		if (offset > this.decrypted)
+		{
+			if (this.streamCipher != null)
+			{
+				this.streamCipher.decrypt(this.buffer, this.decrypted, offset - this.decrypted);
+			}
+
+			this.decrypted = offset;
+		}
+	}
+
+	private void ensureSpace(final int len)
+	{
+		if (this.buffer.length - this.end >= len) { return; }
+
+		final int buffered = this.end - this.start;
+
+		if (this.buffer.length - buffered >= len && this.start > 0)
+		{
+			System.arraycopy(this.buffer, this.start, this.buffer, 0, buffered);
+		}
+		else
+		{
+			final long required = (long) buffered + len;
+
+			if (required > Integer.MAX_VALUE - 8) { throw new IllegalStateException("Buffer too large."); }
+
+			final byte[] buffer = new byte[(int) Math.max(required, Math.min((long) this.buffer.length * 2,
+					Integer.MAX_VALUE - 8))];
+			System.arraycopy(this.buffer, this.start, buffer, 0, buffered);
+			this.buffer = buffer;
+		}
+
+		this.decrypted = this.decrypted - this.start;
+		this.start = 0;
+		this.end = buffered;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.cellngine.ByteOperations;
+
+/**
+ * Encodes messages into length-prefixed frames and collects them in a single buffer, so that a
+ * batch of messages can be passed to the underlying {@link java.io.OutputStream OutputStream} (e.g.
+ * a {@link com.cellngine.io.StreamCipherOutputStream StreamCipherOutputStream}) with one call.<br />
+ * <br />
+ *
+ * A frame consists of the length of the message (4 byte integer) followed by the message itself,
+ * which is the same format that {@link com.cellngine.ByteOperations#toBytes(byte[])} produces.<br />
+ * <br />
+ *
+ * This class is not thread-safe.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class FrameEncoder
+{
+	/**
+	 * The default maximum size of a single message (16 MB).
+	 */
+	public static final int	DEFAULT_MAX_FRAME_SIZE	= 16 * 1024 * 1024;
+
+	/**
+	 * The size of the length prefix in front of every message.
+	 */
+	public static final int	HEADER_SIZE				= 4;
+
+	private final int		maxFrameSize;
+	private byte[]			buffer;
+	private int				size					= 0;
+	private int				frames					= 0;
+
+	public FrameEncoder()
+	{
+		this(DEFAULT_MAX_FRAME_SIZE);
+	}
+
+	/**
+	 * @param maxFrameSize
+	 *            The maximum size of a single message in bytes.
+	 */
+	public FrameEncoder(final int maxFrameSize)
+	{
+		this(maxFrameSize, 4096);
+	}
+
+	/**
+	 * @param maxFrameSize
+	 *            The maximum size of a single message in bytes.
+	 * @param initialCapacity
+	 *            The initial capacity of the buffer in bytes.
+	 */
+	public FrameEncoder(final int maxFrameSize, final int initialCapacity)
+	{
+		if (maxFrameSize < 0) { throw new IllegalArgumentException("Invalid maximum frame size: " + maxFrameSize); }
+
+		this.maxFrameSize = maxFrameSize;
+		this.buffer = new byte[Math.max(initialCapacity, HEADER_SIZE)];
+	}
+
+	/**
+	 * Appends a message to the batch.
+	 *
+	 * @param message
+	 *            The message to append.
+	 * @return This encoder.
+	 * @throws IllegalArgumentException
+	 *             If the message is larger than the maximum frame size.
+	 */
+	public FrameEncoder add(final byte[] message)
+	{
+		return this.add(message, 0, message.length);
+	}
+
+	/**
+	 * Appends a message to the batch.
+	 *
+	 * @param message
+	 *            An array containing the message to append.
+	 * @param offset
+	 *            The offset of the message within the array.
+	 * @param length
+	 *            The length of the message.
+	 * @return This encoder.
+	 * @throws IllegalArgumentException
+	 *             If the message is larger than the maximum frame size.
+	 */
+	public FrameEncoder add(final byte[] message, final int offset, final int length)
+	{
+		if (offset < 0 || length < 0 || length > message.length - offset) { throw new IndexOutOfBoundsException(); }
+		if (length > this.maxFrameSize) { throw new IllegalArgumentException("Message of " + length
+				+ " bytes exceeds the maximum frame size of " + this.maxFrameSize + " bytes."); }
+
+		this.ensureCapacity((long) HEADER_SIZE + length);
+
+		ByteOperations.putInt(this.buffer, this.size, length);
+
+		System.arraycopy(message, offset, this.buffer, this.size + HEADER_SIZE, length);
+
+		this.size = this.size + HEADER_SIZE + length;
+		this.frames++;
+
+		return this;
+	}
+
+	private void ensureCapacity(final long additional)
+	{
+		final long required = (long) this.size + additional;
+
+		if (required > Integer.MAX_VALUE - 8) { throw new IllegalStateException("Batch too large."); }
+
+		if (required > this.buffer.length)
+		{
+			this.buffer = Arrays.copyOf(this.buffer, (int) Math.max(required, Math.min(
+					(long) this.buffer.length * 2, Integer.MAX_VALUE - 8)));
+		}
+	}
+
+	/**
+	 * @return The amount of bytes in the current batch, including the length prefixes.
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return The amount of messages in the current batch.
+	 */
+	public int getFrameCount()
+	{
+		return this.frames;
+	}
+
+	/**
+	 * Writes the current batch to the given {@link java.io.OutputStream OutputStream} with a single
+	 * call and starts a new batch. The {@link java.io.OutputStream OutputStream} is not flushed.
+	 *
+	 * @param out
+	 *            The {@link java.io.OutputStream OutputStream} to write to.
+	 * @throws IOException
+	 *             If an error occurred while writing.
+	 */
+	public void writeTo(final OutputStream out) throws IOException
+	{
+		if (this.size > 0)
+		{
+			out.write(this.buffer, 0, this.size);
+		}
+
+		this.reset();
+	}
+
+	/**
+	 * @return A copy of the current batch.
+	 */
+	public byte[] toByteArray()
+	{
+		return Arrays.copyOf(this.buffer, this.size);
+	}
+
+	/**
+	 * @return A {@link java.nio.ByteBuffer ByteBuffer} wrapping the current batch. The contents of
+	 *         the {@link java.nio.ByteBuffer ByteBuffer} are only valid until the next call to this
+	 *         encoder.
+	 */
+	public ByteBuffer toByteBuffer()
+	{
+		return ByteBuffer.wrap(this.buffer, 0, this.size);
+	}
+
+	/**
+	 * Discards the current batch.
+	 */
+	public void reset()
+	{
+		this.size = 0;
+		this.frames = 0;
+	}
+
+	/**
+	 * Encodes a collection of messages into a single byte array.
+	 *
+	 * @param messages
+	 *            The messages to encode.
+	 * @param maxFrameSize
+	 *            The maximum size of a single message in bytes.
+	 * @return The frames of all messages in order.
+	 * @throws IllegalArgumentException
+	 *             If a message is larger than the maximum frame size.
+	 * @throws IllegalStateException
+	 *             If the frames together don't fit in a single array.
+	 */
+	public static byte[] encode(final Collection<byte[]> messages, final int maxFrameSize)
+	{
+		long capacity = 0;
+
+		for (final byte[] message : messages)
+		{
+			capacity = capacity + HEADER_SIZE + message.length;
+		}
+
+		if (capacity > Integer.MAX_VALUE - 8) { throw new IllegalStateException("Batch too large."); }
+
+		final FrameEncoder encoder = new FrameEncoder(maxFrameSize, (int) capacity);
+
+		for (final byte[] message : messages)
+		{
+			encoder.add(message);
+		}
+
+		return encoder.buffer.length == encoder.size ? encoder.buffer : encoder.toByteArray();
+	}
+}
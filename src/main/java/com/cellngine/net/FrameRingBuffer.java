@@ -0,0 +1,292 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free ring buffer of preallocated {@link com.cellngine.net.FrameSlot FrameSlot}s that hands
+ * messages from any amount of producing threads (e.g. game logic) to a single consuming thread
+ * (e.g. the network writer).<br />
+ * <br />
+ *
+ * A producer {@link #claim() claims} a slot, writes its message directly into the slot and
+ * {@link #publish(FrameSlot) publishes} it. The consumer {@link #drain(Handler) drains} all
+ * published slots in order, after which they are reused. Neither side allocates or locks anything
+ * per message. Slots are claimed by advancing a shared sequence counter with a compare-and-set,
+ * and an availability array tells the consumer which of the claimed slots have been published
+ * already, since producers may finish out of order. The sequence counters are padded so that
+ * producers and the consumer do not invalidate each other's cache lines.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class FrameRingBuffer
+{
+	/**
+	 * Processes the messages taken from a {@link com.cellngine.net.FrameRingBuffer FrameRingBuffer}.
+	 */
+	public interface Handler
+	{
+		/**
+		 * Called for every published slot in order. The slot must not be used after this method
+		 * returns.
+		 *
+		 * @param slot
+		 *            The slot holding the message.
+		 */
+		void handle(FrameSlot slot) throws IOException;
+	}
+
+	/*
+	 * Padding in front of and behind the value of a sequence, so that it occupies a cache line
+	 * of its own.
+	 */
+	static class LeftPadding
+	{
+		protected long	p1, p2, p3, p4, p5, p6, p7;
+	}
+
+	static class SequenceValue extends LeftPadding
+	{
+		protected volatile long	value;
+	}
+
+	static final class Sequence extends SequenceValue
+	{
+		private static final AtomicLongFieldUpdater<SequenceValue>	UPDATER	= AtomicLongFieldUpdater.newUpdater(
+																					SequenceValue.class, "value");
+
+		protected long												p9, p10, p11, p12, p13, p14, p15;
+
+		Sequence(final long value)
+		{
+			this.value = value;
+		}
+
+		long get()
+		{
+			return this.value;
+		}
+
+		void set(final long value)
+		{
+			this.value = value;
+		}
+
+		void setOrdered(final long value)
+		{
+			UPDATER.lazySet(this, value);
+		}
+
+		boolean compareAndSet(final long expected, final long value)
+		{
+			return UPDATER.compareAndSet(this, expected, value);
+		}
+	}
+
+	private final FrameSlot[]			slots;
+	private final int					mask;
+	private final int					shift;
+	// the round in which each slot has been published last
+	private final AtomicIntegerArray	available;
+
+	// the last sequence that has been claimed by a producer
+	private final Sequence				cursor		= new Sequence(-1);
+	// the last sequence that has been handled by the consumer
+	private final Sequence				consumed	= new Sequence(-1);
+	// a recent value of consumed, so producers do not need to read it on every claim
+	private final Sequence				gatingCache	= new Sequence(-1);
+
+	/**
+	 * @param capacity
+	 *            The amount of slots, must be a power of two.
+	 * @param slotSize
+	 *            The maximum size of a single message in bytes.
+	 */
+	public FrameRingBuffer(final int capacity, final int slotSize)
+	{
+		if (capacity < 1 || Integer.bitCount(capacity) != 1) { throw new IllegalArgumentException(
+				"Capacity must be a power of two: " + capacity); }
+
+		if (slotSize < 0) { throw new IllegalArgumentException("Invalid slot size: " + slotSize); }
+
+		this.slots = new FrameSlot[capacity];
+		this.mask = capacity - 1;
+		this.shift = Integer.numberOfTrailingZeros(capacity);
+		this.available = new AtomicIntegerArray(capacity);
+
+		for (int i = 0; i < capacity; i++)
+		{
+			this.slots[i] = new FrameSlot(slotSize);
+			this.available.set(i, -1);
+		}
+	}
+
+	/**
+	 * @return The amount of slots.
+	 */
+	public int getCapacity()
+	{
+		return this.slots.length;
+	}
+
+	/**
+	 * Claims the next slot, waiting for the consumer to free one if the buffer is full.
+	 *
+	 * @return An empty slot, which must be passed to {@link #publish(FrameSlot)} once the message
+	 *         has been written.
+	 */
+	public FrameSlot claim()
+	{
+		int idle = 0;
+		FrameSlot slot;
+
+		while ((slot = this.tryClaim()) == null)
+		{
+			//Spin briefly, then back off so that the consumer gets to run.
+			if (++idle < 100)
+			{
+				Thread.yield();
+			}
+			else
+			{
+				LockSupport.parkNanos(1000);
+			}
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Claims the next slot if one is free.
+	 *
+	 * @return An empty slot, which must be passed to {@link #publish(FrameSlot)} once the message
+	 *         has been written, or {@code null} if the buffer is full.
+	 */
+	public FrameSlot tryClaim()
+	{
+		long current;
+		long next;
+
+		do
+		{
+			current = this.cursor.get();
+			next = current + 1;
+
+			final long wrapPoint = next - this.slots.length;
+
+			if (wrapPoint > this.gatingCache.get())
+			{
+				final long gating = this.consumed.get();
+
+				if (wrapPoint > gating) { return null; }
+
+				this.gatingCache.set(gating);
+			}
+		}
+		while (!this.cursor.compareAndSet(current, next));
+
+		final FrameSlot slot = this.slots[(int) next & this.mask];
+		slot.reset(next);
+		return slot;
+	}
+
+	/**
+	 * Makes a claimed slot available to the consumer.
+	 *
+	 * @param slot
+	 *            A slot returned by {@link #claim()} or {@link #tryClaim()}.
+	 */
+	public void publish(final FrameSlot slot)
+	{
+		final long sequence = slot.sequence;
+		this.available.lazySet((int) sequence & this.mask, (int) (sequence >>> this.shift));
+	}
+
+	private boolean isAvailable(final long sequence)
+	{
+		return this.available.get((int) sequence & this.mask) == (int) (sequence >>> this.shift);
+	}
+
+	/**
+	 * Passes every slot that has been published so far to the handler, in the order in which they
+	 * have been claimed, and frees them afterwards. Must only be called by one thread at a time.
+	 *
+	 * @param handler
+	 *            The {@link Handler} to pass the slots to.
+	 * @return The amount of slots handled.
+	 * @throws IOException
+	 *             If the handler failed. The slot it failed on and all later slots stay in the
+	 *             buffer.
+	 */
+	public int drain(final Handler handler) throws IOException
+	{
+		final long first = this.consumed.get() + 1;
+		final long last = this.cursor.get();
+		long sequence = first;
+
+		try
+		{
+			while (sequence <= last && this.isAvailable(sequence))
+			{
+				handler.handle(this.slots[(int) sequence & this.mask]);
+				sequence++;
+			}
+		}
+		finally
+		{
+			if (sequence > first)
+			{
+				this.consumed.setOrdered(sequence - 1);
+			}
+		}
+
+		return (int) (sequence - first);
+	}
+
+	/**
+	 * Sends every slot that has been published so far on the given connection.
+	 *
+	 * @param connection
+	 *            The {@link com.cellngine.net.Connection Connection} to send the messages on.
+	 * @return The amount of messages sent.
+	 * @throws IOException
+	 *             If the connection has been closed.
+	 */
+	public int drainTo(final Connection connection) throws IOException
+	{
+		return this.drain(new Handler()
+		{
+			@Override
+			public void handle(final FrameSlot slot) throws IOException
+			{
+				connection.send(slot.array(), 0, slot.length());
+			}
+		});
+	}
+
+	/**
+	 * @return The amount of slots that have been claimed but not yet handled by the consumer.
+	 */
+	public int size()
+	{
+		return (int) (this.cursor.get() - this.consumed.get());
+	}
+}
@@ -0,0 +1,201 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.StringCodec;
+
+/**
+ * A reusable, preallocated slot of a {@link com.cellngine.net.FrameRingBuffer FrameRingBuffer} that
+ * holds a single message. Messages are written into the slot with the put methods, which produce
+ * the same encoding as the corresponding {@link com.cellngine.ByteOperations#toBytes(int)
+ * ByteOperations.toBytes} methods, without allocating anything.<br />
+ * <br />
+ *
+ * A slot must only be used by the thread that claimed it, up to the call of
+ * {@link com.cellngine.net.FrameRingBuffer#publish(FrameSlot)}.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public final class FrameSlot
+{
+	private final byte[]	data;
+	private int				length	= 0;
+	long					sequence;
+
+	FrameSlot(final int capacity)
+	{
+		this.data = new byte[capacity];
+	}
+
+	/**
+	 * Discards the contents of this slot.
+	 */
+	void reset(final long sequence)
+	{
+		this.sequence = sequence;
+		this.length = 0;
+	}
+
+	private int reserve(final int bytes)
+	{
+		final int position = this.length;
+
+		if (bytes > this.data.length - position) { throw new BufferOverflowException(); }
+
+		this.length = position + bytes;
+		return position;
+	}
+
+	/**
+	 * @param input
+	 *            The value to append.
+	 * @return This slot.
+	 * @throws BufferOverflowException
+	 *             If the slot is full.
+	 */
+	public FrameSlot putByte(final byte input)
+	{
+		this.data[this.reserve(1)] = input;
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The value to append.
+	 * @return This slot.
+	 * @throws BufferOverflowException
+	 *             If the slot is full.
+	 */
+	public FrameSlot putInt(final int input)
+	{
+		ByteOperations.putInt(this.data, this.reserve(4), input);
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The value to append.
+	 * @return This slot.
+	 * @throws BufferOverflowException
+	 *             If the slot is full.
+	 */
+	public FrameSlot putLong(final long input)
+	{
+		ByteOperations.putLong(this.data, this.reserve(8), input);
+		return this;
+	}
+
+	/**
+	 * Appends the bytes as they are, without a length.
+	 *
+	 * @param input
+	 *            An array containing the bytes to append.
+	 * @param offset
+	 *            The offset of the bytes within the array.
+	 * @param length
+	 *            The amount of bytes to append.
+	 * @return This slot.
+	 * @throws BufferOverflowException
+	 *             If the slot is full.
+	 */
+	public FrameSlot putRaw(final byte[] input, final int offset, final int length)
+	{
+		System.arraycopy(input, offset, this.data, this.reserve(length), length);
+		return this;
+	}
+
+	/**
+	 * Appends the length of the array followed by its contents.
+	 *
+	 * @param input
+	 *            The array to append.
+	 * @return This slot.
+	 * @throws BufferOverflowException
+	 *             If the slot is full.
+	 */
+	public FrameSlot putBytes(final byte[] input)
+	{
+		this.putInt(input.length);
+		return this.putRaw(input, 0, input.length);
+	}
+
+	/**
+	 * Appends the length of the UTF-8 representation of the {@link java.lang.String String} followed
+	 * by the representation itself.
+	 *
+	 * @param input
+	 *            The {@link java.lang.String String} to append.
+	 * @return This slot.
+	 * @throws BufferOverflowException
+	 *             If the slot is full.
+	 */
+	public FrameSlot putString(final String input)
+	{
+		final int start = this.reserve(4);
+
+		//Only count the bytes exactly when the worst case of three bytes per char might not fit.
+		final int length = (this.data.length - this.length) / 3 >= input.length() ? input.length() * 3 : StringCodec
+				.getEncodedLength(input);
+
+		this.reserve(length);
+		this.length = start + 4 + StringCodec.encode(input, this.data, start + 4);
+		ByteOperations.putInt(this.data, start, this.length - start - 4);
+
+		return this;
+	}
+
+	/**
+	 * @param input
+	 *            The value to append, in the format of
+	 *            {@link com.cellngine.ByteOperations#toBytes(BigDecimal)}.
+	 * @return This slot.
+	 * @throws BufferOverflowException
+	 *             If the slot is full.
+	 */
+	public FrameSlot putBigDecimal(final BigDecimal input)
+	{
+		return this.putString(input.toString());
+	}
+
+	/**
+	 * @return The array holding the message, which starts at index {@code 0}.
+	 */
+	public byte[] array()
+	{
+		return this.data;
+	}
+
+	/**
+	 * @return The length of the message.
+	 */
+	public int length()
+	{
+		return this.length;
+	}
+
+	/**
+	 * @return The maximum length of a message.
+	 */
+	public int capacity()
+	{
+		return this.data.length;
+	}
+}
@@ -0,0 +1,154 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses messages before they are framed and encrypted, keeping the compression context
+ * across messages (like permessage-deflate with context takeover). Messages that resemble earlier
+ * ones, e.g. repeated state updates, therefore compress far better than they would on their
+ * own.<br />
+ * <br />
+ *
+ * Every compressed message starts with a flag byte: {@link #STORED} for messages shorter than the
+ * threshold, which are passed on as they are, or {@link #DEFLATED} for raw deflate data that ends
+ * with a sync flush. The four bytes {@code 00 00 FF FF} that end every sync flush are left out
+ * and restored by the {@link com.cellngine.net.MessageInflater MessageInflater}, which must be
+ * created with the same dictionary.<br />
+ * <br />
+ *
+ * This class is not thread-safe, and messages must be decompressed in the order in which they
+ * have been compressed.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class MessageDeflater
+{
+	/**
+	 * Flag of a message that has been passed on uncompressed.
+	 */
+	public static final byte	STORED				= 0x00;
+
+	/**
+	 * Flag of a message that has been compressed.
+	 */
+	public static final byte	DEFLATED			= 0x01;
+
+	/**
+	 * The default size below which messages are not compressed.
+	 */
+	public static final int		DEFAULT_THRESHOLD	= 64;
+
+	// the end of every sync flush
+	static final byte[]			SYNC_TAIL			= { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+
+	private final Deflater		deflater;
+	private final int			threshold;
+	private byte[]				buffer				= new byte[256];
+
+	public MessageDeflater()
+	{
+		this(Deflater.DEFAULT_COMPRESSION, DEFAULT_THRESHOLD, null);
+	}
+
+	/**
+	 * @param level
+	 *            The compression level, see {@link java.util.zip.Deflater#setLevel(int)}.
+	 * @param threshold
+	 *            The size in bytes below which messages are not compressed.
+	 * @param dictionary
+	 *            A preset dictionary containing data that is typical for the messages, or
+	 *            {@code null} for none.
+	 */
+	public MessageDeflater(final int level, final int threshold, final byte[] dictionary)
+	{
+		if (threshold < 0) { throw new IllegalArgumentException("Invalid threshold: " + threshold); }
+
+		this.deflater = new Deflater(level, true);
+		this.threshold = threshold;
+
+		if (dictionary != null)
+		{
+			this.deflater.setDictionary(dictionary);
+		}
+	}
+
+	/**
+	 * Compresses a message.
+	 *
+	 * @param message
+	 *            An array containing the message.
+	 * @param offset
+	 *            The offset of the message within the array.
+	 * @param length
+	 *            The length of the message.
+	 * @return A {@link java.nio.ByteBuffer ByteBuffer} wrapping the compressed message, including the
+	 *         flag byte. Its contents are only valid until the next call.
+	 */
+	public ByteBuffer compress(final byte[] message, final int offset, final int length)
+	{
+		if (offset < 0 || length < 0 || length > message.length - offset) { throw new IndexOutOfBoundsException(); }
+
+		if (length < this.threshold)
+		{
+			this.ensureCapacity(1 + length);
+			this.buffer[0] = STORED;
+			System.arraycopy(message, offset, this.buffer, 1, length);
+
+			return ByteBuffer.wrap(this.buffer, 0, 1 + length);
+		}
+
+		this.buffer[0] = DEFLATED;
+		this.deflater.setInput(message, offset, length);
+
+		int position = 1;
+
+		while (true)
+		{
+			position += this.deflater.deflate(this.buffer, position, this.buffer.length - position, Deflater.SYNC_FLUSH);
+
+			//A sync flush is complete once the deflater leaves space in the output buffer.
+			if (position < this.buffer.length)
+			{
+				break;
+			}
+
+			this.ensureCapacity(this.buffer.length * 2);
+		}
+
+		return ByteBuffer.wrap(this.buffer, 0, position - SYNC_TAIL.length);
+	}
+
+	private void ensureCapacity(final int capacity)
+	{
+		if (capacity > this.buffer.length)
+		{
+			this.buffer = Arrays.copyOf(this.buffer, Math.max(capacity, this.buffer.length * 2));
+		}
+	}
+
+	/**
+	 * Releases the native resources of the compressor. It must not be used afterwards.
+	 */
+	public void end()
+	{
+		this.deflater.end();
+	}
+}
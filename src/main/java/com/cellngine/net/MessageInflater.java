@@ -0,0 +1,166 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses messages produced by a {@link com.cellngine.net.MessageDeflater MessageDeflater},
+ * keeping the decompression context across messages.<br />
+ * <br />
+ *
+ * This class is not thread-safe.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class MessageInflater
+{
+	private final Inflater	inflater;
+	private final int		maxMessageSize;
+	private byte[]			buffer	= new byte[256];
+
+	public MessageInflater()
+	{
+		this(FrameEncoder.DEFAULT_MAX_FRAME_SIZE, null);
+	}
+
+	/**
+	 * @param maxMessageSize
+	 *            The maximum size of a decompressed message in bytes.
+	 * @param dictionary
+	 *            The preset dictionary the messages have been compressed with, or {@code null} for
+	 *            none.
+	 */
+	public MessageInflater(final int maxMessageSize, final byte[] dictionary)
+	{
+		if (maxMessageSize < 0) { throw new IllegalArgumentException("Invalid maximum message size: " + maxMessageSize); }
+
+		this.inflater = new Inflater(true);
+		this.maxMessageSize = maxMessageSize;
+
+		if (dictionary != null)
+		{
+			this.inflater.setDictionary(dictionary);
+		}
+	}
+
+	/**
+	 * Decompresses a message.
+	 *
+	 * @param message
+	 *            An array containing the compressed message, including the flag byte.
+	 * @param offset
+	 *            The offset of the message within the array.
+	 * @param length
+	 *            The length of the message.
+	 * @return A {@link java.nio.ByteBuffer ByteBuffer} wrapping the decompressed message. Stored
+	 *         messages are not copied. Its contents are only valid until the next call.
+	 * @throws IOException
+	 *             If the message is corrupt or larger than the maximum message size.
+	 */
+	public ByteBuffer decompress(final byte[] message, final int offset, final int length) throws IOException
+	{
+		if (offset < 0 || length < 0 || length > message.length - offset) { throw new IndexOutOfBoundsException(); }
+
+		if (length == 0) { throw new IOException("Missing compression flag"); }
+
+		switch (message[offset])
+		{
+			case MessageDeflater.STORED:
+				return ByteBuffer.wrap(message, offset + 1, length - 1).slice();
+
+			case MessageDeflater.DEFLATED:
+				this.inflater.setInput(message, offset + 1, length - 1);
+				int position = this.inflate(0);
+
+				this.inflater.setInput(MessageDeflater.SYNC_TAIL);
+				position = this.inflate(position);
+
+				return ByteBuffer.wrap(this.buffer, 0, position);
+
+			default:
+				throw new IOException("Unknown compression flag: " + message[offset]);
+		}
+	}
+
+	/**
+	 * Inflates the current input completely.
+	 *
+	 * @return The new position within the buffer.
+	 */
+	private int inflate(int position) throws IOException
+	{
+		try
+		{
+			//The inflater may hold back output when the buffer is full, even if all input has been
+			//consumed.
+			while (!this.inflater.needsInput() || position == this.buffer.length)
+			{
+				if (position == this.buffer.length)
+				{
+					if (position >= this.maxMessageSize)
+					{
+						if (this.inflater.inflate(new byte[1]) == 0)
+						{
+							break;
+						}
+
+						throw new IOException("Decompressed message exceeds the maximum size of " + this.maxMessageSize);
+					}
+
+					this.buffer = Arrays.copyOf(this.buffer, (int) Math.min(this.maxMessageSize, position * 2L));
+				}
+
+				final int n = this.inflater.inflate(this.buffer, position, this.buffer.length - position);
+
+				if (n == 0)
+				{
+					if (this.inflater.needsDictionary() || this.inflater.finished()) { throw new IOException(
+							"Unexpected state of the compressed stream"); }
+
+					if (this.inflater.needsInput())
+					{
+						break;
+					}
+				}
+
+				position += n;
+			}
+		}
+		catch (final DataFormatException e)
+		{
+			throw new IOException(e);
+		}
+
+		if (position > this.maxMessageSize) { throw new IOException("Decompressed message exceeds the maximum size of "
+				+ this.maxMessageSize); }
+
+		return position;
+	}
+
+	/**
+	 * Releases the native resources of the decompressor. It must not be used afterwards.
+	 */
+	public void end()
+	{
+		this.inflater.end();
+	}
+}
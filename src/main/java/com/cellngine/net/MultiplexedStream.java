@@ -0,0 +1,359 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A logical stream of a {@link com.cellngine.net.Multiplexer Multiplexer}. Every stream has its own
+ * {@link java.io.InputStream InputStream} and {@link java.io.OutputStream OutputStream}, its own
+ * flow-control window and a priority.<br />
+ * <br />
+ *
+ * Writing blocks while the remote side has not granted enough credit, i.e. while it has not
+ * consumed the data sent before. Reading blocks until data arrives. A stream is closed once both
+ * sides have closed their output.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class MultiplexedStream
+{
+	private final Multiplexer	multiplexer;
+	private final int			id;
+	private final InputStream	inputStream		= new MultiplexedInputStream();
+	private final OutputStream	outputStream	= new MultiplexedOutputStream();
+
+	// all of the following fields are guarded by the monitor of the multiplexer
+	int							priority;
+
+	// the amount of bytes the remote side is willing to receive
+	int							sendWindow		= Multiplexer.INITIAL_WINDOW_SIZE;
+	// data written by the application that has not been passed to the writer thread yet
+	final byte[]				pending			= new byte[Multiplexer.INITIAL_WINDOW_SIZE];
+	int							pendingLength	= 0;
+	boolean						outputClosed	= false;
+	boolean						closeSent		= false;
+
+	// data received from the remote side that has not been read by the application yet
+	private final byte[]		received		= new byte[Multiplexer.INITIAL_WINDOW_SIZE];
+	private int					receivedStart	= 0;
+	private int					receivedLength	= 0;
+	// the amount of bytes that have been consumed but not yet credited to the remote side
+	private int					consumed		= 0;
+	boolean						inputClosed		= false;
+	boolean						remoteClosed	= false;
+
+	MultiplexedStream(final Multiplexer multiplexer, final int id, final int priority)
+	{
+		this.multiplexer = multiplexer;
+		this.id = id;
+		this.priority = priority;
+	}
+
+	/**
+	 * @return The identifier of this stream, which is the same on both sides.
+	 */
+	public int getId()
+	{
+		return this.id;
+	}
+
+	/**
+	 * @return The stream the data sent by the remote side can be read from.
+	 */
+	public InputStream getInputStream()
+	{
+		return this.inputStream;
+	}
+
+	/**
+	 * @return The stream to write data to the remote side to.
+	 */
+	public OutputStream getOutputStream()
+	{
+		return this.outputStream;
+	}
+
+	/**
+	 * Sets the priority of the data written to this stream. As long as streams with a higher priority
+	 * have data waiting, streams with a lower priority do not get to send. Streams with the same
+	 * priority take turns.
+	 *
+	 * @param priority
+	 *            The new priority, see {@link com.cellngine.net.Multiplexer#DEFAULT_PRIORITY}.
+	 */
+	public void setPriority(final int priority)
+	{
+		synchronized (this.multiplexer)
+		{
+			this.priority = priority;
+		}
+	}
+
+	public int getPriority()
+	{
+		synchronized (this.multiplexer)
+		{
+			return this.priority;
+		}
+	}
+
+	/**
+	 * Closes both the input and the output of this stream.
+	 */
+	public void close()
+	{
+		synchronized (this.multiplexer)
+		{
+			this.closeInput();
+			this.closeOutput();
+		}
+	}
+
+	/**
+	 * @return {@code true} if data has been written that the remote side has not received yet.
+	 */
+	boolean hasPendingData()
+	{
+		return this.pendingLength > 0 && this.sendWindow > 0;
+	}
+
+	/**
+	 * Removes the next chunk of pending data and charges it to the send window.
+	 *
+	 * @return The size of the chunk.
+	 */
+	int takeChunk(final byte[] buffer, final int offset, final int maxLength)
+	{
+		final int n = Math.min(Math.min(this.pendingLength, this.sendWindow), maxLength);
+
+		System.arraycopy(this.pending, 0, buffer, offset, n);
+		System.arraycopy(this.pending, n, this.pending, 0, this.pendingLength - n);
+		this.pendingLength -= n;
+		this.sendWindow -= n;
+
+		this.multiplexer.notifyAll();
+		return n;
+	}
+
+	/**
+	 * Stores data sent by the remote side.
+	 */
+	void receive(final byte[] data, final int length) throws IOException
+	{
+		if (this.inputClosed)
+		{
+			//Nobody is going to read it, hand the credit straight back.
+			this.credit(length);
+			return;
+		}
+
+		if (this.receivedLength + length > this.received.length) { throw new IOException("Flow control window of stream "
+				+ this.id + " exceeded"); }
+
+		if (this.receivedStart + this.receivedLength + length > this.received.length)
+		{
+			System.arraycopy(this.received, this.receivedStart, this.received, 0, this.receivedLength);
+			this.receivedStart = 0;
+		}
+
+		System.arraycopy(data, 0, this.received, this.receivedStart + this.receivedLength, length);
+		this.receivedLength += length;
+
+		this.multiplexer.notifyAll();
+	}
+
+	/**
+	 * Grants the remote side credit for bytes that have been consumed, in batches of half a window
+	 * so that the remote side never runs dry while the application keeps reading.
+	 */
+	private void credit(final int length)
+	{
+		this.consumed += length;
+
+		if (this.consumed >= Multiplexer.INITIAL_WINDOW_SIZE / 2 && !this.remoteClosed)
+		{
+			this.multiplexer.sendWindowUpdate(this.id, this.consumed);
+			this.consumed = 0;
+		}
+	}
+
+	private void closeInput()
+	{
+		if (this.inputClosed) { return; }
+
+		this.inputClosed = true;
+		this.credit(this.receivedLength);
+		this.receivedLength = 0;
+		this.multiplexer.notifyAll();
+	}
+
+	private void closeOutput()
+	{
+		if (this.outputClosed) { return; }
+
+		this.outputClosed = true;
+		this.multiplexer.notifyAll();
+	}
+
+	private class MultiplexedInputStream extends InputStream
+	{
+		@Override
+		public int read() throws IOException
+		{
+			final byte[] b = new byte[1];
+			return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			if (off < 0 || len < 0 || len > b.length - off) { throw new IndexOutOfBoundsException(); }
+
+			if (len == 0) { return 0; }
+
+			final MultiplexedStream stream = MultiplexedStream.this;
+
+			synchronized (stream.multiplexer)
+			{
+				while (stream.receivedLength == 0)
+				{
+					if (stream.inputClosed) { throw new IOException("Stream closed"); }
+
+					if (stream.remoteClosed) { return -1; }
+
+					stream.multiplexer.ensureOpen();
+					waitFor(stream.multiplexer);
+				}
+
+				final int n = Math.min(len, stream.receivedLength);
+				System.arraycopy(stream.received, stream.receivedStart, b, off, n);
+				stream.receivedStart += n;
+				stream.receivedLength -= n;
+				stream.credit(n);
+
+				return n;
+			}
+		}
+
+		@Override
+		public int available()
+		{
+			synchronized (MultiplexedStream.this.multiplexer)
+			{
+				return MultiplexedStream.this.receivedLength;
+			}
+		}
+
+		@Override
+		public void close()
+		{
+			synchronized (MultiplexedStream.this.multiplexer)
+			{
+				MultiplexedStream.this.closeInput();
+			}
+		}
+	}
+
+	private class MultiplexedOutputStream extends OutputStream
+	{
+		@Override
+		public void write(final int b) throws IOException
+		{
+			this.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException
+		{
+			if (off < 0 || len < 0 || len > b.length - off) { throw new IndexOutOfBoundsException(); }
+
+			final MultiplexedStream stream = MultiplexedStream.this;
+
+			synchronized (stream.multiplexer)
+			{
+				while (len > 0)
+				{
+					if (stream.outputClosed) { throw new IOException("Stream closed"); }
+
+					stream.multiplexer.ensureOpen();
+
+					//Never queue more than the remote side is willing to receive.
+					final int free = Math.min(stream.sendWindow, stream.pending.length) - stream.pendingLength;
+
+					if (free <= 0)
+					{
+						waitFor(stream.multiplexer);
+						continue;
+					}
+
+					final int n = Math.min(free, len);
+					System.arraycopy(b, off, stream.pending, stream.pendingLength, n);
+					stream.pendingLength += n;
+					off += n;
+					len -= n;
+
+					stream.multiplexer.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Blocks until everything written so far has been taken over by the writer thread of the
+		 * multiplexer, which flushes the underlying stream once it runs out of work.
+		 */
+		@Override
+		public void flush() throws IOException
+		{
+			final MultiplexedStream stream = MultiplexedStream.this;
+
+			synchronized (stream.multiplexer)
+			{
+				while (stream.pendingLength > 0)
+				{
+					stream.multiplexer.ensureOpen();
+					waitFor(stream.multiplexer);
+				}
+			}
+		}
+
+		@Override
+		public void close()
+		{
+			synchronized (MultiplexedStream.this.multiplexer)
+			{
+				MultiplexedStream.this.closeOutput();
+			}
+		}
+	}
+
+	private static void waitFor(final Object monitor) throws InterruptedIOException
+	{
+		try
+		{
+			monitor.wait();
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
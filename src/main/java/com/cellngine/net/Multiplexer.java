@@ -0,0 +1,505 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cellngine.ByteOperations;
+
+/**
+ * Carries many independent {@link com.cellngine.net.MultiplexedStream MultiplexedStream}s over a
+ * single pair of streams, typically a {@link com.cellngine.io.StreamCipherInputStream
+ * StreamCipherInputStream} and a {@link com.cellngine.io.StreamCipherOutputStream
+ * StreamCipherOutputStream} on top of one socket. This way a single connection and a single cipher
+ * handshake are enough for any amount of concurrent transfers.<br />
+ * <br />
+ *
+ * Data is sent in frames of the form {@code [stream id (4 bytes)][type (1 byte)][length (4
+ * bytes)][payload]}. A writer thread sends at most {@link #MAX_CHUNK_SIZE} bytes of a stream at a
+ * time and always picks the stream with the highest priority that has data waiting, so a large
+ * transfer on a low priority stream does not hold up small messages on a high priority one. Every
+ * stream has a flow-control window: the sender may only send as much data as the receiver has
+ * granted, so a stream that is not being read does not stall the others.<br />
+ * <br />
+ *
+ * Both sides may open streams. To avoid clashing identifiers one side must be created as the
+ * initiator and the other one must not.<br />
+ * <br />
+ *
+ * The underlying {@link java.io.OutputStream OutputStream} should be buffered, it is flushed
+ * whenever the writer thread runs out of work.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class Multiplexer implements Closeable
+{
+	/**
+	 * The amount of bytes a stream may send before the receiver has granted more credit.
+	 */
+	public static final int							INITIAL_WINDOW_SIZE	= 65536;
+
+	/**
+	 * The maximum amount of payload in a single data frame.
+	 */
+	public static final int							MAX_CHUNK_SIZE		= 16384;
+
+	public static final int							DEFAULT_PRIORITY	= 0;
+
+	/**
+	 * The size of the header in front of every frame.
+	 */
+	public static final int							HEADER_SIZE			= 9;
+
+	static final byte								TYPE_DATA			= 0x00;
+	static final byte								TYPE_WINDOW_UPDATE	= 0x01;
+	static final byte								TYPE_CLOSE			= 0x02;
+
+	private final InputStream						in;
+	private final OutputStream						out;
+	private final boolean							initiator;
+	private final AtomicInteger						threadCount			= new AtomicInteger(0);
+
+	// all of the following fields are guarded by the monitor of this object
+	private final Map<Integer, MultiplexedStream>	streams				= new HashMap<Integer, MultiplexedStream>();
+	// the open streams in the order in which they get to send
+	private final List<MultiplexedStream>			schedule			= new ArrayList<MultiplexedStream>();
+	private final ArrayDeque<MultiplexedStream>		accepted			= new ArrayDeque<MultiplexedStream>();
+	private final ArrayDeque<byte[]>				control				= new ArrayDeque<byte[]>();
+	private int										nextId;
+	private int										lastRemoteId		= 0;
+	private boolean									closed				= false;
+	private IOException								failure				= null;
+
+	/**
+	 * @param in
+	 *            The stream to read frames from.
+	 * @param out
+	 *            The stream to write frames to.
+	 * @param initiator
+	 *            {@code true} on one side of the connection (e.g. the client) and {@code false} on
+	 *            the other one.
+	 */
+	public Multiplexer(final InputStream in, final OutputStream out, final boolean initiator)
+	{
+		this(in, out, initiator, null);
+	}
+
+	/**
+	 * @param in
+	 *            The stream to read frames from.
+	 * @param out
+	 *            The stream to write frames to.
+	 * @param initiator
+	 *            {@code true} on one side of the connection (e.g. the client) and {@code false} on
+	 *            the other one.
+	 * @param threadFactory
+	 *            The {@link java.util.concurrent.ThreadFactory ThreadFactory} used for the reading
+	 *            and writing threads, or {@code null} to use daemon threads.
+	 */
+	public Multiplexer(final InputStream in, final OutputStream out, final boolean initiator,
+			final ThreadFactory threadFactory)
+	{
+		this.in = in;
+		this.out = out;
+		this.initiator = initiator;
+		this.nextId = initiator ? 1 : 2;
+
+		this.newThread(threadFactory, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Multiplexer.this.readFrames();
+			}
+		}, "reader").start();
+
+		this.newThread(threadFactory, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Multiplexer.this.writeFrames();
+			}
+		}, "writer").start();
+	}
+
+	private Thread newThread(final ThreadFactory threadFactory, final Runnable runnable, final String name)
+	{
+		if (threadFactory != null) { return threadFactory.newThread(runnable); }
+
+		final Thread thread = new Thread(runnable, "Multiplexer " + name + " " + this.threadCount.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Opens a new stream with the {@link #DEFAULT_PRIORITY default priority}.
+	 *
+	 * @return The new stream.
+	 * @throws IOException
+	 *             If the multiplexer has been closed.
+	 */
+	public MultiplexedStream openStream() throws IOException
+	{
+		return this.openStream(DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * Opens a new stream. The remote side learns about it once the first data arrives.
+	 *
+	 * @param priority
+	 *            The priority of the stream, see {@link MultiplexedStream#setPriority(int)}.
+	 * @return The new stream.
+	 * @throws IOException
+	 *             If the multiplexer has been closed.
+	 */
+	public synchronized MultiplexedStream openStream(final int priority) throws IOException
+	{
+		this.ensureOpen();
+
+		final MultiplexedStream stream = new MultiplexedStream(this, this.nextId, priority);
+		this.nextId += 2;
+		this.register(stream);
+
+		return stream;
+	}
+
+	/**
+	 * Waits for the remote side to open a stream.
+	 *
+	 * @return The stream, or {@code null} if the multiplexer has been closed.
+	 * @throws IOException
+	 *             If the connection failed.
+	 */
+	public synchronized MultiplexedStream accept() throws IOException
+	{
+		while (this.accepted.isEmpty())
+		{
+			if (this.closed)
+			{
+				if (this.failure != null) { throw this.failure; }
+
+				return null;
+			}
+
+			try
+			{
+				this.wait();
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+
+		return this.accepted.poll();
+	}
+
+	/**
+	 * @return {@code true} if the multiplexer has not been closed and the connection has not failed.
+	 */
+	public synchronized boolean isOpen()
+	{
+		return !this.closed;
+	}
+
+	/**
+	 * Closes the multiplexer and the underlying streams. Data that has not been sent yet is
+	 * discarded.
+	 */
+	@Override
+	public void close()
+	{
+		this.close(null);
+	}
+
+	private void close(final IOException cause)
+	{
+		synchronized (this)
+		{
+			if (this.closed) { return; }
+
+			this.closed = true;
+			this.failure = cause;
+			this.notifyAll();
+		}
+
+		try
+		{
+			this.out.close();
+		}
+		catch (final IOException e) /* no problem */
+		{
+		}
+
+		try
+		{
+			this.in.close();
+		}
+		catch (final IOException e) /* no problem */
+		{
+		}
+	}
+
+	/**
+	 * Throws an exception if the multiplexer has been closed. The caller must hold the monitor of
+	 * this object.
+	 */
+	void ensureOpen() throws IOException
+	{
+		if (this.closed)
+		{
+			if (this.failure != null) { throw new IOException("Connection failed", this.failure); }
+
+			throw new IOException("Multiplexer closed");
+		}
+	}
+
+	/**
+	 * Queues a window update frame. The caller must hold the monitor of this object.
+	 */
+	void sendWindowUpdate(final int id, final int increment)
+	{
+		final byte[] frame = new byte[HEADER_SIZE + 4];
+		putHeader(frame, id, TYPE_WINDOW_UPDATE, 4);
+		ByteOperations.putInt(frame, HEADER_SIZE, increment);
+
+		this.control.add(frame);
+		this.notifyAll();
+	}
+
+	private void register(final MultiplexedStream stream)
+	{
+		this.streams.put(stream.getId(), stream);
+		this.schedule.add(stream);
+	}
+
+	private void unregisterIfDone(final MultiplexedStream stream)
+	{
+		if (stream.closeSent && stream.remoteClosed)
+		{
+			this.streams.remove(stream.getId());
+			this.schedule.remove(stream);
+		}
+	}
+
+	private static void putHeader(final byte[] frame, final int id, final byte type, final int length)
+	{
+		ByteOperations.putInt(frame, 0, id);
+		frame[4] = type;
+		ByteOperations.putInt(frame, 5, length);
+	}
+
+	/**
+	 * Picks the next frame to send: control frames first, then data of the stream with the highest
+	 * priority, then pending close frames. The caller must hold the monitor of this object.
+	 *
+	 * @return The length of the frame in {@code buffer}, or {@code 0} if there is nothing to send.
+	 */
+	private int nextFrame(final byte[] buffer)
+	{
+		final byte[] frame = this.control.poll();
+
+		if (frame != null)
+		{
+			System.arraycopy(frame, 0, buffer, 0, frame.length);
+			return frame.length;
+		}
+
+		MultiplexedStream next = null;
+
+		for (final MultiplexedStream stream : this.schedule)
+		{
+			if (stream.hasPendingData() && (next == null || stream.priority > next.priority))
+			{
+				next = stream;
+			}
+		}
+
+		if (next != null)
+		{
+			final int n = next.takeChunk(buffer, HEADER_SIZE, MAX_CHUNK_SIZE);
+			putHeader(buffer, next.getId(), TYPE_DATA, n);
+
+			//Let the other streams of the same priority have their turn.
+			this.schedule.remove(next);
+			this.schedule.add(next);
+
+			return HEADER_SIZE + n;
+		}
+
+		for (final MultiplexedStream stream : this.schedule)
+		{
+			if (stream.outputClosed && !stream.closeSent && stream.pendingLength == 0)
+			{
+				stream.closeSent = true;
+				putHeader(buffer, stream.getId(), TYPE_CLOSE, 0);
+				this.unregisterIfDone(stream);
+
+				return HEADER_SIZE;
+			}
+		}
+
+		return 0;
+	}
+
+	private void writeFrames()
+	{
+		final byte[] buffer = new byte[HEADER_SIZE + MAX_CHUNK_SIZE];
+		boolean flushed = true;
+
+		try
+		{
+			while (true)
+			{
+				int length;
+
+				synchronized (this)
+				{
+					while ((length = this.nextFrame(buffer)) == 0 && flushed)
+					{
+						if (this.closed) { return; }
+
+						this.wait();
+					}
+
+					if (this.closed) { return; }
+				}
+
+				if (length == 0)
+				{
+					//Nothing left to do for now, make sure everything reaches the other side.
+					this.out.flush();
+					flushed = true;
+				}
+				else
+				{
+					this.out.write(buffer, 0, length);
+					flushed = false;
+				}
+			}
+		}
+		catch (final IOException e)
+		{
+			this.close(e);
+		}
+		catch (final InterruptedException e)
+		{
+			this.close(null);
+		}
+	}
+
+	private void readFrames()
+	{
+		final DataInputStream in = new DataInputStream(this.in);
+		final byte[] payload = new byte[INITIAL_WINDOW_SIZE];
+
+		try
+		{
+			while (true)
+			{
+				final int first = in.read();
+
+				if (first == -1)
+				{
+					this.close(null);
+					return;
+				}
+
+				final int id = first << 24 | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8)
+						| in.readUnsignedByte();
+				final byte type = in.readByte();
+				final int length = in.readInt();
+
+				if (length < 0 || length > payload.length) { throw new IOException("Invalid frame length: " + length); }
+
+				in.readFully(payload, 0, length);
+
+				synchronized (this)
+				{
+					this.handleFrame(id, type, payload, length);
+				}
+			}
+		}
+		catch (final EOFException e)
+		{
+			this.close(new IOException("Connection closed in the middle of a frame", e));
+		}
+		catch (final IOException e)
+		{
+			this.close(e);
+		}
+	}
+
+	/**
+	 * Processes a frame sent by the remote side. The caller must hold the monitor of this object.
+	 */
+	private void handleFrame(final int id, final byte type, final byte[] payload, final int length)
+			throws IOException
+	{
+		MultiplexedStream stream = this.streams.get(id);
+
+		if (stream == null)
+		{
+			//A stream is opened by its first data or close frame, frames for streams that have been
+			//closed in the meantime are dropped.
+			if (type == TYPE_WINDOW_UPDATE || (id & 1) == (this.initiator ? 1 : 0) || id <= this.lastRemoteId) { return; }
+
+			this.lastRemoteId = id;
+			stream = new MultiplexedStream(this, id, DEFAULT_PRIORITY);
+			this.register(stream);
+			this.accepted.add(stream);
+			this.notifyAll();
+		}
+
+		switch (type)
+		{
+			case TYPE_DATA:
+				stream.receive(payload, length);
+				break;
+
+			case TYPE_WINDOW_UPDATE:
+				if (length != 4) { throw new IOException("Invalid window update on stream " + id); }
+
+				stream.sendWindow += ByteOperations.getInt(payload, 0);
+				this.notifyAll();
+				break;
+
+			case TYPE_CLOSE:
+				stream.remoteClosed = true;
+				this.unregisterIfDone(stream);
+				this.notifyAll();
+				break;
+
+			default:
+				throw new IOException("Unknown frame type " + type + " on stream " + id);
+		}
+	}
+}
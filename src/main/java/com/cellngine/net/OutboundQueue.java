@@ -0,0 +1,301 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import com.cellngine.crypto.StreamCipher;
+
+/**
+ * Collects outbound messages and writes them to a {@link java.nio.channels.GatheringByteChannel
+ * GatheringByteChannel} in as few system calls as possible.<br />
+ * <br />
+ *
+ * Messages passed to {@link #add(byte[], int, int)} are framed (see
+ * {@link com.cellngine.net.FrameEncoder FrameEncoder}) into one contiguous buffer. {@link #drain()}
+ * encrypts everything that has been added since the last call with a single cipher call and moves
+ * it into direct buffers, and {@link #write(GatheringByteChannel)} hands all of those buffers to
+ * the channel in one gathering write. Many small messages, like the ones produced by
+ * {@link com.cellngine.ByteOperations#toBytes}, therefore cost one write instead of one write
+ * each.<br />
+ * <br />
+ *
+ * {@link #add}, {@link #setStreamCipher(StreamCipher)} and the size getters may be called from any
+ * thread. {@link #drain()}, {@link #write(GatheringByteChannel)}, {@link #isWritten()} and
+ * {@link #clear()} must only be called by one thread at a time, the one that is writing.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class OutboundQueue
+{
+	private final Transport					transport;
+	private final FrameEncoder				encoder;
+
+	// encrypted data that is ready to be written, only touched by the writing thread
+	private final ArrayDeque<ByteBuffer>	buffers			= new ArrayDeque<ByteBuffer>();
+	private ByteBuffer[]					gather			= new ByteBuffer[4];
+
+	private StreamCipher					cipher			= null;
+	// the amount of bytes at the start of the encoder that have already been encrypted
+	private int								encrypted		= 0;
+	private long							pendingBytes	= 0;
+
+	public OutboundQueue()
+	{
+		this(FrameEncoder.DEFAULT_MAX_FRAME_SIZE);
+	}
+
+	/**
+	 * @param maxFrameSize
+	 *            The maximum size of a single message in bytes.
+	 */
+	public OutboundQueue(final int maxFrameSize)
+	{
+		this(null, maxFrameSize);
+	}
+
+	/**
+	 * @param transport
+	 *            The {@link com.cellngine.net.Transport Transport} whose buffer pool is used, or
+	 *            {@code null} to allocate buffers as needed.
+	 */
+	OutboundQueue(final Transport transport, final int maxFrameSize)
+	{
+		this.transport = transport;
+		this.encoder = new FrameEncoder(maxFrameSize);
+	}
+
+	/**
+	 * Sets the cipher used for all messages that are added from now on. Messages that have been
+	 * added before are still encrypted with the previous cipher.
+	 *
+	 * @param cipher
+	 *            The {@link com.cellngine.crypto.StreamCipher StreamCipher} to use, or {@code null}
+	 *            for none.
+	 */
+	public synchronized void setStreamCipher(final StreamCipher cipher)
+	{
+		this.encrypt();
+		this.cipher = cipher;
+	}
+
+	/**
+	 * Adds a message to the queue.
+	 *
+	 * @param message
+	 *            An array containing the message.
+	 * @param offset
+	 *            The offset of the message within the array.
+	 * @param length
+	 *            The length of the message.
+	 * @return The amount of bytes waiting to be written afterwards, see {@link #getPendingBytes()}.
+	 * @throws IllegalArgumentException
+	 *             If the message is larger than the maximum frame size.
+	 */
+	public synchronized long add(final byte[] message, final int offset, final int length)
+	{
+		final int size = this.encoder.size();
+		this.encoder.add(message, offset, length);
+		this.pendingBytes = this.pendingBytes + this.encoder.size() - size;
+
+		return this.pendingBytes;
+	}
+
+	/**
+	 * @return The amount of bytes that have been added but not yet drained.
+	 */
+	public synchronized int getUndrainedBytes()
+	{
+		return this.encoder.size();
+	}
+
+	/**
+	 * @return The amount of bytes, including frame headers, that have been added but not yet
+	 *         written.
+	 */
+	public synchronized long getPendingBytes()
+	{
+		return this.pendingBytes;
+	}
+
+	/**
+	 * Encrypts everything that has been added so far with the current cipher. The caller must hold
+	 * the monitor of this object.
+	 */
+	private void encrypt()
+	{
+		final ByteBuffer batch = this.encoder.toByteBuffer();
+
+		if (this.cipher != null)
+		{
+			this.cipher.encrypt(batch.array(), batch.arrayOffset() + this.encrypted, batch.remaining()
+					- this.encrypted);
+		}
+
+		this.encrypted = batch.remaining();
+	}
+
+	/**
+	 * Encrypts everything that has been added so far and makes it available to
+	 * {@link #write(GatheringByteChannel)}. Must only be called by the writing thread.
+	 */
+	public void drain()
+	{
+		synchronized (this)
+		{
+			if (this.encoder.size() == 0) { return; }
+
+			this.encrypt();
+
+			final ByteBuffer batch = this.encoder.toByteBuffer();
+
+			ByteBuffer last = this.buffers.peekLast();
+
+			while (batch.hasRemaining())
+			{
+				if (last == null || last.limit() == last.capacity())
+				{
+					last = this.acquireBuffer();
+					last.limit(0);
+					this.buffers.add(last);
+				}
+
+				//Append behind the data of the last buffer, which may already be partially written.
+				final int position = last.position();
+				last.position(last.limit());
+				last.limit(last.capacity());
+
+				final int n = Math.min(batch.remaining(), last.remaining());
+				final int limit = batch.limit();
+				batch.limit(batch.position() + n);
+				last.put(batch);
+				batch.limit(limit);
+
+				last.limit(last.position());
+				last.position(position);
+			}
+
+			this.encoder.reset();
+			this.encrypted = 0;
+		}
+	}
+
+	/**
+	 * @return {@code true} if nothing is waiting to be written.
+	 */
+	public synchronized boolean isEmpty()
+	{
+		return this.pendingBytes == 0;
+	}
+
+	/**
+	 * Writes as much of the drained data as the channel accepts with a single gathering write. Data
+	 * that has been added but not drained yet is not written.
+	 *
+	 * @param channel
+	 *            The channel to write to.
+	 * @return The amount of bytes written.
+	 * @throws IOException
+	 *             If the channel could not be written to.
+	 */
+	public long write(final GatheringByteChannel channel) throws IOException
+	{
+		final int count = this.buffers.size();
+
+		if (count == 0) { return 0; }
+
+		if (this.gather.length < count)
+		{
+			this.gather = new ByteBuffer[Math.max(count, this.gather.length * 2)];
+		}
+
+		this.buffers.toArray(this.gather);
+
+		final long written;
+
+		try
+		{
+			written = channel.write(this.gather, 0, count);
+		}
+		finally
+		{
+			Arrays.fill(this.gather, 0, count, null);
+		}
+
+		while (!this.buffers.isEmpty() && !this.buffers.peekFirst().hasRemaining())
+		{
+			this.releaseBuffer(this.buffers.pollFirst());
+		}
+
+		if (written > 0)
+		{
+			synchronized (this)
+			{
+				this.pendingBytes -= written;
+			}
+		}
+
+		return written;
+	}
+
+	/**
+	 * @return {@code true} if everything that has been drained so far has been written.
+	 */
+	public boolean isWritten()
+	{
+		return this.buffers.isEmpty();
+	}
+
+	/**
+	 * Discards everything that has not been written yet.
+	 */
+	public void clear()
+	{
+		ByteBuffer buffer;
+
+		while ((buffer = this.buffers.pollFirst()) != null)
+		{
+			this.releaseBuffer(buffer);
+		}
+
+		synchronized (this)
+		{
+			this.encoder.reset();
+			this.encrypted = 0;
+			this.pendingBytes = 0;
+		}
+	}
+
+	private ByteBuffer acquireBuffer()
+	{
+		if (this.transport != null) { return this.transport.acquireBuffer(); }
+
+		return ByteBuffer.allocateDirect(Transport.BUFFER_SIZE);
+	}
+
+	private void releaseBuffer(final ByteBuffer buffer)
+	{
+		if (this.transport != null)
+		{
+			this.transport.releaseBuffer(buffer);
+		}
+	}
+}
@@ -0,0 +1,751 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The network transport shared by client and server. A transport accepts and opens TCP
+ * connections, exchanges length-prefixed (see {@link com.cellngine.net.FrameEncoder FrameEncoder})
+ * and optionally encrypted messages over them and reports all events to a
+ * {@link com.cellngine.net.ConnectionHandler ConnectionHandler}.<br />
+ * <br />
+ *
+ * Two threading models are supported:
+ * <ul>
+ * <li>{@link Mode#SELECTOR SELECTOR}: a single thread serves all connections using non-blocking
+ * channels. The amount of connections is not limited by the amount of threads.</li>
+ * <li>{@link Mode#THREAD_PER_CONNECTION THREAD_PER_CONNECTION}: every connection gets its own
+ * reading thread using blocking channels. Combined with a {@link java.util.concurrent.ThreadFactory
+ * ThreadFactory} that creates virtual threads this scales in the same way.</li>
+ * </ul>
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class Transport implements Closeable
+{
+	/**
+	 * The threading model of a {@link com.cellngine.net.Transport Transport}.
+	 */
+	public enum Mode
+	{
+		SELECTOR, THREAD_PER_CONNECTION
+	}
+
+	/**
+	 * The size of the direct buffers used for reading and writing.
+	 */
+	public static final int						BUFFER_SIZE				= 65536;
+
+	public static final int						DEFAULT_LOW_WATER_MARK	= 256 * 1024;
+	public static final int						DEFAULT_HIGH_WATER_MARK	= 1024 * 1024;
+
+	// the amount of idle direct buffers that are kept for reuse
+	private static final int					MAX_POOLED_BUFFERS		= 256;
+
+	private final ConnectionHandler				handler;
+	private final Mode							mode;
+	private ThreadFactory						threadFactory			= null;
+	private int									maxFrameSize			= FrameEncoder.DEFAULT_MAX_FRAME_SIZE;
+	private int									lowWaterMark			= DEFAULT_LOW_WATER_MARK;
+	private int									highWaterMark			= DEFAULT_HIGH_WATER_MARK;
+	private FlushPolicy							flushPolicy				= FlushPolicy.IMMEDIATE;
+
+	private final Set<Connection>				connections				= Collections
+																				.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+	private final List<ServerSocketChannel>		servers					= new CopyOnWriteArrayList<ServerSocketChannel>();
+	private final Queue<ByteBuffer>				bufferPool				= new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger					pooledBuffers			= new AtomicInteger(0);
+	private final AtomicInteger					threadCount				= new AtomicInteger(0);
+	private volatile boolean					closed					= false;
+	// runs the delayed flushes of connections with a flush policy that holds back messages
+	private ScheduledExecutorService			timer					= null;
+
+	// selector mode only
+	private final Queue<Runnable>				tasks					= new ConcurrentLinkedQueue<Runnable>();
+	private final Queue<Connection>				flushes					= new ConcurrentLinkedQueue<Connection>();
+	private Selector							selector				= null;
+
+	/**
+	 * Creates a transport in {@link Mode#SELECTOR SELECTOR} mode.
+	 *
+	 * @param handler
+	 *            The {@link com.cellngine.net.ConnectionHandler ConnectionHandler} that receives the
+	 *            events of all connections.
+	 */
+	public Transport(final ConnectionHandler handler)
+	{
+		this(handler, Mode.SELECTOR);
+	}
+
+	/**
+	 * @param handler
+	 *            The {@link com.cellngine.net.ConnectionHandler ConnectionHandler} that receives the
+	 *            events of all connections.
+	 * @param mode
+	 *            The threading model to use.
+	 */
+	public Transport(final ConnectionHandler handler, final Mode mode)
+	{
+		if (handler == null || mode == null) { throw new NullPointerException(); }
+
+		this.handler = handler;
+		this.mode = mode;
+	}
+
+	/**
+	 * @param threadFactory
+	 *            The {@link java.util.concurrent.ThreadFactory ThreadFactory} used for all threads of
+	 *            this transport, or {@code null} to use daemon threads. Must be set before the
+	 *            first call to {@link #listen} or {@link #connect}.
+	 */
+	public void setThreadFactory(final ThreadFactory threadFactory)
+	{
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * @param maxFrameSize
+	 *            The maximum size of a single message in bytes. Applies to connections that are
+	 *            created afterwards.
+	 */
+	public void setMaxFrameSize(final int maxFrameSize)
+	{
+		if (maxFrameSize < 0) { throw new IllegalArgumentException("Invalid maximum frame size: " + maxFrameSize); }
+
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * Sets the bounds used for outbound backpressure: a connection becomes unwritable once more than
+	 * {@code high} bytes are waiting to be written, and writable again once no more than {@code low}
+	 * bytes are left.
+	 *
+	 * @param low
+	 *            The low water mark in bytes.
+	 * @param high
+	 *            The high water mark in bytes.
+	 */
+	public void setWriteBufferWaterMarks(final int low, final int high)
+	{
+		if (low < 0 || high < low) { throw new IllegalArgumentException("Invalid water marks: " + low + ", " + high); }
+
+		this.lowWaterMark = low;
+		this.highWaterMark = high;
+	}
+
+	/**
+	 * @param flushPolicy
+	 *            The {@link com.cellngine.net.FlushPolicy FlushPolicy} of connections that are
+	 *            created afterwards, see {@link com.cellngine.net.Connection#setFlushPolicy}.
+	 */
+	public void setFlushPolicy(final FlushPolicy flushPolicy)
+	{
+		if (flushPolicy == null) { throw new NullPointerException(); }
+
+		this.flushPolicy = flushPolicy;
+	}
+
+	public Mode getMode()
+	{
+		return this.mode;
+	}
+
+	public int getMaxFrameSize()
+	{
+		return this.maxFrameSize;
+	}
+
+	public int getLowWaterMark()
+	{
+		return this.lowWaterMark;
+	}
+
+	public int getHighWaterMark()
+	{
+		return this.highWaterMark;
+	}
+
+	public FlushPolicy getFlushPolicy()
+	{
+		return this.flushPolicy;
+	}
+
+	ConnectionHandler getHandler()
+	{
+		return this.handler;
+	}
+
+	/**
+	 * @return A snapshot of all open connections.
+	 */
+	public List<Connection> getConnections()
+	{
+		return new ArrayList<Connection>(this.connections);
+	}
+
+	/**
+	 * Starts accepting connections on the given address.
+	 *
+	 * @param address
+	 *            The address to bind to. Use port 0 to bind to any free port.
+	 * @return The address the transport is bound to.
+	 * @throws IOException
+	 *             If the address could not be bound.
+	 */
+	public InetSocketAddress listen(final SocketAddress address) throws IOException
+	{
+		this.ensureOpen();
+
+		final ServerSocketChannel server = ServerSocketChannel.open();
+
+		try
+		{
+			server.bind(address);
+			this.servers.add(server);
+
+			if (this.mode == Mode.SELECTOR)
+			{
+				server.configureBlocking(false);
+
+				this.submit(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							server.register(Transport.this.selector, SelectionKey.OP_ACCEPT);
+						}
+						catch (final ClosedChannelException e)
+						{
+							Transport.this.servers.remove(server);
+						}
+					}
+				});
+			}
+			else
+			{
+				this.newThread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						Transport.this.acceptBlocking(server);
+					}
+				}, "acceptor").start();
+			}
+
+			return (InetSocketAddress) server.getLocalAddress();
+		}
+		catch (final IOException e)
+		{
+			this.servers.remove(server);
+			closeChannel(server);
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a connection to the given address. This method blocks until the connection has been
+	 * established.
+	 *
+	 * @param address
+	 *            The address to connect to.
+	 * @return The new connection.
+	 * @throws IOException
+	 *             If the connection could not be established.
+	 */
+	public Connection connect(final SocketAddress address) throws IOException
+	{
+		this.ensureOpen();
+
+		final SocketChannel channel = SocketChannel.open(address);
+
+		return this.register(channel);
+	}
+
+	/**
+	 * Closes all connections and stops accepting new ones.
+	 */
+	@Override
+	public void close()
+	{
+		this.closed = true;
+
+		for (final ServerSocketChannel server : this.servers)
+		{
+			closeChannel(server);
+		}
+
+		for (final Connection connection : this.getConnections())
+		{
+			connection.close();
+		}
+
+		synchronized (this)
+		{
+			if (this.selector != null)
+			{
+				this.selector.wakeup();
+			}
+
+			if (this.timer != null)
+			{
+				this.timer.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Safely close a channel or selector.
+	 */
+	private static void closeChannel(final Closeable closeable)
+	{
+		try
+		{
+			closeable.close();
+		}
+		catch (final Exception e) /* no problem */
+		{
+		}
+	}
+
+	private void ensureOpen() throws IOException
+	{
+		if (this.closed) { throw new ClosedChannelException(); }
+
+		if (this.mode == Mode.SELECTOR)
+		{
+			synchronized (this)
+			{
+				if (this.selector == null)
+				{
+					this.selector = Selector.open();
+
+					this.newThread(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							Transport.this.select();
+						}
+					}, "selector").start();
+				}
+			}
+		}
+	}
+
+	private Thread newThread(final Runnable runnable, final String name)
+	{
+		if (this.threadFactory != null) { return this.threadFactory.newThread(runnable); }
+
+		final Thread thread = new Thread(runnable, "Transport " + name + " " + this.threadCount.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private Connection register(final SocketChannel channel) throws IOException
+	{
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+		final Connection connection = new Connection(this, channel);
+		this.connections.add(connection);
+
+		if (this.mode == Mode.SELECTOR)
+		{
+			channel.configureBlocking(false);
+
+			this.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						connection.key = channel.register(Transport.this.selector, connection.isReadSuspended() ? 0
+								: SelectionKey.OP_READ, connection);
+						Transport.this.handler.connected(connection);
+					}
+					catch (final ClosedChannelException e)
+					{
+						connection.close(e);
+					}
+				}
+			});
+		}
+		else
+		{
+			this.newThread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Transport.this.readBlocking(connection);
+				}
+			}, "connection").start();
+		}
+
+		return connection;
+	}
+
+	void closed(final Connection connection)
+	{
+		this.connections.remove(connection);
+	}
+
+	ByteBuffer acquireBuffer()
+	{
+		final ByteBuffer buffer = this.bufferPool.poll();
+
+		if (buffer == null) { return ByteBuffer.allocateDirect(BUFFER_SIZE); }
+
+		this.pooledBuffers.decrementAndGet();
+		return buffer;
+	}
+
+	void releaseBuffer(final ByteBuffer buffer)
+	{
+		if (this.pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS)
+		{
+			buffer.clear();
+			this.bufferPool.offer(buffer);
+		}
+		else
+		{
+			this.pooledBuffers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Makes sure that the data sent on the given connection is written soon.
+	 */
+	void scheduleFlush(final Connection connection)
+	{
+		if (this.mode == Mode.SELECTOR)
+		{
+			this.flushes.add(connection);
+			this.selector.wakeup();
+		}
+		else
+		{
+			try
+			{
+				connection.flushBlocking();
+			}
+			catch (final IOException e)
+			{
+				connection.close(e);
+			}
+		}
+	}
+
+	/**
+	 * Makes sure that the data sent on the given connection is written once the given delay has
+	 * passed.
+	 */
+	void scheduleFlush(final Connection connection, final long delay)
+	{
+		final ScheduledExecutorService timer;
+
+		synchronized (this)
+		{
+			if (this.closed) { return; }
+
+			if (this.timer == null)
+			{
+				this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(final Runnable runnable)
+					{
+						return Transport.this.newThread(runnable, "timer");
+					}
+				});
+			}
+
+			timer = this.timer;
+		}
+
+		try
+		{
+			timer.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					connection.delayedFlush();
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+		}
+		catch (final RejectedExecutionException e) /* closed in the meantime */
+		{
+		}
+	}
+
+	/**
+	 * Updates the operations the selector waits for after a connection suspended or resumed
+	 * reading.
+	 */
+	void updateInterest(final Connection connection)
+	{
+		if (this.mode == Mode.SELECTOR)
+		{
+			this.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Transport.this.updateInterest(connection, null);
+				}
+			});
+		}
+	}
+
+	private void updateInterest(final Connection connection, final Boolean flushed)
+	{
+		final SelectionKey key = connection.key;
+
+		if (key == null || !key.isValid()) { return; }
+
+		int ops = key.interestOps();
+
+		ops = connection.isReadSuspended() ? ops & ~SelectionKey.OP_READ : ops | SelectionKey.OP_READ;
+
+		if (flushed != null)
+		{
+			ops = flushed ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE;
+		}
+
+		key.interestOps(ops);
+	}
+
+	private void submit(final Runnable task)
+	{
+		this.tasks.add(task);
+		this.selector.wakeup();
+	}
+
+	private void select()
+	{
+		final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		try
+		{
+			while (!this.closed)
+			{
+				this.selector.select();
+
+				Runnable task;
+
+				while ((task = this.tasks.poll()) != null)
+				{
+					task.run();
+				}
+
+				Connection connection;
+
+				while ((connection = this.flushes.poll()) != null)
+				{
+					this.flushNonBlocking(connection);
+				}
+
+				final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+
+				while (keys.hasNext())
+				{
+					final SelectionKey key = keys.next();
+					keys.remove();
+
+					if (!key.isValid())
+					{
+						continue;
+					}
+
+					if (key.isAcceptable())
+					{
+						this.accept((ServerSocketChannel) key.channel());
+						continue;
+					}
+
+					connection = (Connection) key.attachment();
+
+					try
+					{
+						if (key.isReadable() && connection.read(readBuffer) == -1)
+						{
+							connection.close(null);
+							continue;
+						}
+
+						if (key.isValid() && key.isWritable())
+						{
+							this.flushNonBlocking(connection);
+						}
+					}
+					catch (final IOException e)
+					{
+						readBuffer.clear();
+						connection.close(e);
+					}
+					catch (final RuntimeException e)
+					{
+						readBuffer.clear();
+						connection.close(new IOException(e));
+					}
+				}
+			}
+		}
+		catch (final IOException e)
+		{
+			this.close();
+		}
+		catch (final ClosedSelectorException e)
+		{
+			this.close();
+		}
+		finally
+		{
+			closeChannel(this.selector);
+		}
+	}
+
+	private void flushNonBlocking(final Connection connection)
+	{
+		if (!connection.isOpen()) { return; }
+
+		try
+		{
+			this.updateInterest(connection, connection.flushNonBlocking());
+		}
+		catch (final IOException e)
+		{
+			connection.close(e);
+		}
+	}
+
+	private void accept(final ServerSocketChannel server)
+	{
+		try
+		{
+			SocketChannel channel;
+
+			while ((channel = server.accept()) != null)
+			{
+				try
+				{
+					this.register(channel);
+				}
+				catch (final IOException e)
+				{
+					closeChannel(channel);
+				}
+			}
+		}
+		catch (final IOException e)
+		{
+			this.servers.remove(server);
+			closeChannel(server);
+		}
+	}
+
+	private void acceptBlocking(final ServerSocketChannel server)
+	{
+		try
+		{
+			while (!this.closed)
+			{
+				final SocketChannel channel = server.accept();
+
+				try
+				{
+					this.register(channel);
+				}
+				catch (final IOException e)
+				{
+					closeChannel(channel);
+				}
+			}
+		}
+		catch (final IOException e) /* closed */
+		{
+		}
+		finally
+		{
+			this.servers.remove(server);
+			closeChannel(server);
+		}
+	}
+
+	private void readBlocking(final Connection connection)
+	{
+		final ByteBuffer readBuffer = this.acquireBuffer();
+
+		try
+		{
+			this.handler.connected(connection);
+
+			while (connection.awaitReading())
+			{
+				if (connection.read(readBuffer) == -1)
+				{
+					break;
+				}
+			}
+
+			connection.close(null);
+		}
+		catch (final IOException e)
+		{
+			connection.close(e);
+		}
+		catch (final RuntimeException e)
+		{
+			connection.close(new IOException(e));
+		}
+		finally
+		{
+			this.releaseBuffer(readBuffer);
+		}
+	}
+}
@@ -0,0 +1,392 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.resources;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.StringCodec;
+import com.cellngine.io.BinaryWriter;
+
+/**
+ * A sorted table of file names in which every name only stores the bytes in which it differs from
+ * the name before it. Every {@link #RESTART_INTERVAL}th name is stored in full and is listed in a
+ * table of restart points, so a name is found by a binary search over the restart points followed
+ * by a short scan, directly on the encoded bytes. Names are only decoded into Strings on request,
+ * which means the table can be used straight from a (memory mapped) buffer.<br />
+ * <br />
+ *
+ * Structure:
+ *
+ * <pre>
+ *  - Number of names (4 byte integer)
+ *  - Restart interval (4 byte integer)
+ *  - Per restart point:
+ *     - Offset of the name from the first name (4 byte integer)
+ *  - Per name, in the order of {@link #ORDER}:
+ *     - Length of the prefix shared with the previous name, in bytes (varint)
+ *     - Length of the rest of the name, in bytes (varint)
+ *     - The rest of the UTF-8 encoded name
+ *     - Index of the entry the name belongs to (varint)
+ * </pre>
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+final class NameTable
+{
+	/**
+	 * The amount of names per restart point written by {@link #build(SortedMap)}.
+	 */
+	static final int				RESTART_INTERVAL	= 16;
+
+	/**
+	 * The order of the names: by code point, which is the order of their UTF-8 encoded bytes.
+	 */
+	static final Comparator<String>	ORDER				= new CodePointOrder();
+
+	private final ByteBuffer		buffer;
+	private final int				size;
+	private final int				interval;
+	private final int				restarts;
+	private final int				names;
+
+	/**
+	 * @param buffer
+	 *            The table, from the position to the limit of the buffer. The buffer is not
+	 *            modified.
+	 * @throws IllegalArgumentException
+	 *             If the table is not valid.
+	 */
+	NameTable(final ByteBuffer buffer)
+	{
+		this.buffer = buffer.slice();
+
+		if (this.buffer.remaining() < 8) { throw new IllegalArgumentException("Malformed name table"); }
+
+		this.size = this.buffer.getInt(0);
+		this.interval = this.buffer.getInt(4);
+
+		if (this.size < 0 || this.interval < 1) { throw new IllegalArgumentException("Malformed name table"); }
+
+		this.restarts = 8;
+
+		final long names = this.restarts + 4L * this.getRestartCount();
+
+		if (names > this.buffer.limit()) { throw new IllegalArgumentException("Malformed name table"); }
+
+		this.names = (int) names;
+	}
+
+	/**
+	 * Encodes a table.
+	 *
+	 * @param names
+	 *            The names, sorted by {@link #ORDER}, mapped to the index of their entry.
+	 * @return The table.
+	 */
+	static byte[] build(final SortedMap<String, Integer> names)
+	{
+		final int[] restarts = new int[(names.size() + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+		final BinaryWriter data = new BinaryWriter();
+		byte[] previous = new byte[0];
+		int i = 0;
+
+		for (final Map.Entry<String, Integer> entry : names.entrySet())
+		{
+			final byte[] name = StringCodec.encode(entry.getKey());
+			int shared = 0;
+
+			if (i % RESTART_INTERVAL == 0)
+			{
+				restarts[i / RESTART_INTERVAL] = data.size();
+			}
+			else
+			{
+				final int length = Math.min(name.length, previous.length);
+
+				while (shared < length && name[shared] == previous[shared])
+				{
+					shared++;
+				}
+			}
+
+			data.putVarInt(shared);
+			data.putVarInt(name.length - shared);
+			data.putRaw(name, shared, name.length - shared);
+			data.putVarInt(entry.getValue());
+
+			previous = name;
+			i++;
+		}
+
+		final BinaryWriter table = new BinaryWriter(8 + 4 * restarts.length + data.size());
+		table.putInt(names.size());
+		table.putInt(RESTART_INTERVAL);
+
+		for (final int restart : restarts)
+		{
+			table.putInt(restart);
+		}
+
+		final byte[] bytes = data.toByteArray();
+		table.putRaw(bytes, 0, bytes.length);
+
+		return table.toByteArray();
+	}
+
+	/**
+	 * @return The amount of names in the table.
+	 */
+	int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @param name
+	 *            The name to look for.
+	 * @return The index of the entry the name belongs to, or -1 if the table does not contain the
+	 *         name.
+	 */
+	int find(final String name)
+	{
+		final byte[] key = StringCodec.encode(name);
+		final Cursor cursor = this.seek(key);
+
+		return cursor != null && cursor.compareTo(key) == 0 ? cursor.entry : -1;
+	}
+
+	/**
+	 * @param ordinal
+	 *            The position of the name in the table.
+	 * @return The name.
+	 * @throws IndexOutOfBoundsException
+	 *             If the ordinal is not within the table.
+	 */
+	String getName(final int ordinal)
+	{
+		if (ordinal < 0 || ordinal >= this.size) { throw new IndexOutOfBoundsException("Ordinal: " + ordinal); }
+
+		final Cursor cursor = new Cursor();
+		cursor.seek(ordinal / this.interval);
+
+		while (cursor.ordinal <= ordinal)
+		{
+			cursor.next();
+		}
+
+		return cursor.getName();
+	}
+
+	/**
+	 * Iterates over the names in order, starting at the first name that is not less than the given
+	 * name. Every name is decoded as the iterator reaches it.
+	 *
+	 * @param from
+	 *            The name to start at.
+	 * @return The names, mapped to the index of their entry.
+	 */
+	Iterator<Map.Entry<String, Integer>> iterator(final String from)
+	{
+		final Cursor start = this.seek(StringCodec.encode(from));
+
+		return new Iterator<Map.Entry<String, Integer>>()
+		{
+			private Cursor	cursor	= start;
+
+			@Override
+			public boolean hasNext()
+			{
+				return this.cursor != null;
+			}
+
+			@Override
+			public Map.Entry<String, Integer> next()
+			{
+				if (this.cursor == null) { throw new NoSuchElementException(); }
+
+				final Map.Entry<String, Integer> entry = new AbstractMap.SimpleImmutableEntry<String, Integer>(
+						this.cursor.getName(), this.cursor.entry);
+
+				if (!this.cursor.next())
+				{
+					this.cursor = null;
+				}
+
+				return entry;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return A cursor on the first name that is not less than the key, or {@code null} if there is
+	 *         no such name.
+	 */
+	private Cursor seek(final byte[] key)
+	{
+		if (this.size == 0) { return null; }
+
+		final Cursor cursor = new Cursor();
+		int low = 0;
+		int high = this.getRestartCount() - 1;
+
+		//Find the last restart point with a name that is not greater than the key.
+		while (low < high)
+		{
+			final int middle = (low + high + 1) >>> 1;
+
+			cursor.seek(middle);
+			cursor.next();
+
+			if (cursor.compareTo(key) <= 0)
+			{
+				low = middle;
+			}
+			else
+			{
+				high = middle - 1;
+			}
+		}
+
+		cursor.seek(low);
+
+		while (cursor.next())
+		{
+			if (cursor.compareTo(key) >= 0) { return cursor; }
+		}
+
+		return null;
+	}
+
+	private int getRestartCount()
+	{
+		return this.size == 0 ? 0 : (this.size - 1) / this.interval + 1;
+	}
+
+	/**
+	 * Compares Strings by code point, which only differs from their natural order in that
+	 * surrogates come after all other chars.
+	 */
+	private static final class CodePointOrder implements Comparator<String>
+	{
+		@Override
+		public int compare(final String a, final String b)
+		{
+			final int length = Math.min(a.length(), b.length());
+
+			for (int i = 0; i < length; i++)
+			{
+				final char x = a.charAt(i);
+				final char y = b.charAt(i);
+
+				if (x != y) { return fixup(x) - fixup(y); }
+			}
+
+			return a.length() - b.length();
+		}
+
+		private static int fixup(final char c)
+		{
+			return c < 0xD800 ? c : c < 0xE000 ? c + 0x2000 : c - 0x800;
+		}
+	}
+
+	/**
+	 * Decodes the names one by one into a reusable buffer.
+	 */
+	private final class Cursor
+	{
+		private final ByteBuffer	in		= NameTable.this.buffer.duplicate();
+		private byte[]				name	= new byte[64];
+		private int					length	= 0;
+		private int					entry	= -1;
+
+		/**
+		 * The ordinal of the next name.
+		 */
+		private int					ordinal	= 0;
+
+		void seek(final int restart)
+		{
+			final int offset = NameTable.this.buffer.getInt(NameTable.this.restarts + 4 * restart);
+
+			if (offset < 0 || offset > this.in.limit() - NameTable.this.names) { throw new IllegalArgumentException(
+					"Malformed name table"); }
+
+			this.in.position(NameTable.this.names + offset);
+			this.length = 0;
+			this.ordinal = restart * NameTable.this.interval;
+		}
+
+		/**
+		 * @return {@code false} if there are no more names.
+		 */
+		boolean next()
+		{
+			if (this.ordinal >= NameTable.this.size) { return false; }
+
+			final int shared = ByteOperations.getVarInt(this.in);
+			final int rest = ByteOperations.getVarInt(this.in);
+
+			if (shared < 0 || shared > this.length || rest < 0 || rest > this.in.remaining()) { throw new IllegalArgumentException(
+					"Malformed name table"); }
+
+			if (shared + rest > this.name.length)
+			{
+				final byte[] name = new byte[Math.max(shared + rest, this.name.length * 2)];
+				System.arraycopy(this.name, 0, name, 0, shared);
+				this.name = name;
+			}
+
+			this.in.get(this.name, shared, rest);
+			this.length = shared + rest;
+			this.entry = ByteOperations.getVarInt(this.in);
+			this.ordinal++;
+
+			return true;
+		}
+
+		int compareTo(final byte[] key)
+		{
+			final int length = Math.min(this.length, key.length);
+
+			for (int i = 0; i < length; i++)
+			{
+				if (this.name[i] != key[i]) { return (this.name[i] & 0xFF) - (key[i] & 0xFF); }
+			}
+
+			return this.length - key.length;
+		}
+
+		String getName()
+		{
+			return StringCodec.decode(this.name, 0, this.length);
+		}
+	}
+}
@@ -22,13 +22,13 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.zip.GZIPInputStream;
 
 import com.cellngine.CO;
-import com.cellngine.io.BoundedInputStream;
+import com.cellngine.io.BufferPool;
 
 /**
  * An entry within a {@link com.cellngine.resources.ResourceFile ResourceFile}.
@@ -37,13 +37,15 @@ import com.cellngine.io.BoundedInputStream;
  */
 public class ResourceEntry
 {
-	private final Set<String>	fileNames		= new TreeSet<String>();
+	private Set<String>			fileNames		= new TreeSet<String>();
+	private NameTable			nameTable		= null;
+	private int[]				nameOrdinals	= null;
 	private String				resourceID		= "";
-	private Integer				offset			= null;
+	private Long				offset			= null;
 	private byte[]				bytes			= null;
 	private File				file			= null;
-	private Integer				length			= null;
-	private Integer				realLength		= null;
+	private Long				length			= null;
+	private Long				realLength		= null;
 	private ResourceFile		resourceFile	= null;
 	private Integer				compression		= null;
 
@@ -59,8 +61,8 @@ public class ResourceEntry
 		this.fileNames.add(fileName);
 	}
 
-	protected ResourceEntry(final ResourceFile resourceFile, final String resourceID, final int offset,
-			final int length, final int compression)
+	protected ResourceEntry(final ResourceFile resourceFile, final String resourceID, final long offset,
+			final long length, final int compression)
 	{
 		this.resourceFile = resourceFile;
 		this.resourceID = resourceID;
@@ -69,8 +71,36 @@ public class ResourceEntry
 		this.compression = compression;
 	}
 
+	protected ResourceEntry(final ResourceFile resourceFile, final String resourceID, final long offset,
+			final long length, final int compression, final long uncompressedLength)
+	{
+		this(resourceFile, resourceID, offset, length, compression);
+		this.length = uncompressedLength;
+	}
+
+	/**
+	 * An entry of which the file names are kept in the name table of the resource file, and only
+	 * decoded when they are asked for.
+	 */
+	protected ResourceEntry(final ResourceFile resourceFile, final String resourceID, final long offset,
+			final long length, final int compression, final long uncompressedLength, final NameTable nameTable,
+			final int[] nameOrdinals)
+	{
+		this(resourceFile, resourceID, offset, length, compression, uncompressedLength);
+		this.fileNames = null;
+		this.nameTable = nameTable;
+		this.nameOrdinals = nameOrdinals;
+	}
+
 	protected void addFileNames(final Set<String> fileNames)
 	{
+		if (this.fileNames == null)
+		{
+			this.fileNames = this.decodeFileNames();
+			this.nameTable = null;
+			this.nameOrdinals = null;
+		}
+
 		this.fileNames.addAll(fileNames);
 	}
 
@@ -79,7 +109,19 @@ public class ResourceEntry
 	 */
 	public Set<String> getFileNames()
 	{
-		return Collections.unmodifiableSet(this.fileNames);
+		return Collections.unmodifiableSet(this.fileNames == null ? this.decodeFileNames() : this.fileNames);
+	}
+
+	private Set<String> decodeFileNames()
+	{
+		final Set<String> fileNames = new TreeSet<String>();
+
+		for (final int ordinal : this.nameOrdinals)
+		{
+			fileNames.add(this.nameTable.getName(ordinal));
+		}
+
+		return fileNames;
 	}
 
 	/**
@@ -113,19 +155,9 @@ public class ResourceEntry
 		{
 			try
 			{
-				//Encryption is handled by the this.resourceFile.getInputStream() function
-				InputStream in = this.resourceFile.getInputStream();
-
-				in.skip(this.offset);
-
-				in = new BoundedInputStream(in, this.realLength);
-
-				if (this.compression == 0x01)
-				{
-					in = new GZIPInputStream(in);
-				}
-
-				return in;
+				//Decryption and decompression are handled by this.resourceFile.getInputStream(...)
+				return this.resourceFile.getInputStream(this.offset, this.realLength, this.compression == 0x01,
+						this.resourceID);
 			}
 			catch (final IOException e)
 			{
@@ -140,43 +172,152 @@ public class ResourceEntry
 	}
 
 	/**
-	 * @return The length of the file data in bytes.
+	 * Returns the contents of the file as a read-only {@link java.nio.ByteBuffer ByteBuffer}. For a
+	 * stored (uncompressed) entry of an unencrypted {@link com.cellngine.resources.ResourceFile
+	 * ResourceFile} that has been mapped into memory, this is a slice of the mapping and nothing is copied. In
+	 * all other cases the contents are read into a new buffer.
+	 *
+	 * @return A buffer over the file data.
 	 * @throws IOException
-	 *             If the length could not be determined.
+	 *             If the file data could not be read.
 	 */
-	public int getLength() throws IOException
+	public ByteBuffer getByteBuffer() throws IOException
 	{
-		if (this.length == null)
+		if (this.bytes != null) { return ByteBuffer.wrap(this.bytes).asReadOnlyBuffer(); }
+
+		if (this.file != null) { return CO.getByteBufferFromFile(this.file, false).asReadOnlyBuffer(); }
+
+		if (this.resourceFile != null && this.compression == 0x00 && !this.resourceFile.isEncrypted())
 		{
-			int length = 0;
+			final ByteBuffer region = this.resourceFile.getMappedRegion(this.offset, this.realLength);
 
-			InputStream in = null;
+			if (region != null) { return region; }
+		}
 
-			try
-			{
-				in = this.getInputStream();
+		return ByteBuffer.wrap(CO.getBytesFromInputStream(this.getInputStream(), true)).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Reads file data at the given position. Unlike a stream, this keeps no state, so any number of
+	 * threads may read from the same entry at once.<br />
+	 * <br />
+	 *
+	 * Stored (uncompressed) entries of an unencrypted {@link com.cellngine.resources.ResourceFile
+	 * ResourceFile} are read with a single positional read on the channel that the resource file
+	 * shares between all of its entries, or copied from its mapping. Other entries are decrypted
+	 * and inflated from the start of their data up to the position, which makes reading them at a
+	 * position as expensive as reading them through {@link #getInputStream()}. Within files that
+	 * are encrypted with a key per entry this only involves the data of the entry itself.
+	 *
+	 * @param dst
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read into, from its position up to
+	 *            its limit.
+	 * @param position
+	 *            The position within the file data to read from.
+	 * @return The amount of bytes read, which may be less than requested, or -1 if the position is
+	 *         at or past the end of the file data.
+	 * @throws IOException
+	 *             If the file data could not be read.
+	 */
+	public int read(final ByteBuffer dst, final long position) throws IOException
+	{
+		if (position < 0) { throw new IllegalArgumentException("Negative position: " + position); }
+
+		if (this.bytes != null)
+		{
+			if (position >= this.bytes.length) { return -1; }
+
+			final int n = (int) Math.min(dst.remaining(), this.bytes.length - position);
+			dst.put(this.bytes, (int) position, n);
+
+			return n;
+		}
+
+		if (this.resourceFile != null && this.compression == 0x00 && !this.resourceFile.isEncrypted())
+		{
+			if (position >= this.realLength) { return -1; }
 
-				byte[] buffer;
-				int i;
+			return this.resourceFile.read(dst, this.offset + position, this.realLength - position);
+		}
+
+		final InputStream in = this.getInputStream();
+
+		try
+		{
+			long skip = position;
 
-				do
+			while (skip > 0)
+			{
+				long skipped = in.skip(skip);
+
+				if (skipped <= 0)
 				{
-					buffer = new byte[1024];
+					//The skip method may skip fewer bytes than requested, so fall back to reading.
+					if (in.read() == -1) { return -1; }
 
-					i = in.read(buffer);
+					skipped = 1;
+				}
 
-					if (i > -1)
-					{
-						length = length + i;
-					}
-				} while (i > -1);
+				skip = skip - skipped;
+			}
 
-				this.length = length;
+			final byte[] buffer = new byte[Math.min(dst.remaining(), BufferPool.DEFAULT_BUFFER_SIZE)];
+			int read = 0;
+			int n;
 
+			while (dst.hasRemaining() && (n = in.read(buffer, 0, Math.min(buffer.length, dst.remaining()))) != -1)
+			{
+				dst.put(buffer, 0, n);
+				read = read + n;
 			}
-			finally
+
+			return read == 0 && dst.hasRemaining() ? -1 : read;
+		}
+		finally
+		{
+			CO.closeInputStream(in);
+		}
+	}
+
+	/**
+	 * Returns the length of the uncompressed file data. New entries and uncompressed entries of a
+	 * {@link com.cellngine.resources.ResourceFile ResourceFile} know their length up front, as do
+	 * all entries of a version 2 resource file; compressed entries of older files are inflated once
+	 * to count their bytes.
+	 *
+	 * @return The length of the file data in bytes.
+	 * @throws IOException
+	 *             If the length could not be determined.
+	 */
+	public long getLength() throws IOException
+	{
+		if (this.length == null)
+		{
+			if (this.bytes != null)
 			{
-				CO.closeInputStream(in);
+				this.length = (long) this.bytes.length;
+			}
+			else if (this.file != null)
+			{
+				this.length = this.file.length();
+			}
+			else if (this.compression != null && this.compression == 0x00)
+			{
+				this.length = this.realLength;
+			}
+			else
+			{
+				InputStream in = null;
+
+				try
+				{
+					in = this.getInputStream();
+					this.length = CO.getLength(in);
+				}
+				finally
+				{
+					CO.closeInputStream(in);
+				}
 			}
 		}
 
@@ -190,14 +331,39 @@ public class ResourceEntry
 	{
 		if (this.resourceID.isEmpty())
 		{
+			InputStream in = null;
+
 			try
 			{
-				this.resourceID = CO.toString(CO.makeHash(this.getInputStream(), "SHA-512"));
+				final byte[] hash;
+
+				if (this.bytes != null)
+				{
+					hash = CO.makeHash(this.bytes, "SHA-512");
+				}
+				else if (this.file != null)
+				{
+					hash = CO.makeHash(this.file, "SHA-512");
+				}
+				else
+				{
+					in = this.getInputStream();
+					hash = CO.makeHash(in, "SHA-512");
+				}
+
+				this.resourceID = CO.toString(hash);
 			}
 			catch (final Exception e)
 			{
 				throw new RuntimeException(e);
 			}
+			finally
+			{
+				if (in != null)
+				{
+					CO.closeInputStream(in);
+				}
+			}
 		}
 
 		return this.resourceID;
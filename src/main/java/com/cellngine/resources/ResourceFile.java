@@ -16,6 +16,8 @@
 */
 package com.cellngine.resources;
 
+import java.io.EOFException;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -23,32 +25,53 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.zip.GZIPOutputStream;
 
 import com.cellngine.ByteOperations;
 import com.cellngine.CO;
+import com.cellngine.Constants;
+import com.cellngine.crypto.HKDF;
 import com.cellngine.crypto.RC4;
+import com.cellngine.io.BinaryReader;
+import com.cellngine.io.BinaryWriter;
+import com.cellngine.io.ByteBufferInputStream;
 import com.cellngine.io.CommonInputStream;
 import com.cellngine.io.DelayedStreamCipherInputStream;
+import com.cellngine.io.FileChannelInputStream;
 import com.cellngine.io.StreamCipherInputStream;
 import com.cellngine.io.StreamCipherOutputStream;
+import com.cellngine.io.StreamPipeline;
 
 /**
  * A subtype of <code>java.io.File</code> that handles cellngine resource files (.crf)
  *
  * @author A.J.A. Boer <jboer@jboer.nl>
  */
-public class ResourceFile extends File
+public class ResourceFile extends File implements Closeable
 {
 	/*
-	 * .crf file structure:
+	 * .crf file structure, version 2:
 	 *
 	 * - Header
 	 *     - 0x00
@@ -60,6 +83,42 @@ public class ResourceFile extends File
 	 *     - Version (4 byte integer)
 	 *  - Encryption
 	 *     0x00 = No, the file is not encrypted
+	 *     0x02 = Yes, every data fork is encrypted with a key of its own, derived from the seed,
+	 *            the salt in the trailer and the resource ID of the entry
+	 *     When encrypted, the directory is encrypted with a key derived from the seed and the
+	 *     salt in the trailer.
+	 *  - Data forks of all entries, back to back
+	 *  - Directory
+	 *     - Directory format (0x01)
+	 *     - Length of the name table (4 byte integer)
+	 *     - Name table: all file names, sorted and front-coded, see NameTable
+	 *     - Number of file entries (4 byte integer)
+	 *     - Per file entry:
+	 *         - Resource ID (Length of String + String, SHA-512 hash of the bytes)
+	 *         - Number of file names (varint)
+	 *         - Per file name:
+	 *             - Position of the file name in the name table (varint)
+	 *         - Compression algorithm
+	 *            0x00 = No compression
+	 *            0x01 = GZip compression
+	 *         - Offset of the data fork within the file (8 byte long)
+	 *         - Length of the data fork in bytes (8 byte long)
+	 *         - Length of the uncompressed file in bytes (8 byte long)
+	 *  - Trailer
+	 *     - Salt (16 bytes, zeroes if the file is not encrypted)
+	 *     - Offset of the directory (8 byte long)
+	 *     - Length of the directory (4 byte integer)
+	 *     - Hash (64-byte SHA-512 hash of the unencrypted directory)
+	 *     - The 8 bytes of the header that precede the version
+	 *
+	 * Directory format 0x00, which is still read, has no name table. Instead, every file entry
+	 * has the number of file names as a 4 byte integer, followed by the file names themselves
+	 * (Length of String + String).
+	 *
+	 * Version 1 files, which are still read, have the same header, followed by:
+	 *
+	 *  - Encryption
+	 *     0x00 = No, the file is not encrypted
 	 *     0x01 = Yes, the following bytes are encrypted
 	 *  - Number of file entries (4 byte integer)
 	 *  - Per file entry:
@@ -75,8 +134,104 @@ public class ResourceFile extends File
 	 */
 
 	private static final long			serialVersionUID	= -514000992190910068L;
+
+	/**
+	 * The offset at which the encrypted part of an encrypted resource file begins.
+	 */
+	private static final int			ENCRYPTION_OFFSET	= 13;
+
+	/**
+	 * Encryption mode of version 1 files, in which all data forks form a single key stream that
+	 * starts at {@link #ENCRYPTION_OFFSET}.
+	 */
+	private static final int			SINGLE_STREAM		= 0x01;
+
+	/**
+	 * Encryption mode in which every data fork has a key stream of its own, so that it can be
+	 * decrypted without the data forks before it.
+	 */
+	private static final int			PER_ENTRY			= 0x02;
+
+	/**
+	 * The size of the header, up to and including the encryption byte.
+	 */
+	private static final int			HEADER_SIZE			= 13;
+
+	/**
+	 * The version of the resource files written by this class.
+	 */
+	private static final int			VERSION				= 2;
+
+	/**
+	 * The format of the directory of the version 2 resource files written by this class. Format
+	 * 0x00, without a name table, is read as well.
+	 */
+	private static final byte			DIRECTORY_FORMAT	= 0x01;
+
+	/**
+	 * The length of the salt of the directory key.
+	 */
+	private static final int			SALT_LENGTH			= 16;
+
+	/**
+	 * The size of the trailer of a version 2 resource file.
+	 */
+	private static final int			TRAILER_SIZE		= SALT_LENGTH + 8 + 4 + 64 + 8;
+
+	/**
+	 * The HKDF context of the directory key.
+	 */
+	private static final byte[]			DIRECTORY_INFO		= "CRF directory".getBytes(Constants.charset);
+
+	/**
+	 * The HKDF context of the entry keys, followed by the resource ID of the entry.
+	 */
+	private static final byte[]			ENTRY_INFO			= "CRF entry ".getBytes(Constants.charset);
+
+	/**
+	 * The size of the chunks in which a resource file is mapped by {@link #map()}.
+	 */
+	private static final long			MAP_CHUNK_SIZE		= 1L << 30;
+
+	/**
+	 * The magic "CRF" in the header of every resource file.
+	 */
+	private static final byte[]			CRF					= "CRF".getBytes(Constants.charset);
+
 	private final List<ResourceEntry>	entries				= new Vector<ResourceEntry>();
 	private byte[]						encryptionSeed		= null;
+	private int							encryption			= 0x00;
+	private byte[]						salt				= null;
+
+	/**
+	 * The entries by file name and by resource ID, guarded by the lock on {@link #entries}.
+	 */
+	private final Map<String, ResourceEntry>			names		= new HashMap<String, ResourceEntry>();
+	private final Map<String, ResourceEntry>			ids			= new HashMap<String, ResourceEntry>();
+
+	/**
+	 * The entries by file name in sorted order, for prefix queries. Only written while holding the
+	 * lock on {@link #entries}, but may be read without it.
+	 */
+	private final NavigableMap<String, ResourceEntry>	sortedNames	= new ConcurrentSkipListMap<String, ResourceEntry>(
+																			NameTable.ORDER);
+
+	/**
+	 * The file names of the entries that were read from the file, if it has a name table. These
+	 * are not in {@link #names} and {@link #sortedNames}, which then only hold the file names that
+	 * were added since.
+	 */
+	private NameTable									nameTable	= null;
+
+	/**
+	 * The chunks of this file when it has been mapped into memory by {@link #map()}.
+	 */
+	private volatile ByteBuffer[]						mapping		= null;
+
+	/**
+	 * The channel through which all entries read their data forks, opened on first use.
+	 */
+	private volatile FileChannel						channel		= null;
 
 	public ResourceFile(final URI uri, final byte[] encryptionSeed) throws FileNotFoundException, IOException,
 			NoSuchAlgorithmException
@@ -166,7 +321,9 @@ public class ResourceFile extends File
 				if (version == 1)
 				{
 					final boolean encryption = fin.read() == 0x01;
-					final int pos = (int) fin.getChannel().position();
+					final long pos = fin.getChannel().position();
+
+					this.encryption = encryption ? SINGLE_STREAM : 0x00;
 
 					if (encryption)
 					{
@@ -192,7 +349,7 @@ public class ResourceFile extends File
 					int bytesLength;
 					ResourceEntry entry;
 					int compression;
-					int fileOffset;
+					long fileOffset;
 
 					for (int i = 0; i < entries; i++)
 					{
@@ -212,7 +369,7 @@ public class ResourceFile extends File
 
 						bytesLength = ByteOperations.getInt(in);
 
-						fileOffset = pos + (int) in.getPosition();
+						fileOffset = pos + in.getPosition();
 
 						in.forceSkip(bytesLength);
 
@@ -220,6 +377,7 @@ public class ResourceFile extends File
 						entry.addFileNames(fileNames);
 
 						this.entries.add(entry);
+						this.index(entry, fileNames);
 					}
 
 					final byte[] hash = new byte[64];
@@ -239,6 +397,15 @@ public class ResourceFile extends File
 					if (!CO.toString(hash).equals(CO.toString(CO.makeHash(sb.toString(), "SHA-512")))) { throw new RuntimeException(
 							"Validation failed for resource file \"" + this.getAbsolutePath() + "\""); }
 				}
+				else if (version == VERSION)
+				{
+					this.encryption = fin.read();
+
+					if (this.encryption != 0x00 && this.encryption != PER_ENTRY) { throw new RuntimeException(
+							"Resource file is not valid."); }
+
+					this.readDirectory(fin.getChannel(), this.encryption != 0x00, encryptionSeed);
+				}
 				else
 				{
 					throw new RuntimeException("This resource file has a higher version (" + version
@@ -253,19 +420,458 @@ public class ResourceFile extends File
 		}
 	}
 
+	/**
+	 * Forgets the entries in memory and reads them back from this file, as it has just been
+	 * written.
+	 */
+	private void reload() throws FileNotFoundException, IOException, NoSuchAlgorithmException
+	{
+		this.entries.clear();
+		this.names.clear();
+		this.ids.clear();
+		this.sortedNames.clear();
+		this.nameTable = null;
+		this.encryption = 0x00;
+		this.salt = null;
+
+		this.init(this.encryptionSeed);
+	}
+
+	/**
+	 * Reads the directory of a version 2 resource file, which the trailer at the end of the file
+	 * points to. None of the data forks are read.
+	 */
+	private void readDirectory(final FileChannel channel, final boolean encryption, final byte[] encryptionSeed)
+			throws IOException, NoSuchAlgorithmException
+	{
+		final long size = channel.size();
+
+		if (size < HEADER_SIZE + TRAILER_SIZE) { throw new RuntimeException("Resource file is not valid."); }
+
+		final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+		readFully(channel, trailer, size - TRAILER_SIZE);
+		trailer.flip();
+
+		final byte[] salt = new byte[SALT_LENGTH];
+		trailer.get(salt);
+		this.salt = salt;
+		final long directoryOffset = trailer.getLong();
+		final int directoryLength = trailer.getInt();
+		final byte[] hash = new byte[64];
+		trailer.get(hash);
+
+		if (trailer.get() != 0x00 || trailer.get() != 0x04 || trailer.get() != 67 || trailer.get() != 82
+				|| trailer.get() != 70 || trailer.get() != 0x27 || trailer.get() != 0x44 || trailer.get() != 0x02
+				|| directoryOffset < HEADER_SIZE || directoryLength < 0
+				|| directoryOffset + directoryLength != size - TRAILER_SIZE) { throw new RuntimeException(
+				"Resource file is not valid."); }
+
+		final byte[] directory = new byte[directoryLength];
+		readFully(channel, ByteBuffer.wrap(directory), directoryOffset);
+
+		if (encryption)
+		{
+			//If no hash was provided we'll just provide our own simple one,
+			//this way the regular validation will fail down the line.
+			new RC4(getDirectoryKey(encryptionSeed == null ? new byte[] { 0 } : encryptionSeed, salt)).decrypt(
+					directory, 0, directory.length);
+		}
+
+		if (!Arrays.equals(hash, CO.makeHash(directory, "SHA-512"))) { throw new RuntimeException(
+				"Validation failed for resource file \"" + this.getAbsolutePath() + "\""); }
+
+		final BinaryReader reader = new BinaryReader(directory);
+		final byte format = reader.getByte();
+		NameTable nameTable = null;
+
+		if (format == DIRECTORY_FORMAT)
+		{
+			final int nameTableLength = reader.getInt();
+
+			if (nameTableLength < 0 || nameTableLength > reader.remaining()) { throw new RuntimeException(
+					"Resource file is not valid."); }
+
+			nameTable = new NameTable(ByteBuffer.wrap(directory, reader.position(), nameTableLength));
+			reader.skip(nameTableLength);
+		}
+		else if (format != 0x00) { throw new RuntimeException("Unsupported directory format (" + format
+				+ ") in resource file \"" + this.getAbsolutePath() + "\""); }
+
+		final int entries = reader.getInt();
+
+		for (int i = 0; i < entries; i++)
+		{
+			final String resourceID = reader.getString();
+			Set<String> fileNames = null;
+			int[] nameOrdinals = null;
+
+			if (nameTable == null)
+			{
+				final int fileNamesLength = reader.getInt();
+				fileNames = new TreeSet<String>();
+
+				for (int j = 0; j < fileNamesLength; j++)
+				{
+					fileNames.add(reader.getString());
+				}
+			}
+			else
+			{
+				final int fileNamesLength = reader.getVarInt();
+
+				if (fileNamesLength < 0 || fileNamesLength > reader.remaining()) { throw new RuntimeException(
+						"Resource file is not valid."); }
+
+				nameOrdinals = new int[fileNamesLength];
+
+				for (int j = 0; j < fileNamesLength; j++)
+				{
+					nameOrdinals[j] = reader.getVarInt();
+
+					if (nameOrdinals[j] < 0 || nameOrdinals[j] >= nameTable.size()) { throw new RuntimeException(
+							"Resource file is not valid."); }
+				}
+			}
+
+			final int compression = reader.getByte();
+			final long offset = reader.getLong();
+			final long length = reader.getLong();
+			final long uncompressedLength = reader.getLong();
+
+			if (offset < HEADER_SIZE || length < 0 || length > directoryOffset - offset) { throw new RuntimeException(
+					"Resource file is not valid."); }
+
+			final ResourceEntry entry;
+
+			if (nameTable == null)
+			{
+				entry = new ResourceEntry(this, resourceID, offset, length, compression, uncompressedLength);
+				entry.addFileNames(fileNames);
+			}
+			else
+			{
+				entry = new ResourceEntry(this, resourceID, offset, length, compression, uncompressedLength,
+						nameTable, nameOrdinals);
+				fileNames = Collections.emptySet();
+			}
+
+			this.entries.add(entry);
+			this.index(entry, fileNames);
+		}
+
+		this.nameTable = nameTable;
+	}
+
+	/**
+	 * Derives the key of the directory from the encryption seed, so that the directory is never
+	 * encrypted with the same key stream as the data forks.
+	 */
+	private static byte[] getDirectoryKey(final byte[] encryptionSeed, final byte[] salt)
+	{
+		return HKDF.derive(encryptionSeed, salt, DIRECTORY_INFO, 32);
+	}
+
+	/**
+	 * Derives the key of the data fork of an entry from the encryption seed. Every entry gets an
+	 * independent key stream that starts at the first byte of its data fork.
+	 */
+	private static byte[] getEntryKey(final byte[] encryptionSeed, final byte[] salt, final String resourceID)
+	{
+		final byte[] id = resourceID.getBytes(Constants.charset);
+		final byte[] info = Arrays.copyOf(ENTRY_INFO, ENTRY_INFO.length + id.length);
+		System.arraycopy(id, 0, info, ENTRY_INFO.length, id.length);
+
+		return HKDF.derive(encryptionSeed, salt, info, 32);
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position)
+			throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			final int read = channel.read(buffer, position);
+
+			if (read < 0) { throw new EOFException(); }
+
+			position += read;
+		}
+	}
+
+	/**
+	 * Opens a stream over this whole file, decrypting it if it is encrypted as a single stream.
+	 *
+	 * @return An {@link java.io.InputStream InputStream} over the contents of this file.
+	 * @throws FileNotFoundException
+	 *             If this file could not be found.
+	 * @throws IOException
+	 *             If this file could not be opened.
+	 * @throws IllegalStateException
+	 *             If the data forks of this file are encrypted with a key per entry, which a
+	 *             single stream can't decrypt.
+	 * @deprecated Read the entries through {@link ResourceEntry#getInputStream()} instead.
+	 */
+	@Deprecated
 	protected InputStream getInputStream() throws FileNotFoundException, IOException
 	{
+		if (this.encryption == PER_ENTRY) { throw new IllegalStateException(
+				"The entries of this resource file are encrypted with a key per entry."); }
+
 		final FileInputStream fin = new FileInputStream(this);
 		InputStream in = fin;
 
-		if (this.encryptionSeed != null)
+		if (this.encryption == SINGLE_STREAM)
 		{
-			in = new DelayedStreamCipherInputStream(fin, new RC4(this.encryptionSeed), 13);
+			in = new DelayedStreamCipherInputStream(fin, new RC4(this.encryptionSeed), ENCRYPTION_OFFSET);
 		}
 
 		return in;
 	}
 
+	/**
+	 * Opens a single-pass {@link com.cellngine.io.StreamPipeline StreamPipeline} over the data fork of
+	 * an entry.
+	 *
+	 * @param offset
+	 *            The offset of the data fork within this file.
+	 * @param length
+	 *            The length of the data fork in bytes.
+	 * @param gzip
+	 *            {@code true} if the data fork has been gzip compressed.
+	 * @param resourceID
+	 *            The resource ID of the entry, from which the key of its data fork is derived.
+	 * @return An {@link java.io.InputStream InputStream} over the decrypted and decompressed contents.
+	 * @throws FileNotFoundException
+	 *             If this file could not be found.
+	 * @throws IOException
+	 *             If this file could not be opened.
+	 */
+	protected InputStream getInputStream(final long offset, final long length, final boolean gzip,
+			final String resourceID) throws FileNotFoundException, IOException
+	{
+		final ByteBuffer region = this.getMappedRegion(offset, length);
+		final StreamPipeline pipeline;
+
+		if (region != null)
+		{
+			final InputStream in = new ByteBufferInputStream(region);
+
+			if (this.encryption == 0x00 && !gzip) { return in; }
+
+			pipeline = new StreamPipeline(in);
+		}
+		else
+		{
+			//The stream starts at the beginning of this file so the single key stream lines up;
+			//skipping to the region takes no I/O.
+			pipeline = new StreamPipeline(new FileChannelInputStream(this.getChannel(), 0, offset + length)).region(
+					offset, length);
+		}
+
+		if (this.encryption == PER_ENTRY)
+		{
+			pipeline.decrypt(new RC4(getEntryKey(this.encryptionSeed, this.salt, resourceID)), region != null ? 0
+					: offset);
+		}
+		else if (this.encryption == SINGLE_STREAM)
+		{
+			pipeline.decrypt(new RC4(this.encryptionSeed), ENCRYPTION_OFFSET);
+		}
+
+		if (gzip)
+		{
+			pipeline.inflate();
+		}
+
+		return pipeline.open();
+	}
+
+	/**
+	 * Maps this file into memory, in chunks of 1 GB. Once mapped, the data forks of the entries are
+	 * read straight from the mapping rather than with read calls on the shared channel, and the
+	 * contents of stored entries are available as a slice of it through
+	 * {@link com.cellngine.resources.ResourceEntry#getByteBuffer() ResourceEntry.getByteBuffer()}.
+	 * The mapping is shared by all readers and backed by the page cache of the operating system.<br />
+	 * <br />
+	 *
+	 * Entries of a file that is encrypted with a key per entry are decrypted from the mapping;
+	 * older files that are encrypted as a single stream cannot be mapped. Once this file is
+	 * written or closed it no longer uses the mapping, but the mapped buffers are only unmapped
+	 * when they are garbage collected. Writing replaces this file with a new one, so buffers
+	 * obtained before keep reading the old contents; on platforms that don't allow a mapped file
+	 * to be replaced, such as Windows, writing fails with an {@link java.io.IOException
+	 * IOException} until then.
+	 *
+	 * @return {@code true} if this file is mapped, {@code false} if it is encrypted as a single
+	 *         stream or does not exist.
+	 * @throws IOException
+	 *             If this file could not be mapped.
+	 */
+	public boolean map() throws IOException
+	{
+		synchronized (this.entries)
+		{
+			if (this.mapping != null) { return true; }
+
+			if (this.encryption == SINGLE_STREAM || !this.exists()) { return false; }
+
+			final FileChannel channel = this.getChannel();
+			final long size = channel.size();
+			final ByteBuffer[] mapping = new ByteBuffer[(int) ((size + MAP_CHUNK_SIZE - 1) / MAP_CHUNK_SIZE)];
+
+			for (int i = 0; i < mapping.length; i++)
+			{
+				final long position = i * MAP_CHUNK_SIZE;
+
+				mapping[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(MAP_CHUNK_SIZE, size - position));
+			}
+
+			this.mapping = mapping;
+
+			return true;
+		}
+	}
+
+	/**
+	 * @return {@code true} if this file has been mapped into memory by {@link #map()}.
+	 */
+	public boolean isMapped()
+	{
+		return this.mapping != null;
+	}
+
+	/**
+	 * Returns a region of this file as a slice of the mapping. A region that crosses the border
+	 * between two chunks is mapped on its own.
+	 *
+	 * @param offset
+	 *            The offset of the region within this file.
+	 * @param length
+	 *            The length of the region in bytes.
+	 * @return A read-only {@link java.nio.ByteBuffer ByteBuffer} over the region, or {@code null}
+	 *         if this file is not mapped or the region does not fit in a single buffer.
+	 * @throws IOException
+	 *             If the region could not be mapped.
+	 */
+	protected ByteBuffer getMappedRegion(final long offset, final long length) throws IOException
+	{
+		final ByteBuffer[] mapping = this.mapping;
+
+		if (mapping == null || length > Integer.MAX_VALUE) { return null; }
+
+		final int chunk = (int) (offset / MAP_CHUNK_SIZE);
+		final int position = (int) (offset % MAP_CHUNK_SIZE);
+
+		if (chunk < mapping.length && position + length <= mapping[chunk].capacity())
+		{
+			final ByteBuffer region = mapping[chunk].duplicate();
+			region.limit(position + (int) length);
+			region.position(position);
+
+			return region.slice();
+		}
+
+		return this.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	/**
+	 * Reads a region of this file with a single positional read, from the mapping if this file is
+	 * mapped or else from the shared channel.
+	 *
+	 * @param dst
+	 *            The {@link java.nio.ByteBuffer ByteBuffer} to read into.
+	 * @param position
+	 *            The position within this file to read from.
+	 * @param maxLength
+	 *            The maximum amount of bytes to read.
+	 * @return The amount of bytes read, or -1 if the position is past the end of this file.
+	 * @throws IOException
+	 *             If this file could not be read.
+	 */
+	protected int read(final ByteBuffer dst, final long position, final long maxLength) throws IOException
+	{
+		final int length = (int) Math.min(dst.remaining(), maxLength);
+		final ByteBuffer region = this.getMappedRegion(position, length);
+
+		if (region != null)
+		{
+			dst.put(region);
+			return length;
+		}
+
+		final int limit = dst.limit();
+		dst.limit(dst.position() + length);
+
+		try
+		{
+			return this.getChannel().read(dst, position);
+		}
+		finally
+		{
+			dst.limit(limit);
+		}
+	}
+
+	/**
+	 * Returns the channel that all entries share to read their data forks. It is (re)opened when
+	 * needed: on first use, after {@link #close()}, and after it was closed because a thread was
+	 * interrupted while reading from it.
+	 */
+	private FileChannel getChannel() throws IOException
+	{
+		FileChannel channel = this.channel;
+
+		if (channel == null || !channel.isOpen())
+		{
+			synchronized (this.entries)
+			{
+				channel = this.channel;
+
+				if (channel == null || !channel.isOpen())
+				{
+					channel = new RandomAccessFile(this, "r").getChannel();
+					this.channel = channel;
+				}
+			}
+		}
+
+		return channel;
+	}
+
+	/**
+	 * Closes the channel that the entries of this file share and stops using the mapping, if any.
+	 * Buffers obtained from the mapping stay valid until they are garbage collected.
+	 * Streams over entries that are still open will fail; entries that are read after this
+	 * file has been closed open a new channel.
+	 *
+	 * @throws IOException
+	 *             If the channel could not be closed.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (this.entries)
+		{
+			final FileChannel channel = this.channel;
+
+			this.channel = null;
+			this.mapping = null;
+
+			if (channel != null)
+			{
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if the data forks in this file are encrypted.
+	 */
+	protected boolean isEncrypted()
+	{
+		return this.encryption != 0x00;
+	}
+
 	/**
 	 * @return The seed on which the encryption is based. This may be {@code null} if no encryption
 	 *         is used for this file.
@@ -279,20 +885,33 @@ public class ResourceFile extends File
 	{
 		synchronized (this.entries)
 		{
-			boolean found = false;
-			for (final ResourceEntry entry : this.entries)
-			{
-				if (entry.getResourceID().equals(entryToAdd.getResourceID()))
-				{
-					found = true;
-					entry.addFileNames(entryToAdd.getFileNames());
-				}
-			}
+			final ResourceEntry entry = this.ids.get(entryToAdd.getResourceID());
 
-			if (!found)
+			if (entry == null)
 			{
 				this.entries.add(entryToAdd);
+				this.index(entryToAdd, entryToAdd.getFileNames());
 			}
+			else
+			{
+				entry.addFileNames(entryToAdd.getFileNames());
+				this.index(entry, entryToAdd.getFileNames());
+			}
+		}
+	}
+
+	/**
+	 * Adds the entry and the given file names to the lookup tables. The caller must hold the lock
+	 * on {@link #entries}.
+	 */
+	private void index(final ResourceEntry entry, final Set<String> fileNames)
+	{
+		this.ids.put(entry.getResourceID(), entry);
+
+		for (final String fileName : fileNames)
+		{
+			this.names.put(fileName, entry);
+			this.sortedNames.put(fileName, entry);
 		}
 	}
 
@@ -357,6 +976,81 @@ public class ResourceFile extends File
 		return Collections.unmodifiableList(this.entries);
 	}
 
+	/**
+	 * Looks up an entry by one of its file names, without scanning the list of entries.
+	 *
+	 * @param fileName
+	 *            The file name to look for.
+	 * @return The {@link com.cellngine.resources.ResourceEntry ResourceEntry} with the given file
+	 *         name, or {@code null} if there is none.
+	 */
+	public ResourceEntry getEntry(final String fileName)
+	{
+		synchronized (this.entries)
+		{
+			final ResourceEntry entry = this.names.get(fileName);
+
+			if (entry != null || this.nameTable == null) { return entry; }
+
+			final int index = this.nameTable.find(fileName);
+
+			return index < 0 || index >= this.entries.size() ? null : this.entries.get(index);
+		}
+	}
+
+	/**
+	 * @param fileName
+	 *            The file name to look for.
+	 * @return {@code true} if one of the entries has the given file name.
+	 */
+	public boolean contains(final String fileName)
+	{
+		return this.getEntry(fileName) != null;
+	}
+
+	/**
+	 * Lists the entries of which a file name starts with the given prefix, such as all the files
+	 * in a folder when the prefix is "ui/icons/". The result is a live, read-only view in the
+	 * order of the file names; nothing is copied, and entries added later show up in it as well.
+	 * An entry with several matching file names occurs once per file name.
+	 *
+	 * @param prefix
+	 *            The prefix of the file names, or an empty String for all file names.
+	 * @return The matching file names mapped to their
+	 *         {@link com.cellngine.resources.ResourceEntry ResourceEntry}.
+	 */
+	public SortedMap<String, ResourceEntry> list(final String prefix)
+	{
+		final String end = getPrefixEnd(prefix);
+
+		synchronized (this.entries)
+		{
+			if (this.nameTable != null) { return new ResourceListing(this.nameTable, this.sortedNames, this.entries,
+					prefix, end); }
+		}
+
+		final SortedMap<String, ResourceEntry> range = end == null ? this.sortedNames.tailMap(prefix, true)
+				: this.sortedNames.subMap(prefix, true, end, false);
+
+		return Collections.unmodifiableSortedMap(range);
+	}
+
+	/**
+	 * @return The smallest String that is greater than every String starting with the prefix, or
+	 *         {@code null} if there is no such String.
+	 */
+	private static String getPrefixEnd(final String prefix)
+	{
+		for (int i = prefix.length() - 1; i >= 0; i--)
+		{
+			final char c = prefix.charAt(i);
+
+			if (c != Character.MAX_VALUE) { return prefix.substring(0, i) + (char) (c + 1); }
+		}
+
+		return null;
+	}
+
 	/**
 	 * Writes the resource file to disk, overwriting an existing file if present.
 	 *
@@ -373,7 +1067,8 @@ public class ResourceFile extends File
 	}
 
 	/**
-	 * Writes the resource file to disk, overwriting an existing file if present.
+	 * Writes the resource file to disk, overwriting an existing file if present. Afterwards the
+	 * entries are read back from the new file; entries obtained before should be looked up again.
 	 *
 	 * @param encryptionSeed
 	 *            The seed to use for encryption. Provide {@code null} to disable encryption.
@@ -392,156 +1087,215 @@ public class ResourceFile extends File
 
 			FileOutputStream fout = null;
 			InputStream in = null;
-			FileInputStream fin = null;
-			OutputStream out = null;
 			OutputStream dataout = null;
+			File file = null;
+			File tempfile = null;
 
 			try
 			{
 				//The specifications of the file structure is at the top of this class file.
 
 				/*
-				 * Temporary file #1: Stores the contents of the resource file. Will be copied to the
+				 * Temporary file #1: Stores the contents of the resource file. Will replace the
 				 * permanent file once finished. This is required because the ResourceEntry objects
-				 * that belong to this ResourceFile object may require the original file.
+				 * that belong to this ResourceFile object may require the original file. It is
+				 * created next to the permanent file, with the usual permissions of a new file, so
+				 * that it can be moved in place atomically.
 				 */
-				final File file = File.createTempFile("crf", CO.toString(this.hashCode()));
+				file = new File(this.getAbsoluteFile().getParentFile(), this.getName() + "."
+						+ CO.toString(this.hashCode()) + ".tmp");
 
 				/*
 				 * Temporary file #2: Stores the data fork of the individual ResourceEntry objects.
 				 * This is needed so we can determine the length of the file prior to writing it.
 				 */
-				final File tempfile = File.createTempFile("crft", CO.toString(this.hashCode()));
+				tempfile = File.createTempFile("crft", CO.toString(this.hashCode()));
 
 				fout = new FileOutputStream(file, false);
 
+				//Reused for all the small values, which are passed on to the stream in batches.
+				final BinaryWriter writer = new BinaryWriter();
+
 				//Write the header.
-				fout.write(0x00);
-				fout.write(0x04);
-				fout.write("CRF".getBytes("UTF-8"));
-				fout.write(0x27);
-				fout.write(0x44);
-				fout.write(0x02);
+				writer.putByte((byte) 0x00);
+				writer.putByte((byte) 0x04);
+				writer.putRaw(CRF, 0, CRF.length);
+				writer.putByte((byte) 0x27);
+				writer.putByte((byte) 0x44);
+				writer.putByte((byte) 0x02);
 
 				//Write the version number.
-				fout.write(ByteOperations.toBytes(1));
+				writer.putInt(VERSION);
 
-				//Encryption: 0x00 = no, 0x01 = yes
+				//Encryption: 0x00 = no, 0x02 = yes, with a key per entry
+				writer.putByte(encryptionSeed == null ? (byte) 0x00 : (byte) PER_ENTRY);
+				writer.writeTo(fout);
 
-				if (encryptionSeed == null)
-				{
-					fout.write(0x00);
-					fout.flush();
+				//The salt of the keys of the directory and the entries.
+				final byte[] salt = new byte[SALT_LENGTH];
 
-					out = fout;
+				if (encryptionSeed != null)
+				{
+					new SecureRandom().nextBytes(salt);
 				}
-				else
+
+				//All file names go into a single sorted name table, which the entries refer to by
+				//the position of the name.
+				final SortedMap<String, Integer> fileNames = new TreeMap<String, Integer>(NameTable.ORDER);
+				final Map<String, Integer> nameOrdinals = new HashMap<String, Integer>();
+
+				for (int i = 0; i < this.entries.size(); i++)
 				{
-					fout.write(0x01);
-					fout.flush();
+					for (final String fileName : this.entries.get(i).getFileNames())
+					{
+						fileNames.put(fileName, i);
+					}
+				}
 
-					out = new StreamCipherOutputStream(fout, new RC4(encryptionSeed));
+				for (final String fileName : fileNames.keySet())
+				{
+					nameOrdinals.put(fileName, nameOrdinals.size());
 				}
 
-				fout = null;
+				final byte[] nameTable = NameTable.build(fileNames);
 
-				//Amount of entries (stored as a 4-byte integer)
-				out.write(ByteOperations.toBytes(this.entries.size()));
+				//The directory is collected while the data forks are written, in a second writer.
+				final BinaryWriter directory = new BinaryWriter();
+				directory.putByte(DIRECTORY_FORMAT);
+				directory.putInt(nameTable.length);
+				directory.putRaw(nameTable, 0, nameTable.length);
+				directory.putInt(this.entries.size());
 
-				final StringBuilder sb = new StringBuilder();
-				int length;
+				long offset = HEADER_SIZE;
+				long uncompressedLength;
+				long length;
 				boolean gzip;
 
 				for (final ResourceEntry entry : this.entries)
 				{
-					sb.append(entry.getResourceID());
+					//Resource ID (length of String + String)
+					directory.putString(entry.getResourceID());
 
-					//Resource ID (stored as a 4-byte integer)
-					out.write(ByteOperations.toBytes(entry.getResourceID()));
-
-					//Amount of file names (stored as a 4-byte integer)
-					out.write(ByteOperations.toBytes(entry.getFileNames().size()));
+					//Amount of file names, followed by their positions in the name table
+					directory.putVarInt(entry.getFileNames().size());
 
 					for (final String fileName : entry.getFileNames())
 					{
-						out.write(ByteOperations.toBytes(fileName));
+						directory.putVarInt(nameOrdinals.get(fileName));
 					}
 
 					gzip = entry.isGzip();
 
 					//Compression algorithm: 0x00 for none, 0x01 for GZip
-					if (gzip)
-					{
-						out.write(0x01);
-					}
-					else
-					{
-						out.write(0x00);
-					}
+					directory.putByte(gzip ? (byte) 0x01 : (byte) 0x00);
 
-					//Calculate the length of the file and add it before the data fork.
+					//Compress the data fork into the temporary file first to learn its length.
 					//Due to compression the actual length may be different from the one
 					//advertised by the getLength function.
-					length = 0;
 					in = entry.getInputStream();
-					fout = new FileOutputStream(tempfile, false);
+					final FileOutputStream tempout = new FileOutputStream(tempfile, false);
 
 					if (gzip)
 					{
-						dataout = new GZIPOutputStream(fout);
+						dataout = new GZIPOutputStream(tempout);
 					}
 					else
 					{
-						dataout = fout;
+						dataout = tempout;
 					}
 
-					CO.writeInputStreamToOutputStream(in, dataout);
+					uncompressedLength = CO.copy(in, dataout);
 
 					dataout.close();
-					fout.close();
+					tempout.close();
 					in.close();
 
-					in = new FileInputStream(tempfile);
-					length = CO.getLengthOfInputStream(in);
-					in.close();
+					length = tempfile.length();
 
-					//Store the current position, because we'll need to get
-					//back to it later.
+					//Offset and length of the data fork, and the length of the original file.
+					directory.putLong(offset);
+					directory.putLong(length);
+					directory.putLong(uncompressedLength);
 
-					//Write a 4-byte integer to the stream. We'll re-use it later.
-					out.write(ByteOperations.toBytes(length));
-
-					//Write the data fork (file contents) to the stream.
+					//Write the data fork (file contents) to the file, encrypted with a key of its own.
 					in = new FileInputStream(tempfile);
 
-					CO.writeInputStreamToOutputStream(in, out);
+					if (encryptionSeed == null)
+					{
+						CO.copy(in, fout);
+					}
+					else
+					{
+						CO.copy(in, new StreamCipherOutputStream(fout, new RC4(getEntryKey(encryptionSeed, salt,
+								entry.getResourceID()))));
+					}
 
 					in.close();
-				}
 
-				//Write a hash of the resource ID's to the file for validation.
-				out.write(CO.makeHash(sb.toString(), "SHA-512")); //assumption: this is always 64 bytes
+					offset += length;
+				}
 
-				out.close();
+				//The directory is encrypted on its own, so it can be read without decrypting the
+				//data forks before it.
+				final byte[] directoryBytes = directory.toByteArray();
+				final byte[] hash = CO.makeHash(directoryBytes, "SHA-512");
 
-				fin = new FileInputStream(file);
-				fout = new FileOutputStream(this, false);
+				if (encryptionSeed != null)
+				{
+					new RC4(getDirectoryKey(encryptionSeed, salt)).encrypt(directoryBytes, 0, directoryBytes.length);
+				}
 
-				CO.writeInputStreamToOutputStream(fin, fout);
+				fout.write(directoryBytes);
+
+				//Write the trailer.
+				writer.putRaw(salt, 0, salt.length);
+				writer.putLong(offset);
+				writer.putInt(directoryBytes.length);
+				writer.putRaw(hash, 0, hash.length);
+				writer.putByte((byte) 0x00);
+				writer.putByte((byte) 0x04);
+				writer.putRaw(CRF, 0, CRF.length);
+				writer.putByte((byte) 0x27);
+				writer.putByte((byte) 0x44);
+				writer.putByte((byte) 0x02);
+				writer.writeTo(fout);
 
 				fout.close();
-				fin.close();
+				fout = null;
+
+				//The entries have been read; release this file before it is replaced. The old
+				//file is replaced rather than overwritten, so that buffers that are still mapped
+				//keep reading its contents.
+				this.close();
+
+				try
+				{
+					Files.move(file.toPath(), this.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (final AtomicMoveNotSupportedException e)
+				{
+					Files.move(file.toPath(), this.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
 
-				file.delete();
-				tempfile.delete();
+				//The offsets, the name table and the keys of the entries have all changed.
+				this.reload();
 			}
 			finally
 			{
 				CO.closeOutputStream(dataout);
-				CO.closeOutputStream(out);
-				CO.closeInputStream(fin);
 				CO.closeInputStream(in);
 				CO.closeOutputStream(fout);
+
+				if (file != null)
+				{
+					file.delete();
+				}
+
+				if (tempfile != null)
+				{
+					tempfile.delete();
+				}
 			}
 		}
 	}
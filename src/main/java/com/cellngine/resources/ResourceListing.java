@@ -0,0 +1,245 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.resources;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * A read-only view of the file names of a {@link com.cellngine.resources.ResourceFile
+ * ResourceFile} within a range, combining the names in its {@link NameTable} with those added
+ * since it was opened. Nothing is copied; the names are merged while iterating.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+final class ResourceListing extends AbstractMap<String, ResourceEntry> implements SortedMap<String, ResourceEntry>
+{
+	private final NameTable								table;
+	private final NavigableMap<String, ResourceEntry>	added;
+	private final List<ResourceEntry>					entries;
+	private final String								from;
+	private final String								to;
+
+	/**
+	 * @param table
+	 *            The names of the entries that were read from the file.
+	 * @param added
+	 *            The names added since, sorted by {@link NameTable#ORDER}. These take precedence.
+	 * @param entries
+	 *            The entries, by the index stored in the table.
+	 * @param from
+	 *            The lowest name in the view.
+	 * @param to
+	 *            The name after the highest name in the view, or {@code null} for no upper bound.
+	 */
+	ResourceListing(final NameTable table, final NavigableMap<String, ResourceEntry> added,
+			final List<ResourceEntry> entries, final String from, final String to)
+	{
+		this.table = table;
+		this.added = added;
+		this.entries = entries;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	public Set<Map.Entry<String, ResourceEntry>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<String, ResourceEntry>>()
+		{
+			@Override
+			public Iterator<Map.Entry<String, ResourceEntry>> iterator()
+			{
+				return ResourceListing.this.iterator();
+			}
+
+			@Override
+			public int size()
+			{
+				int size = 0;
+
+				for (final Iterator<?> i = this.iterator(); i.hasNext(); i.next())
+				{
+					size++;
+				}
+
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public ResourceEntry get(final Object key)
+	{
+		if (!(key instanceof String) || !this.inRange((String) key)) { return null; }
+
+		final ResourceEntry entry = this.added.get(key);
+
+		if (entry != null) { return entry; }
+
+		final int index = this.table.find((String) key);
+
+		return index < 0 ? null : this.entries.get(index);
+	}
+
+	@Override
+	public boolean containsKey(final Object key)
+	{
+		return this.get(key) != null;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return !this.iterator().hasNext();
+	}
+
+	@Override
+	public Comparator<? super String> comparator()
+	{
+		return NameTable.ORDER;
+	}
+
+	@Override
+	public SortedMap<String, ResourceEntry> subMap(final String fromKey, final String toKey)
+	{
+		if (NameTable.ORDER.compare(fromKey, toKey) > 0) { throw new IllegalArgumentException("fromKey > toKey"); }
+
+		return this.tailMap(fromKey).headMap(toKey);
+	}
+
+	@Override
+	public SortedMap<String, ResourceEntry> headMap(final String toKey)
+	{
+		final String to = this.to == null || NameTable.ORDER.compare(toKey, this.to) < 0 ? toKey : this.to;
+
+		return new ResourceListing(this.table, this.added, this.entries, this.from, to);
+	}
+
+	@Override
+	public SortedMap<String, ResourceEntry> tailMap(final String fromKey)
+	{
+		final String from = NameTable.ORDER.compare(fromKey, this.from) > 0 ? fromKey : this.from;
+
+		return new ResourceListing(this.table, this.added, this.entries, from, this.to);
+	}
+
+	@Override
+	public String firstKey()
+	{
+		return this.iterator().next().getKey();
+	}
+
+	@Override
+	public String lastKey()
+	{
+		final Iterator<Map.Entry<String, ResourceEntry>> i = this.iterator();
+		String last = i.next().getKey();
+
+		while (i.hasNext())
+		{
+			last = i.next().getKey();
+		}
+
+		return last;
+	}
+
+	private boolean inRange(final String key)
+	{
+		return NameTable.ORDER.compare(key, this.from) >= 0
+				&& (this.to == null || NameTable.ORDER.compare(key, this.to) < 0);
+	}
+
+	/**
+	 * Merges the names of the table and the added names in order. A name that occurs in both
+	 * belongs to the added entry.
+	 */
+	private Iterator<Map.Entry<String, ResourceEntry>> iterator()
+	{
+		final Iterator<Map.Entry<String, Integer>> tableNames = this.table.iterator(this.from);
+		final Iterator<Map.Entry<String, ResourceEntry>> addedNames = (this.to == null ? this.added.tailMap(
+				this.from, true) : this.added.subMap(this.from, true, this.to, false)).entrySet().iterator();
+
+		return new Iterator<Map.Entry<String, ResourceEntry>>()
+		{
+			private Map.Entry<String, Integer>			nextTableName	= this.advanceTable();
+			private Map.Entry<String, ResourceEntry>	nextAddedName	= this.advanceAdded();
+
+			@Override
+			public boolean hasNext()
+			{
+				return this.nextTableName != null || this.nextAddedName != null;
+			}
+
+			@Override
+			public Map.Entry<String, ResourceEntry> next()
+			{
+				if (!this.hasNext()) { throw new NoSuchElementException(); }
+
+				final int compare = this.nextTableName == null ? 1 : this.nextAddedName == null ? -1
+						: NameTable.ORDER.compare(this.nextTableName.getKey(), this.nextAddedName.getKey());
+
+				if (compare < 0)
+				{
+					final Map.Entry<String, Integer> name = this.nextTableName;
+					this.nextTableName = this.advanceTable();
+
+					return new AbstractMap.SimpleImmutableEntry<String, ResourceEntry>(name.getKey(),
+							ResourceListing.this.entries.get(name.getValue()));
+				}
+
+				if (compare == 0)
+				{
+					this.nextTableName = this.advanceTable();
+				}
+
+				final Map.Entry<String, ResourceEntry> name = this.nextAddedName;
+				this.nextAddedName = this.advanceAdded();
+
+				return new AbstractMap.SimpleImmutableEntry<String, ResourceEntry>(name);
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			private Map.Entry<String, Integer> advanceTable()
+			{
+				if (!tableNames.hasNext()) { return null; }
+
+				final Map.Entry<String, Integer> name = tableNames.next();
+
+				return ResourceListing.this.inRange(name.getKey()) ? name : null;
+			}
+
+			private Map.Entry<String, ResourceEntry> advanceAdded()
+			{
+				return addedNames.hasNext() ? addedNames.next() : null;
+			}
+		};
+	}
+}
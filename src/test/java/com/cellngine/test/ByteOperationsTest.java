@@ -0,0 +1,458 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.StringCodec;
+
+/**
+ * Test case for the offset, bulk and compact encodings of ByteOperations.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class ByteOperationsTest extends TestCase
+{
+	/*
+	 * The accessors agree with ByteBuffer in both byte orders, at every offset.
+	 */
+	public void test1()
+	{
+		final Random random = new Random(1);
+		final byte[] bytes = new byte[19];
+
+		for (int round = 0; round < 1000; round++)
+		{
+			random.nextBytes(bytes);
+
+			final ByteBuffer be = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+			final ByteBuffer le = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+			final int offset = random.nextInt(bytes.length - 7);
+
+			assertEquals(be.getShort(offset), ByteOperations.getShort(bytes, offset));
+			assertEquals(le.getShort(offset), ByteOperations.getShortLE(bytes, offset));
+			assertEquals(be.getInt(offset), ByteOperations.getInt(bytes, offset));
+			assertEquals(le.getInt(offset), ByteOperations.getIntLE(bytes, offset));
+			assertEquals(be.getLong(offset), ByteOperations.getLong(bytes, offset));
+			assertEquals(le.getLong(offset), ByteOperations.getLongLE(bytes, offset));
+
+			final long value = random.nextLong();
+
+			ByteOperations.putShort(bytes, offset, (short) value);
+			assertEquals((short) value, be.getShort(offset));
+			ByteOperations.putShortLE(bytes, offset, (short) value);
+			assertEquals((short) value, le.getShort(offset));
+			ByteOperations.putInt(bytes, offset, (int) value);
+			assertEquals((int) value, be.getInt(offset));
+			ByteOperations.putIntLE(bytes, offset, (int) value);
+			assertEquals((int) value, le.getInt(offset));
+			ByteOperations.putLong(bytes, offset, value);
+			assertEquals(value, be.getLong(offset));
+			ByteOperations.putLongLE(bytes, offset, value);
+			assertEquals(value, le.getLong(offset));
+		}
+
+		assertEquals(-2, ByteOperations.getInt(ByteOperations.toBytes(-2)));
+		assertEquals(Long.MIN_VALUE, ByteOperations.getLong(ByteOperations.toBytes(Long.MIN_VALUE)));
+	}
+
+	/*
+	 * Values that do not fit within the array are rejected.
+	 */
+	public void test2()
+	{
+		final byte[] bytes = new byte[8];
+
+		ByteOperations.getLong(bytes, 0);
+		ByteOperations.putInt(bytes, 4, 1);
+
+		final int[] offsets = { -1, 5, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+		for (final int offset : offsets)
+		{
+			try
+			{
+				ByteOperations.getInt(bytes, offset);
+				fail();
+			}
+			catch (final IndexOutOfBoundsException e)
+			{
+			}
+
+			try
+			{
+				ByteOperations.putLongLE(bytes, offset - 4, 1);
+				fail();
+			}
+			catch (final IndexOutOfBoundsException e)
+			{
+			}
+		}
+	}
+
+	/*
+	 * Bulk accessors match the element-wise ByteBuffer methods in both byte
+	 * orders, and the length-prefixed variants round trip.
+	 */
+	public void test3()
+	{
+		final Random random = new Random(2);
+		final int[] ints = new int[1001];
+		final long[] longs = new long[33];
+		final short[] shorts = new short[77];
+		final float[] floats = new float[50];
+		final double[] doubles = new double[20];
+
+		for (int i = 0; i < ints.length; i++)
+		{
+			ints[i] = random.nextInt();
+		}
+
+		for (int i = 0; i < longs.length; i++)
+		{
+			longs[i] = random.nextLong();
+		}
+
+		for (int i = 0; i < shorts.length; i++)
+		{
+			shorts[i] = (short) random.nextInt();
+		}
+
+		for (int i = 0; i < floats.length; i++)
+		{
+			floats[i] = random.nextFloat() - 0.5f;
+		}
+
+		for (int i = 0; i < doubles.length; i++)
+		{
+			doubles[i] = random.nextGaussian();
+		}
+
+		for (final ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN })
+		{
+			final ByteBuffer bb = ByteBuffer.allocate(8192).order(order);
+			bb.put((byte) 1);
+			ByteOperations.putInts(bb, ints, 1, 1000);
+			assertEquals(1 + 4000, bb.position());
+
+			for (int i = 0; i < 1000; i++)
+			{
+				assertEquals(ints[i + 1], bb.getInt(1 + i * 4));
+			}
+
+			final int[] back = new int[1001];
+			bb.position(1);
+			ByteOperations.getInts(bb, back, 1, 1000);
+			assertEquals(1 + 4000, bb.position());
+
+			back[0] = ints[0];
+			assertTrue(Arrays.equals(ints, back));
+		}
+
+		assertTrue(Arrays.equals(ints, ByteOperations.getIntArray(ByteOperations.toBytes(ints))));
+		assertTrue(Arrays.equals(longs, ByteOperations.getLongArray(ByteOperations.toBytes(longs))));
+		assertTrue(Arrays.equals(shorts, ByteOperations.getShortArray(ByteOperations.toBytes(shorts))));
+		assertTrue(Arrays.equals(floats, ByteOperations.getFloatArray(ByteOperations.toBytes(floats))));
+		assertTrue(Arrays.equals(doubles, ByteOperations.getDoubleArray(ByteOperations.toBytes(doubles))));
+
+		//The format is the element count followed by big-endian elements.
+		final byte[] bytes = ByteOperations.toBytes(new int[] { 1, -2 });
+		assertEquals(12, bytes.length);
+		assertEquals(2, ByteOperations.getInt(bytes, 0));
+		assertEquals(-2, ByteOperations.getInt(bytes, 8));
+
+		//Reading from a little-endian buffer still uses the big-endian format.
+		final ByteBuffer le = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		assertTrue(Arrays.equals(new int[] { 1, -2 }, ByteOperations.getIntArray(le)));
+		assertEquals(12, le.position());
+	}
+
+	/*
+	 * Truncated and corrupt length-prefixed arrays.
+	 */
+	public void test4()
+	{
+		final byte[] bytes = ByteOperations.toBytes(new long[] { 1, 2, 3 });
+
+		try
+		{
+			ByteOperations.getLongArray(Arrays.copyOf(bytes, bytes.length - 1));
+			fail();
+		}
+		catch (final BufferUnderflowException e)
+		{
+		}
+
+		try
+		{
+			ByteOperations.getDoubleArray(ByteOperations.toBytes(Integer.MAX_VALUE));
+			fail();
+		}
+		catch (final BufferUnderflowException e)
+		{
+		}
+
+		try
+		{
+			ByteOperations.getShortArray(ByteOperations.toBytes(-1));
+			fail();
+		}
+		catch (final BufferUnderflowException e)
+		{
+		}
+	}
+
+	/*
+	 * Varints and zigzag encoding: sizes, round trips through buffers and streams, and malformed input.
+	 */
+	public void test5() throws IOException
+	{
+		assertEquals(1, ByteOperations.toVarInt(0).length);
+		assertEquals(1, ByteOperations.toVarInt(127).length);
+		assertEquals(2, ByteOperations.toVarInt(128).length);
+		assertEquals(5, ByteOperations.toVarInt(-1).length);
+		assertEquals(10, ByteOperations.toVarLong(-1L).length);
+		assertEquals(1, ByteOperations.toVarInt(ByteOperations.encodeZigZag(-64)).length);
+		assertEquals(0x96, ByteOperations.toVarInt(150)[0] & 0xFF);
+		assertEquals(0x01, ByteOperations.toVarInt(150)[1]);
+
+		final Random random = new Random(1);
+		final ByteBuffer bb = ByteBuffer.allocate(15 * 1000);
+
+		for (int i = 0; i < 1000; i++)
+		{
+			final int value = random.nextInt() >> random.nextInt(32);
+			final long longValue = random.nextLong() >> random.nextInt(64);
+
+			assertEquals(value, ByteOperations.decodeZigZag(ByteOperations.encodeZigZag(value)));
+			assertEquals(longValue, ByteOperations.decodeZigZag(ByteOperations.encodeZigZag(longValue)));
+			assertEquals(ByteOperations.getVarIntSize(value), ByteOperations.toVarInt(value).length);
+			assertEquals(ByteOperations.getVarLongSize(longValue), ByteOperations.toVarLong(longValue).length);
+
+			ByteOperations.putVarInt(bb, value);
+			ByteOperations.putVarLong(bb, longValue);
+		}
+
+		final byte[] bytes = Arrays.copyOf(bb.array(), bb.position());
+		final ByteBuffer in = ByteBuffer.wrap(bytes);
+		final InputStream stream = new ByteArrayInputStream(bytes);
+		random.setSeed(1);
+
+		for (int i = 0; i < 1000; i++)
+		{
+			final int value = random.nextInt() >> random.nextInt(32);
+			final long longValue = random.nextLong() >> random.nextInt(64);
+
+			assertEquals(value, ByteOperations.getVarInt(in));
+			assertEquals(longValue, ByteOperations.getVarLong(in));
+			assertEquals(value, ByteOperations.getVarInt(stream));
+			assertEquals(longValue, ByteOperations.getVarLong(stream));
+		}
+
+		assertFalse(in.hasRemaining());
+		assertEquals(-1, stream.read());
+
+		try
+		{
+			ByteOperations.getVarInt(ByteBuffer.wrap(new byte[] { (byte) 0x80 }));
+			fail();
+		}
+		catch (final BufferUnderflowException e)
+		{
+		}
+
+		try
+		{
+			ByteOperations.getVarInt(new ByteArrayInputStream(new byte[] { (byte) 0x80 }));
+			fail();
+		}
+		catch (final EOFException e)
+		{
+		}
+
+		try
+		{
+			ByteOperations.getVarInt(ByteBuffer.wrap(ByteOperations.toVarLong(-1L)));
+			fail();
+		}
+		catch (final IllegalArgumentException e)
+		{
+		}
+	}
+
+	/*
+	 * The compact BigDecimal encoding keeps value and scale, for small and huge unscaled values.
+	 */
+	public void test6() throws IOException
+	{
+		final BigDecimal[] values = { BigDecimal.ZERO, new BigDecimal("12.50"), new BigDecimal("-0.01"),
+				new BigDecimal("1E+10"), new BigDecimal(Long.MAX_VALUE), new BigDecimal(Long.MIN_VALUE),
+				new BigDecimal("-92233720368547758.09"), new BigDecimal("123456789012345678901234567890.123456789") };
+
+		for (final BigDecimal value : values)
+		{
+			final byte[] bytes = ByteOperations.toCompactBytes(value);
+
+			assertEquals(ByteOperations.getCompactBigDecimalSize(value), bytes.length);
+			assertEquals(value, ByteOperations.getCompactBigDecimal(bytes));
+			assertEquals(value, ByteOperations.getCompactBigDecimal(new ByteArrayInputStream(bytes)));
+		}
+
+		assertEquals(4, ByteOperations.toCompactBytes(new BigDecimal("12.50")).length);
+
+		try
+		{
+			ByteOperations.getCompactBigDecimal(Arrays.copyOf(ByteOperations.toCompactBytes(values[7]), 10));
+			fail();
+		}
+		catch (final BufferUnderflowException e)
+		{
+		}
+	}
+
+	/*
+	 * Varints with bits beyond the size of an int or a long in their last byte are rejected
+	 * instead of being truncated.
+	 */
+	public void test7() throws IOException
+	{
+		final byte[][] ints = { { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x1F },
+				{ (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x70 } };
+		final byte[][] longs = { { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+				(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x03 },
+				{ (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+						(byte) 0x80, 0x40 } };
+
+		for (final byte[] bytes : ints)
+		{
+			try
+			{
+				ByteOperations.getVarInt(ByteBuffer.wrap(bytes));
+				fail();
+			}
+			catch (final IllegalArgumentException e)
+			{
+			}
+
+			try
+			{
+				ByteOperations.getVarInt(new ByteArrayInputStream(bytes));
+				fail();
+			}
+			catch (final IOException e)
+			{
+				assertFalse(e instanceof EOFException);
+			}
+		}
+
+		for (final byte[] bytes : longs)
+		{
+			try
+			{
+				ByteOperations.getVarLong(ByteBuffer.wrap(bytes));
+				fail();
+			}
+			catch (final IllegalArgumentException e)
+			{
+			}
+
+			try
+			{
+				ByteOperations.getVarLong(new ByteArrayInputStream(bytes));
+				fail();
+			}
+			catch (final IOException e)
+			{
+				assertFalse(e instanceof EOFException);
+			}
+		}
+
+		//The largest values still fit.
+		assertEquals(-1, ByteOperations.getVarInt(ByteBuffer.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+				(byte) 0xFF, 0x0F })));
+		assertEquals(Long.MIN_VALUE, ByteOperations.getVarLong(new ByteArrayInputStream(ByteOperations
+				.toVarLong(Long.MIN_VALUE))));
+	}
+
+	/*
+	 * A compact BigDecimal claiming a huge length is rejected once the stream runs out, without
+	 * allocating the claimed length up front. Large values that are really there still read fine.
+	 */
+	public void test8() throws IOException
+	{
+		final byte[] forged = { 0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0x01, 0x02 };
+
+		try
+		{
+			ByteOperations.getCompactBigDecimal(new ByteArrayInputStream(forged));
+			fail();
+		}
+		catch (final EOFException e)
+		{
+		}
+
+		final BigDecimal large = new BigDecimal(new BigInteger(2000000, new Random(8)), 12);
+		final InputStream in = new ByteArrayInputStream(ByteOperations.toCompactBytes(large));
+
+		assertEquals(large, ByteOperations.getCompactBigDecimal(in));
+		assertEquals(-1, in.read());
+	}
+
+	/*
+	 * A string claiming a huge length is rejected once the stream runs out, with and without a
+	 * cache, without allocating the claimed length up front.
+	 */
+	public void test9() throws IOException
+	{
+		final byte[] forged = { 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 'a', 'b', 'c' };
+
+		for (final StringCodec.Cache cache : new StringCodec.Cache[] { null, new StringCodec.Cache() })
+		{
+			try
+			{
+				ByteOperations.getString(new ByteArrayInputStream(forged), cache);
+				fail();
+			}
+			catch (final EOFException e)
+			{
+			}
+		}
+
+		try
+		{
+			ByteOperations.getString(new ByteArrayInputStream(new byte[] { (byte) 0x80, 0x00, 0x00, 0x00 }));
+			fail();
+		}
+		catch (final IOException e)
+		{
+			assertFalse(e instanceof EOFException);
+		}
+	}
+}
@@ -0,0 +1,353 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.cellngine.CO;
+import com.cellngine.Constants;
+
+/**
+ * Test case for the parsers and the copy engine of CO.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class COTest extends TestCase
+{
+	private static final String[]	SAMPLES	= { "0", "-0", "+7", "-", "+", "", " 1", "1 ", "12a", "2147483647",
+			"2147483648", "-2147483648", "-2147483649", "9223372036854775807", "9223372036854775808",
+			"-9223372036854775808", "-9223372036854775809", "0042", "1.50", "-0.01", ".5", "5.", ".", "1.2.3", "1e5",
+			"1E+10", "-2.5e-3", "1e", "1e+", "1e2147483647", "1e-2147483648", "1e2147483648", "1e99999999999",
+			"123456789012345678901234567890.12345", "-92233720368547758.08", "\uff11\uff12", "1_000" };
+
+	/*
+	 * The parsers accept exactly what the JDK parsers accept, and return the default otherwise.
+	 */
+	public void test1()
+	{
+		final Random random = new Random(1);
+		final String alphabet = "0123456789+-.eE";
+
+		for (int round = 0; round < 20000; round++)
+		{
+			final String string;
+
+			if (round < SAMPLES.length)
+			{
+				string = SAMPLES[round];
+			}
+			else
+			{
+				final char[] chars = new char[1 + random.nextInt(22)];
+
+				for (int i = 0; i < chars.length; i++)
+				{
+					chars[i] = random.nextInt(4) == 0 ? alphabet.charAt(random.nextInt(alphabet.length())) : (char) ('0' + random
+							.nextInt(10));
+				}
+
+				string = new String(chars);
+			}
+
+			assertEquals(string, jdkInt(string), CO.parseInt(string, -1));
+			assertEquals(string, jdkLong(string), CO.parseLong(string, -1));
+			assertEquals(string, jdkBigDecimal(string), CO.parseBigDecimal(string, null));
+
+			//The same characters in the middle of a larger sequence.
+			final String padded = "x" + string + "y";
+			assertEquals(string, jdkInt(string), CO.parseInt(padded, 1, padded.length() - 1, -1));
+			assertEquals(string, jdkLong(string), CO.parseLong(padded, 1, padded.length() - 1, -1));
+			assertEquals(string, jdkBigDecimal(string), CO.parseBigDecimal(padded, 1, padded.length() - 1, null));
+
+			final byte[] bytes = padded.getBytes(Constants.charset);
+
+			if (bytes.length == padded.length())
+			{
+				assertEquals(string, jdkInt(string), CO.parseInt(bytes, 1, bytes.length - 2, -1));
+				assertEquals(string, jdkLong(string), CO.parseLong(bytes, 1, bytes.length - 2, -1));
+				assertEquals(string, jdkBigDecimal(string), CO.parseBigDecimal(bytes, 1, bytes.length - 2, null));
+			}
+		}
+	}
+
+	/*
+	 * The existing conversions keep their defaults.
+	 */
+	public void test2()
+	{
+		assertEquals(12, CO.toInt("12"));
+		assertEquals(12, CO.toInt(Integer.valueOf(12)));
+		assertEquals(0, CO.toInt("twelve"));
+		assertEquals(0, CO.toInt(null));
+		assertEquals(Long.MIN_VALUE, CO.toLong(Long.MIN_VALUE));
+		assertEquals(0l, CO.toLong("1.5"));
+		assertEquals(new BigDecimal("-1.50"), CO.toBigDecimal("-1.50"));
+		assertEquals(new BigDecimal("0.00"), CO.toBigDecimal("1,50"));
+		assertEquals(new BigDecimal("0.00"), CO.toBigDecimal(null));
+
+		//Bytes outside of ASCII are never digits.
+		assertEquals(-1, CO.parseInt(new byte[] { '1', (byte) 0xB2 }, 0, 2, -1));
+
+		try
+		{
+			CO.parseInt("123", 2, 4, 0);
+			fail();
+		}
+		catch (final IndexOutOfBoundsException e)
+		{
+		}
+	}
+
+	/*
+	 * The copy engine copies between files, channels and streams, starting at the current
+	 * positions.
+	 */
+	public void test3() throws IOException
+	{
+		final byte[] data = new byte[300000];
+		new Random(1).nextBytes(data);
+
+		final File source = File.createTempFile("copy", ".bin");
+		final File target = File.createTempFile("copy", ".bin");
+
+		try
+		{
+			FileOutputStream fout = new FileOutputStream(source);
+			assertEquals(data.length, CO.copy(new ByteArrayInputStream(data), fout));
+			fout.close();
+
+			//File to file, from the middle of the source, appended to existing content.
+			FileInputStream fin = new FileInputStream(source);
+			fin.skip(1000);
+			fout = new FileOutputStream(target);
+			fout.write(data, 0, 1000);
+			assertEquals(data.length - 1000, CO.copy(fin, fout));
+			assertEquals(-1, fin.read());
+			fout.close();
+			fin.close();
+			assertTrue(Arrays.equals(data, CO.getBytesFromFile(target)));
+
+			//File channel to any channel.
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			fin = new FileInputStream(source);
+			assertEquals(data.length, CO.copy(fin.getChannel(), Channels.newChannel(baos)));
+			fin.close();
+			assertTrue(Arrays.equals(data, baos.toByteArray()));
+
+			//Any channel to a file channel.
+			final RandomAccessFile raf = new RandomAccessFile(target, "rw");
+			raf.setLength(0);
+			raf.write(data, 0, 10);
+			assertEquals(data.length - 10, CO.copy(Channels.newChannel(new ByteArrayInputStream(data, 10,
+					data.length - 10)), raf.getChannel()));
+			assertEquals(data.length, raf.getChannel().position());
+			raf.close();
+			assertTrue(Arrays.equals(data, CO.getBytesFromFile(target)));
+
+			//Neither side a file.
+			final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+			assertEquals(data.length, CO.copy(Channels.newChannel(new ByteArrayInputStream(data)), Channels
+					.newChannel(copy)));
+			assertTrue(Arrays.equals(data, copy.toByteArray()));
+		}
+		finally
+		{
+			source.delete();
+			target.delete();
+		}
+	}
+
+	/*
+	 * Lengths of file and byte array streams are known without reading them; other streams are
+	 * drained.
+	 */
+	public void test4() throws IOException
+	{
+		final byte[] data = new byte[100000];
+		final File file = File.createTempFile("length", ".bin");
+
+		try
+		{
+			final FileOutputStream fout = new FileOutputStream(file);
+			fout.write(data);
+			fout.close();
+
+			final FileInputStream fin = new FileInputStream(file);
+			assertEquals(99000, fin.skip(99000));
+			assertEquals(1000, CO.getLength(fin));
+			assertEquals(1000, CO.getLength(fin));
+			fin.close();
+		}
+		finally
+		{
+			file.delete();
+		}
+
+		final ByteArrayInputStream bais = new ByteArrayInputStream(data, 10, 500);
+		assertEquals(500, CO.getLength(bais));
+		assertEquals(0, bais.read());
+
+		assertEquals(data.length, CO.getLength(new BufferedInputStream(new ByteArrayInputStream(data))));
+		assertEquals(data.length, CO.getLengthOfInputStream(new ByteArrayInputStream(data)));
+	}
+
+	/*
+	 * Whole inputs are read into exactly sized arrays and buffers, and the cap is enforced.
+	 */
+	public void test5() throws IOException
+	{
+		final byte[] data = new byte[100000];
+		new Random(1).nextBytes(data);
+
+		final File file = File.createTempFile("read", ".bin");
+
+		try
+		{
+			final FileOutputStream fout = new FileOutputStream(file);
+			fout.write(data);
+			fout.close();
+
+			assertTrue(Arrays.equals(data, CO.getBytesFromFile(file)));
+			assertTrue(Arrays.equals(data, CO.getBytesFromInputStream(new ByteArrayInputStream(data), true)));
+			assertTrue(Arrays.equals(data, CO.getBytesFromInputStream(new BufferedInputStream(new ByteArrayInputStream(
+					data), 100), true)));
+			assertEquals(0, CO.getBytesFromInputStream(new BufferedInputStream(new ByteArrayInputStream(new byte[0])),
+					true).length);
+
+			for (final boolean map : new boolean[] { false, true })
+			{
+				final ByteBuffer buffer = CO.getByteBufferFromFile(file, map);
+				assertEquals(0, buffer.position());
+				assertEquals(data.length, buffer.remaining());
+
+				final byte[] bytes = new byte[data.length];
+				buffer.get(bytes);
+				assertTrue(Arrays.equals(data, bytes));
+			}
+
+			final ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+			assertEquals(data.length, CO.readFully(new BufferedInputStream(new ByteArrayInputStream(data)), direct));
+			assertEquals(data.length, direct.position());
+
+			try
+			{
+				CO.getBytesFromFile(file, data.length - 1);
+				fail();
+			}
+			catch (final IOException e)
+			{
+			}
+
+			try
+			{
+				CO.getBytesFromInputStream(new BufferedInputStream(new ByteArrayInputStream(data)), true, 1000);
+				fail();
+			}
+			catch (final IOException e)
+			{
+			}
+
+			assertEquals(data.length, CO.getBytesFromFile(file, data.length).length);
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * Files that report a size of 0, such as pipes and the files in /proc, are read up to their
+	 * end instead of being taken as empty.
+	 */
+	public void test6() throws IOException
+	{
+		final File empty = File.createTempFile("read", ".bin");
+
+		try
+		{
+			assertEquals(0, CO.getBytesFromFile(empty).length);
+			assertEquals(0, CO.getLength(new FileInputStream(empty)));
+		}
+		finally
+		{
+			empty.delete();
+		}
+
+		//Only available on Linux.
+		final File status = new File("/proc/self/status");
+
+		if (status.exists())
+		{
+			assertEquals(0, status.length());
+
+			final byte[] bytes = CO.getBytesFromFile(status);
+			assertTrue(new String(bytes, Constants.charset).startsWith("Name:"));
+			assertTrue(CO.getBytesFromInputStream(new FileInputStream(status), true, 100000).length > 0);
+			assertTrue(CO.getLength(new FileInputStream(status)) > 0);
+		}
+	}
+
+	private static int jdkInt(final String string)
+	{
+		try
+		{
+			return Integer.parseInt(string);
+		}
+		catch (final NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	private static long jdkLong(final String string)
+	{
+		try
+		{
+			return Long.parseLong(string);
+		}
+		catch (final NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	private static BigDecimal jdkBigDecimal(final String string)
+	{
+		try
+		{
+			return new BigDecimal(string);
+		}
+		catch (final NumberFormatException e)
+		{
+			return null;
+		}
+	}
+}
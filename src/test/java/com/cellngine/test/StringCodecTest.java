@@ -0,0 +1,141 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.Constants;
+import com.cellngine.StringCodec;
+
+/**
+ * Test case for StringCodec.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class StringCodecTest extends TestCase
+{
+	private static final char[]	CHARS	= { 'a', 'Z', '/', '\u00e9', '\u07ff', '\u0800', '\u20ac', '\uffff',
+			'\ud83d', '\ude00'			};
+
+	/*
+	 * Encoding produces the same bytes as String.getBytes(), including the replacement of unpaired
+	 * surrogates, and decoding restores the string.
+	 */
+	public void test1()
+	{
+		final Random random = new Random(1);
+
+		for (int round = 0; round < 1000; round++)
+		{
+			final char[] chars = new char[random.nextInt(40)];
+
+			for (int i = 0; i < chars.length; i++)
+			{
+				chars[i] = random.nextBoolean() ? (char) ('a' + random.nextInt(26)) : CHARS[random.nextInt(CHARS.length)];
+			}
+
+			final String string = new String(chars);
+			final byte[] expected = string.getBytes(Constants.charset);
+
+			assertEquals(expected.length, StringCodec.getEncodedLength(string));
+			assertTrue(Arrays.equals(expected, StringCodec.encode(string)));
+
+			final byte[] bytes = new byte[2 + chars.length * 3];
+			assertEquals(expected.length, StringCodec.encode(string, bytes, 2));
+			assertTrue(Arrays.equals(expected, Arrays.copyOfRange(bytes, 2, 2 + expected.length)));
+			assertEquals(new String(expected, Constants.charset), StringCodec.decode(bytes, 2, expected.length));
+
+			assertTrue(Arrays.equals(ByteOperations.toBytes(expected), ByteOperations.toBytes(string)));
+			assertEquals(new String(expected, Constants.charset), ByteOperations.getString(ByteOperations
+					.toBytes(string)));
+		}
+	}
+
+	/*
+	 * Encoding into a ByteBuffer writes nothing when the bytes do not fit.
+	 */
+	public void test2()
+	{
+		final String string = "\u20ac\u20ac";
+
+		final ByteBuffer bb = ByteBuffer.allocate(7);
+		bb.position(2);
+
+		try
+		{
+			StringCodec.encode(string, bb);
+			fail();
+		}
+		catch (final BufferOverflowException e)
+		{
+		}
+
+		assertEquals(2, bb.position());
+
+		bb.position(1);
+		assertEquals(6, StringCodec.encode(string, bb));
+		assertEquals(7, bb.position());
+
+		bb.position(1);
+		assertEquals(string, StringCodec.decode(bb, 6));
+
+		final ByteBuffer direct = ByteBuffer.allocateDirect(6);
+		StringCodec.encode(string, direct);
+		direct.flip();
+		assertEquals(string, StringCodec.decode(direct, 6));
+	}
+
+	/*
+	 * The cache returns the same instance for repeated byte sequences, handles collisions, and
+	 * does not keep sequences over the maximum length.
+	 */
+	public void test3()
+	{
+		final StringCodec.Cache cache = new StringCodec.Cache(16, 8);
+		final byte[] bytes = "xxnamekey12345678".getBytes(Constants.charset);
+
+		final String name = cache.decode(bytes, 2, 4);
+		assertEquals("name", name);
+		assertSame(name, cache.decode("name".getBytes(Constants.charset), 0, 4));
+		assertSame(name, cache.decode(ByteBuffer.wrap(bytes, 2, 4), 4));
+
+		final String key = cache.decode(bytes, 6, 3);
+		assertEquals("key", key);
+		assertSame(key, cache.decode(bytes, 6, 3));
+
+		final String tooLong = cache.decode(bytes, 0, 9);
+		assertEquals("xxnamekey", tooLong);
+		assertNotSame(tooLong, cache.decode(bytes, 0, 9));
+
+		//With a single entry every sequence collides.
+		final StringCodec.Cache tiny = new StringCodec.Cache(1, 8);
+
+		for (int i = 0; i < 100; i++)
+		{
+			final String string = Integer.toString(i % 7);
+			assertEquals(string, tiny.decode(string.getBytes(Constants.charset), 0, string.length()));
+		}
+
+		assertEquals("", cache.decode(bytes, 0, 0));
+	}
+}
@@ -0,0 +1,113 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cellngine.ByteOperations;
+
+/**
+ * Compares encoding and decoding a grid of cell states element by element against the bulk array
+ * methods of {@link com.cellngine.ByteOperations ByteOperations}.<br />
+ * <br />
+ *
+ * Run with {@code mvn test-compile exec:exec -Pbenchmark -Dbenchmark=ByteOperationsBenchmark}.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteOperationsBenchmark
+{
+	@Param({ "4096", "65536" })
+	public int		cells;
+
+	private int[]	grid;
+	private byte[]	encoded;
+
+	@Setup
+	public void setUp()
+	{
+		final Random random = new Random(1);
+		this.grid = new int[this.cells];
+
+		for (int i = 0; i < this.grid.length; i++)
+		{
+			this.grid[i] = random.nextInt();
+		}
+
+		this.encoded = ByteOperations.toBytes(this.grid);
+	}
+
+	@Benchmark
+	public byte[] encodeElementwise() throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(4 + this.grid.length * 4);
+		out.write(ByteOperations.toBytes(this.grid.length));
+
+		for (final int cell : this.grid)
+		{
+			out.write(ByteOperations.toBytes(cell));
+		}
+
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] encodeBulk()
+	{
+		return ByteOperations.toBytes(this.grid);
+	}
+
+	@Benchmark
+	public int[] decodeElementwise()
+	{
+		final int[] grid = new int[ByteOperations.getInt(this.encoded, 0)];
+
+		for (int i = 0; i < grid.length; i++)
+		{
+			grid[i] = ByteOperations.getInt(this.encoded, 4 + i * 4);
+		}
+
+		return grid;
+	}
+
+	@Benchmark
+	public int[] decodeBulk()
+	{
+		return ByteOperations.getIntArray(this.encoded);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.cellngine.crypto.RC4;
+import com.cellngine.io.BoundedInputStream;
+import com.cellngine.io.DelayedStreamCipherInputStream;
+import com.cellngine.io.StreamCipherOutputStream;
+import com.cellngine.io.StreamPipeline;
+
+/**
+ * Compares reading an encrypted, gzip compressed entry through the layered stream classes against
+ * reading it through a {@link com.cellngine.io.StreamPipeline StreamPipeline}.<br />
+ * <br />
+ *
+ * Run with {@code mvn test-compile exec:exec -Pbenchmark -Dbenchmark=StreamPipelineBenchmark}.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamPipelineBenchmark
+{
+	private static final byte[]	SEED		= "benchmark".getBytes();
+	private static final int	HEADER		= 13;
+	private static final int	PREFIX		= 4096;
+
+	@Param({ "256", "4096", "65536" })
+	public int					entrySize;
+
+	private File				file;
+	private int					entryLength;
+	private final byte[]		consumer	= new byte[4096];
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		final byte[] contents = new byte[this.entrySize];
+		final Random random = new Random(42);
+
+		//Half random, half repetitive so that the entry is actually worth compressing.
+		for (int i = 0; i < contents.length; i++)
+		{
+			contents[i] = (byte) (i % 2 == 0 ? random.nextInt(256) : i % 16);
+		}
+
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		final GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		gzip.write(contents);
+		gzip.close();
+
+		final byte[] entry = compressed.toByteArray();
+		this.entryLength = entry.length;
+
+		this.file = File.createTempFile("pipeline", ".bin");
+		this.file.deleteOnExit();
+
+		final FileOutputStream fout = new FileOutputStream(this.file);
+
+		try
+		{
+			fout.write(new byte[HEADER]);
+
+			final OutputStream out = new StreamCipherOutputStream(fout, new RC4(SEED));
+			out.write(new byte[PREFIX]);
+			out.write(entry);
+			out.write(new byte[PREFIX]);
+			out.flush();
+		}
+		finally
+		{
+			fout.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.file.delete();
+	}
+
+	@Benchmark
+	public void layered(final Blackhole blackhole) throws IOException
+	{
+		InputStream in = new DelayedStreamCipherInputStream(new FileInputStream(this.file), new RC4(SEED), HEADER);
+
+		in.skip(HEADER + PREFIX);
+		in = new GZIPInputStream(new BoundedInputStream(in, this.entryLength));
+
+		this.consume(in, blackhole);
+	}
+
+	@Benchmark
+	public void fused(final Blackhole blackhole) throws IOException
+	{
+		final InputStream in = new StreamPipeline(new FileInputStream(this.file))
+				.region(HEADER + PREFIX, this.entryLength).decrypt(new RC4(SEED), HEADER).inflate().open();
+
+		this.consume(in, blackhole);
+	}
+
+	private void consume(final InputStream in, final Blackhole blackhole) throws IOException
+	{
+		try
+		{
+			int i;
+
+			while ((i = in.read(this.consumer)) > -1)
+			{
+				blackhole.consume(i);
+			}
+
+			blackhole.consume(this.consumer);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cellngine.crypto.RC4;
+import com.cellngine.net.Connection;
+import com.cellngine.net.ConnectionHandler;
+import com.cellngine.net.Transport;
+
+/**
+ * Measures the throughput of encrypted messages sent from a client to a server over the loopback
+ * interface. Everything runs locally within the benchmark process.<br />
+ * <br />
+ *
+ * Run with {@code mvn test-compile exec:exec -Pbenchmark -Dbenchmark=TransportBenchmark}.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark
+{
+	private static final int	BATCH		= 1000;
+	private static final byte[]	SEED		= "benchmark".getBytes();
+
+	@Param({ "SELECTOR", "THREAD_PER_CONNECTION" })
+	public Transport.Mode		mode;
+
+	@Param({ "32", "1024" })
+	public int					messageSize;
+
+	private final Semaphore		received	= new Semaphore(0);
+	private Transport			server;
+	private Transport			client;
+	private Connection			connection;
+	private byte[]				message;
+
+	private class Handler implements ConnectionHandler
+	{
+		private final boolean	server;
+
+		public Handler(final boolean server)
+		{
+			this.server = server;
+		}
+
+		@Override
+		public void connected(final Connection connection)
+		{
+			//The server enables encryption before the first message is read, the client
+			//does so right after connecting.
+			if (this.server)
+			{
+				connection.setStreamCiphers(new RC4(SEED), new RC4(SEED));
+			}
+		}
+
+		@Override
+		public void received(final Connection connection, final byte[] message)
+		{
+			TransportBenchmark.this.received.release();
+		}
+
+		@Override
+		public void writabilityChanged(final Connection connection, final boolean writable)
+		{
+		}
+
+		@Override
+		public void disconnected(final Connection connection, final IOException cause)
+		{
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		this.message = new byte[this.messageSize];
+
+		this.server = new Transport(new Handler(true), this.mode);
+		this.client = new Transport(new Handler(false), this.mode);
+
+		final InetSocketAddress address = this.server
+				.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		this.connection = this.client.connect(address);
+		this.connection.setStreamCiphers(new RC4(SEED), new RC4(SEED));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.client.close();
+		this.server.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void send() throws IOException, InterruptedException
+	{
+		for (int i = 0; i < BATCH; i++)
+		{
+			this.connection.send(this.message);
+		}
+
+		this.received.acquire(BATCH);
+	}
+}
@@ -0,0 +1,100 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.cellngine.CO;
+import com.cellngine.crypto.DigestPool;
+import com.cellngine.io.BufferPool;
+
+/**
+ * Test case for DigestPool and the hash functions of CO that use it.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class DigestPoolTest extends TestCase
+{
+	/*
+	 * Released digests are reset and handed out again; nested use gets a separate instance.
+	 */
+	public void test1() throws Exception
+	{
+		final MessageDigest md = DigestPool.acquire("SHA-256");
+		md.update((byte) 1);
+
+		final MessageDigest nested = DigestPool.acquire("SHA-256");
+		assertNotSame(md, nested);
+		DigestPool.release(nested);
+		DigestPool.release(md);
+
+		final MessageDigest again = DigestPool.acquire("SHA-256");
+		assertTrue(again == md || again == nested);
+		assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(), again.digest()));
+		DigestPool.release(again);
+
+		final BufferPool pool = new BufferPool(16, 1);
+		final byte[] buffer = pool.acquire();
+		pool.release(buffer);
+		pool.release(new byte[16]);
+		pool.release(new byte[8]);
+		assertSame(buffer, pool.acquire());
+		assertNotSame(buffer, pool.acquire());
+	}
+
+	/*
+	 * All inputs produce the same hash as a fresh MessageDigest.
+	 */
+	public void test2() throws Exception
+	{
+		final byte[] data = new byte[3 * BufferPool.DEFAULT_BUFFER_SIZE + 17];
+		new Random(1).nextBytes(data);
+
+		final byte[] expected = MessageDigest.getInstance("SHA-512").digest(data);
+
+		assertTrue(Arrays.equals(expected, CO.makeHash(data, "SHA-512")));
+		assertTrue(Arrays.equals(expected, CO.makeHash(new ByteArrayInputStream(data), "SHA-512")));
+
+		final ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 4);
+		direct.putInt(7).put(data).position(4);
+		assertTrue(Arrays.equals(expected, CO.makeHash(direct, "SHA-512")));
+		assertEquals(4, direct.position());
+
+		final File file = File.createTempFile("digest", ".bin");
+
+		try
+		{
+			final FileOutputStream out = new FileOutputStream(file);
+			out.write(data);
+			out.close();
+
+			assertTrue(Arrays.equals(expected, CO.makeHash(file, "SHA-512")));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.crypto;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.cellngine.CO;
+import com.cellngine.crypto.HKDF;
+
+/**
+ * Test case for HKDF.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class HKDFTest extends TestCase
+{
+	/*
+	 * The input of RFC 5869 test case 1, with HMAC-SHA512 instead of HMAC-SHA256.
+	 */
+	public void test1() throws Exception
+	{
+		final byte[] secret = new byte[22];
+		Arrays.fill(secret, (byte) 0x0b);
+
+		final byte[] salt = new byte[13];
+		final byte[] info = new byte[10];
+
+		for (int i = 0; i < salt.length; i++)
+		{
+			salt[i] = (byte) i;
+		}
+
+		for (int i = 0; i < info.length; i++)
+		{
+			info[i] = (byte) (0xf0 + i);
+		}
+
+		final byte[] key = HKDF.extract(salt, secret);
+
+		assertEquals("665799823737DED04A88E47E54A5890BB2C3D247C7A4254A8E61350723590A26"
+				+ "C36238127D8661B88CF80EF802D57E2F7CEBCF1E00E083848BE19929C61B4237", CO.bytesToHex(key));
+		assertEquals("832390086CDA71FB47625BB5CEB168E4C8E26A1A16ED34D9FC7FE92C1481579338DA362CB8D9F925D7CB",
+				CO.bytesToHex(HKDF.expand(key, info, 42)));
+		assertTrue(Arrays.equals(HKDF.expand(key, info, 42), HKDF.derive(secret, salt, info, 42)));
+	}
+
+	/*
+	 * Shorter keys are prefixes of longer ones, and the length is limited to 255 blocks.
+	 */
+	public void test2() throws Exception
+	{
+		final byte[] key = HKDF.derive(new byte[] { 1 }, null, null, 200);
+
+		assertTrue(Arrays.equals(Arrays.copyOf(key, 32), HKDF.derive(new byte[] { 1 }, new byte[0], null, 32)));
+		assertEquals(255 * HKDF.HASH_LENGTH, HKDF.derive(new byte[] { 1 }, null, null, 255 * HKDF.HASH_LENGTH).length);
+
+		try
+		{
+			HKDF.derive(new byte[] { 1 }, null, null, 255 * HKDF.HASH_LENGTH + 1);
+			fail();
+		}
+		catch (final IllegalArgumentException e)
+		{
+		}
+	}
+}
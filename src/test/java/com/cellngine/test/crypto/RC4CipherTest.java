@@ -46,4 +46,41 @@ public class RC4CipherTest extends TestCase
 		
 		assertTrue(Arrays.equals(buf, plaintext));
 	}
+
+	/*
+	 * A cipher that only implements the array functions gets the same results from the default
+	 * region functions as RC4 gets in place.
+	 */
+	public void test2()
+	{
+		final byte[] key = "Key".getBytes();
+		final RC4 rc4 = new RC4(key);
+		final StreamCipher wrapped = new StreamCipher()
+		{
+			@Override
+			public byte[] encrypt(final byte[] input)
+			{
+				return rc4.encrypt(input);
+			}
+
+			@Override
+			public byte[] decrypt(final byte[] input)
+			{
+				return rc4.decrypt(input);
+			}
+		};
+
+		final byte[] expected = "xxPlaintextxx".getBytes();
+		new RC4(key).encrypt(expected, 2, 9);
+
+		final byte[] actual = "xxPlaintextxx".getBytes();
+		wrapped.encrypt(actual, 2, 9);
+
+		assertTrue(Arrays.equals(expected, actual));
+
+		final RC4 rc4Dec = new RC4(key);
+		rc4Dec.decrypt(actual, 2, 9);
+
+		assertEquals("xxPlaintextxx", new String(actual));
+	}
 }
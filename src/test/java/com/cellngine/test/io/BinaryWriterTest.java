@@ -0,0 +1,126 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.io.BinaryReader;
+import com.cellngine.io.BinaryWriter;
+
+/**
+ * Test case for the BinaryWriter and BinaryReader objects.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class BinaryWriterTest extends TestCase
+{
+	private static final String	STRING	= "h\u00e9llo \u20ac \ud83d\ude00 \ud800";
+
+	/*
+	 * The writer produces the same bytes as ByteOperations.toBytes(), and the
+	 * reader reads them back.
+	 */
+	public void test1() throws IOException
+	{
+		//Start with a tiny buffer so that it has to grow.
+		final BinaryWriter writer = new BinaryWriter(ByteBuffer.allocateDirect(3));
+		writer.putInt(-123456).putLong(Long.MIN_VALUE + 7).putString(STRING).putBytes(new byte[] { 1, 2 })
+				.putBigDecimal(new BigDecimal("-1.50")).putByte((byte) 9).putString("").putVarInt(300)
+				.putVarLong(-1L).putCompactBigDecimal(new BigDecimal("-1.50"));
+
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(ByteOperations.toBytes(-123456));
+		expected.write(ByteOperations.toBytes(Long.MIN_VALUE + 7));
+		expected.write(ByteOperations.toBytes(STRING));
+		expected.write(ByteOperations.toBytes(new byte[] { 1, 2 }));
+		expected.write(ByteOperations.toBytes(new BigDecimal("-1.50")));
+		expected.write(9);
+		expected.write(ByteOperations.toBytes(""));
+		expected.write(ByteOperations.toVarInt(300));
+		expected.write(ByteOperations.toVarLong(-1L));
+		expected.write(ByteOperations.toCompactBytes(new BigDecimal("-1.50")));
+
+		assertEquals(expected.size(), writer.size());
+		assertTrue(Arrays.equals(expected.toByteArray(), writer.toByteArray()));
+
+		final BinaryReader reader = new BinaryReader(writer.getBuffer());
+		assertEquals(-123456, reader.getInt());
+		assertEquals(Long.MIN_VALUE + 7, reader.getLong());
+		assertEquals(new String(STRING.getBytes("UTF-8"), "UTF-8"), reader.getString());
+		assertTrue(Arrays.equals(new byte[] { 1, 2 }, reader.getBytes()));
+		assertEquals(new BigDecimal("-1.50"), reader.getBigDecimal());
+		assertEquals(9, reader.getByte());
+		assertEquals("", reader.getString());
+		assertEquals(300, reader.getVarInt());
+		assertEquals(-1L, reader.getVarLong());
+		assertEquals(new BigDecimal("-1.50"), reader.getCompactBigDecimal());
+		assertEquals(0, reader.remaining());
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.writeTo(out);
+		assertTrue(Arrays.equals(expected.toByteArray(), out.toByteArray()));
+		assertEquals(0, writer.size());
+	}
+
+	/*
+	 * Truncated and corrupt input.
+	 */
+	public void test2()
+	{
+		final byte[] bytes = new BinaryWriter().putString("hello").putLong(1).toByteArray();
+
+		final BinaryReader reader = new BinaryReader(bytes, 0, bytes.length - 1);
+		assertEquals("hello", reader.getString());
+
+		try
+		{
+			reader.getLong();
+			fail();
+		}
+		catch (final BufferUnderflowException e)
+		{
+		}
+
+		assertEquals(7, reader.remaining());
+
+		try
+		{
+			new BinaryReader(ByteOperations.toBytes(-1)).getBytes();
+			fail();
+		}
+		catch (final BufferUnderflowException e)
+		{
+		}
+
+		try
+		{
+			new BinaryReader(ByteOperations.toBytes(5)).getString();
+			fail();
+		}
+		catch (final BufferUnderflowException e)
+		{
+		}
+	}
+}
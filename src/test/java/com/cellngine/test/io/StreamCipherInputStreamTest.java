@@ -0,0 +1,132 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.cellngine.CO;
+import com.cellngine.crypto.RC4;
+import com.cellngine.io.DelayedStreamCipherInputStream;
+import com.cellngine.io.StreamCipherInputStream;
+import com.cellngine.io.StreamCipherOutputStream;
+
+/**
+ * Test case for the read-ahead mode of the StreamCipherInputStream and
+ * DelayedStreamCipherInputStream objects.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class StreamCipherInputStreamTest extends TestCase
+{
+	private static byte[]	SEED	= "readaheadtest".getBytes();
+
+	private static byte[] contents(final int length)
+	{
+		final byte[] contents = new byte[length];
+
+		for (int i = 0; i < length; i++)
+		{
+			contents[i] = (byte) (i * 13 % 251);
+		}
+
+		return contents;
+	}
+
+	private static byte[] encrypt(final byte[] header, final byte[] input) throws IOException
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(header);
+
+		final StreamCipherOutputStream out = new StreamCipherOutputStream(baos, new RC4(SEED));
+		out.write(Arrays.copyOf(input, input.length));
+
+		return baos.toByteArray();
+	}
+
+	/*
+	 * Data spanning many read-ahead blocks is decrypted in order.
+	 */
+	public void test1() throws Exception
+	{
+		final byte[] input = contents(1000000);
+		final byte[] encrypted = encrypt(new byte[0], input);
+
+		final InputStream in = new StreamCipherInputStream(new ByteArrayInputStream(encrypted), new RC4(SEED), 3);
+
+		assertTrue(Arrays.equals(input, CO.getBytesFromInputStream(in, true)));
+	}
+
+	/*
+	 * The delayed variant switches to read-ahead once the offset has been reached,
+	 * byte-wise reads and bulk reads may be mixed.
+	 */
+	public void test2() throws Exception
+	{
+		final byte[] header = "0123456789abc".getBytes();
+		final byte[] input = contents(200000);
+		final byte[] encrypted = encrypt(header, input);
+
+		final InputStream in = new DelayedStreamCipherInputStream(new ByteArrayInputStream(encrypted), new RC4(SEED),
+				header.length, 2, null);
+
+		final byte[] start = new byte[header.length];
+		assertEquals(header.length, in.read(start));
+		assertTrue(Arrays.equals(header, start));
+
+		assertEquals(input[0] & 0xff, in.read());
+
+		final byte[] rest = CO.getBytesFromInputStream(in, true);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(input, 1, input.length), rest));
+	}
+
+	/*
+	 * An exception thrown by the underlying stream surfaces in the consumer.
+	 */
+	public void test3() throws Exception
+	{
+		final InputStream failing = new InputStream()
+		{
+			@Override
+			public int read() throws IOException
+			{
+				throw new IOException("failure");
+			}
+		};
+
+		final InputStream in = new StreamCipherInputStream(failing, new RC4(SEED), 2);
+
+		try
+		{
+			in.read();
+			fail();
+		}
+		catch (final IOException e)
+		{
+			assertEquals("failure", e.getMessage());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import com.cellngine.CO;
+import com.cellngine.crypto.RC4;
+import com.cellngine.io.StreamCipherOutputStream;
+import com.cellngine.io.StreamPipeline;
+
+/**
+ * Test case for the StreamPipeline object.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class StreamPipelineTest extends TestCase
+{
+	private static byte[]	SEED	= "pipelinetest".getBytes();
+
+	private static byte[] contents(final int length)
+	{
+		final byte[] contents = new byte[length];
+
+		for (int i = 0; i < length; i++)
+		{
+			contents[i] = (byte) (i * 31 % 17);
+		}
+
+		return contents;
+	}
+
+	private static byte[] gzip(final byte[] input) throws Exception
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final GZIPOutputStream out = new GZIPOutputStream(baos);
+		out.write(input);
+		out.close();
+
+		return baos.toByteArray();
+	}
+
+	/*
+	 * Builds a source consisting of an unencrypted header, an encrypted prefix,
+	 * the data fork and some trailing data.
+	 */
+	private static byte[] source(final byte[] data, final int header, final int prefix, final boolean encrypt)
+			throws Exception
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(new byte[header]);
+
+		final StreamCipherOutputStream out = new StreamCipherOutputStream(baos, new RC4(SEED));
+		final byte[] body = new byte[prefix + data.length + 100];
+		Arrays.fill(body, (byte) 0x55);
+		System.arraycopy(data, 0, body, prefix, data.length);
+
+		if (encrypt)
+		{
+			out.write(body);
+		}
+		else
+		{
+			baos.write(body);
+		}
+
+		return baos.toByteArray();
+	}
+
+	/*
+	 * An uncompressed, unencrypted region is read from the middle of the source.
+	 */
+	public void test1() throws Exception
+	{
+		final byte[] data = contents(5000);
+		final byte[] source = source(data, 13, 700, false);
+
+		final InputStream in = new StreamPipeline(new ByteArrayInputStream(source)).region(713, data.length)
+				.bufferSize(64).open();
+
+		assertTrue(Arrays.equals(data, CO.getBytesFromInputStream(in, true)));
+	}
+
+	/*
+	 * An encrypted region is read; the keystream has to be advanced over the prefix.
+	 */
+	public void test2() throws Exception
+	{
+		final byte[] data = contents(5000);
+		final byte[] source = source(data, 13, 700, true);
+
+		final InputStream in = new StreamPipeline(new ByteArrayInputStream(source)).region(713, data.length)
+				.decrypt(new RC4(SEED), 13).open();
+
+		assertTrue(Arrays.equals(data, CO.getBytesFromInputStream(in, true)));
+	}
+
+	/*
+	 * An encrypted and compressed region is read with a buffer that is smaller
+	 * than the gzip header, forcing every stage to refill.
+	 */
+	public void test3() throws Exception
+	{
+		final byte[] data = contents(100000);
+		final byte[] compressed = gzip(data);
+		final byte[] source = source(compressed, 13, 3, true);
+
+		for (final int bufferSize : new int[] { 1, 7, 512, 65536 })
+		{
+			final InputStream in = new StreamPipeline(new ByteArrayInputStream(source))
+					.region(16, compressed.length).decrypt(new RC4(SEED), 13).inflate().bufferSize(bufferSize).open();
+
+			assertTrue(Arrays.equals(data, CO.getBytesFromInputStream(in, true)));
+		}
+	}
+
+	/*
+	 * A corrupted trailer must be detected.
+	 */
+	public void test4() throws Exception
+	{
+		final byte[] compressed = gzip(contents(1000));
+		compressed[compressed.length - 5]++;
+
+		final InputStream in = new StreamPipeline(new ByteArrayInputStream(compressed)).inflate().open();
+
+		try
+		{
+			CO.getBytesFromInputStream(in, true);
+			fail();
+		}
+		catch (final java.util.zip.ZipException e)
+		{
+		}
+	}
+}
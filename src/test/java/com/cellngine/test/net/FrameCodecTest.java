@@ -0,0 +1,223 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.crypto.RC4;
+import com.cellngine.io.StreamCipherInputStream;
+import com.cellngine.io.StreamCipherOutputStream;
+import com.cellngine.net.FrameDecoder;
+import com.cellngine.net.FrameEncoder;
+
+/**
+ * Test case for the FrameEncoder and FrameDecoder objects.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class FrameCodecTest extends TestCase
+{
+	private static byte[]	SEED	= "frametest".getBytes();
+
+	/*
+	 * Returns at most three bytes per read, like a slow socket would.
+	 */
+	private static InputStream trickle(final InputStream in)
+	{
+		return new FilterInputStream(in)
+		{
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException
+			{
+				return super.read(b, off, Math.min(len, 3));
+			}
+		};
+	}
+
+	private static List<byte[]> messages()
+	{
+		final List<byte[]> messages = new ArrayList<byte[]>();
+
+		for (int i = 0; i < 200; i++)
+		{
+			final byte[] message = new byte[i * 7 % 50];
+			Arrays.fill(message, (byte) i);
+			messages.add(message);
+		}
+
+		return messages;
+	}
+
+	/*
+	 * A batch of messages is written through the cipher streams with a single
+	 * write and read back from short reads.
+	 */
+	public void test1() throws Exception
+	{
+		final List<byte[]> messages = messages();
+
+		final FrameEncoder encoder = new FrameEncoder();
+
+		for (final byte[] message : messages)
+		{
+			encoder.add(message);
+		}
+
+		assertEquals(messages.size(), encoder.getFrameCount());
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		encoder.writeTo(new StreamCipherOutputStream(baos, new RC4(SEED)));
+
+		assertEquals(0, encoder.size());
+
+		final InputStream in = new StreamCipherInputStream(trickle(new ByteArrayInputStream(baos.toByteArray())),
+				new RC4(SEED));
+		final FrameDecoder decoder = new FrameDecoder();
+
+		for (final byte[] message : messages)
+		{
+			assertTrue(Arrays.equals(message, decoder.read(in)));
+		}
+
+		assertNull(decoder.read(in));
+	}
+
+	/*
+	 * Frames use the same format as ByteOperations.toBytes(byte[]), and may be
+	 * fed in arbitrary chunks.
+	 */
+	public void test2() throws Exception
+	{
+		final List<byte[]> messages = messages();
+		final byte[] encoded = FrameEncoder.encode(messages, 64);
+
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+		for (final byte[] message : messages)
+		{
+			expected.write(ByteOperations.toBytes(message));
+		}
+
+		assertTrue(Arrays.equals(expected.toByteArray(), encoded));
+
+		final FrameDecoder decoder = new FrameDecoder(64);
+		final List<byte[]> decoded = new ArrayList<byte[]>();
+
+		for (int i = 0; i < encoded.length; i = i + 11)
+		{
+			decoder.feed(encoded, i, Math.min(11, encoded.length - i));
+
+			byte[] message;
+
+			while ((message = decoder.next()) != null)
+			{
+				decoded.add(message);
+			}
+		}
+
+		assertEquals(messages.size(), decoded.size());
+
+		for (int i = 0; i < messages.size(); i++)
+		{
+			assertTrue(Arrays.equals(messages.get(i), decoded.get(i)));
+		}
+	}
+
+	/*
+	 * Oversized frames are rejected on both sides, truncated frames are reported.
+	 */
+	public void test3() throws Exception
+	{
+		try
+		{
+			new FrameEncoder(10).add(new byte[11]);
+			fail();
+		}
+		catch (final IllegalArgumentException e)
+		{
+		}
+
+		final FrameDecoder decoder = new FrameDecoder(10);
+		decoder.feed(ByteOperations.toBytes(Integer.MAX_VALUE), 0, 4);
+
+		try
+		{
+			decoder.next();
+			fail();
+		}
+		catch (final IOException e)
+		{
+		}
+
+		try
+		{
+			new FrameDecoder().read(new ByteArrayInputStream(new byte[] { 0, 0, 0, 5, 1, 2 }));
+			fail();
+		}
+		catch (final EOFException e)
+		{
+		}
+	}
+
+	/*
+	 * ByteOperations reads values that arrive in several short reads.
+	 */
+	public void test4() throws Exception
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(ByteOperations.toBytes(123456789));
+		baos.write(ByteOperations.toBytes(1234567890123L));
+		baos.write(ByteOperations.toBytes("Hello, world"));
+
+		final InputStream in = trickle(new ByteArrayInputStream(baos.toByteArray()));
+
+		assertEquals(123456789, ByteOperations.getInt(in));
+		assertEquals(1234567890123L, ByteOperations.getLong(in));
+		assertEquals("Hello, world", ByteOperations.getString(in));
+	}
+
+	/*
+	 * A batch that adds up to more than 2 GB is rejected as too large, rather than wrapping
+	 * around to a negative capacity.
+	 */
+	public void test5() throws Exception
+	{
+		final byte[] message = new byte[64 * 1024 * 1024];
+
+		try
+		{
+			FrameEncoder.encode(Collections.nCopies(33, message), message.length);
+			fail();
+		}
+		catch (final IllegalStateException e)
+		{
+			assertEquals("Batch too large.", e.getMessage());
+		}
+	}
+}
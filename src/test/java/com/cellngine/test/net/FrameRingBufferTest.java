@@ -0,0 +1,185 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.net;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.cellngine.ByteOperations;
+import com.cellngine.net.FrameRingBuffer;
+import com.cellngine.net.FrameSlot;
+
+/**
+ * Test case for the FrameRingBuffer and FrameSlot objects.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class FrameRingBufferTest extends TestCase
+{
+	/*
+	 * The put methods produce the same bytes as ByteOperations.toBytes().
+	 */
+	public void test1()
+	{
+		final FrameRingBuffer buffer = new FrameRingBuffer(2, 256);
+		final FrameSlot slot = buffer.claim();
+		final String string = "h\u00e9llo \u20ac \ud83d\ude00 \ud800";
+
+		slot.putInt(-123456).putLong(Long.MIN_VALUE + 7).putString(string).putBytes(new byte[] { 1, 2 })
+				.putBigDecimal(new BigDecimal("-1.50")).putByte((byte) 9);
+
+		final ByteBuffer expected = ByteBuffer.allocate(256);
+		expected.put(ByteOperations.toBytes(-123456));
+		expected.put(ByteOperations.toBytes(Long.MIN_VALUE + 7));
+		expected.put(ByteOperations.toBytes(string));
+		expected.put(ByteOperations.toBytes(new byte[] { 1, 2 }));
+		expected.put(ByteOperations.toBytes(new BigDecimal("-1.50")));
+		expected.put((byte) 9);
+
+		assertEquals(expected.position(), slot.length());
+		assertTrue(Arrays.equals(Arrays.copyOf(expected.array(), expected.position()),
+				Arrays.copyOf(slot.array(), slot.length())));
+
+		try
+		{
+			slot.putRaw(new byte[256], 0, 256);
+			fail();
+		}
+		catch (final BufferOverflowException e)
+		{
+		}
+	}
+
+	/*
+	 * Slots are only reused once the consumer is done with them, and only
+	 * published slots are handed to the consumer.
+	 */
+	public void test2() throws IOException
+	{
+		final FrameRingBuffer buffer = new FrameRingBuffer(4, 16);
+		final AtomicInteger handled = new AtomicInteger();
+		final FrameRingBuffer.Handler handler = new FrameRingBuffer.Handler()
+		{
+			@Override
+			public void handle(final FrameSlot slot)
+			{
+				assertEquals(handled.getAndIncrement(), slot.array()[0]);
+			}
+		};
+
+		final FrameSlot[] slots = new FrameSlot[4];
+
+		for (int i = 0; i < 4; i++)
+		{
+			slots[i] = buffer.tryClaim();
+			slots[i].putByte((byte) i);
+		}
+
+		assertNull(buffer.tryClaim());
+		assertEquals(4, buffer.size());
+
+		//The second slot is published before the first one.
+		buffer.publish(slots[1]);
+		assertEquals(0, buffer.drain(handler));
+
+		buffer.publish(slots[0]);
+		buffer.publish(slots[2]);
+		assertEquals(3, buffer.drain(handler));
+		assertEquals(1, buffer.size());
+
+		final FrameSlot slot = buffer.tryClaim();
+		assertNotNull(slot);
+		slot.putByte((byte) 4);
+
+		buffer.publish(slots[3]);
+		buffer.publish(slot);
+		assertEquals(2, buffer.drain(handler));
+		assertEquals(5, handled.get());
+		assertEquals(0, buffer.size());
+	}
+
+	/*
+	 * Several producers and one consumer. The messages of each producer
+	 * arrive complete and in order.
+	 */
+	public void test3() throws Exception
+	{
+		final int producers = 4;
+		final int messages = 50000;
+		final FrameRingBuffer buffer = new FrameRingBuffer(64, 8);
+		final Thread[] threads = new Thread[producers];
+
+		for (int p = 0; p < producers; p++)
+		{
+			final int producer = p;
+
+			threads[p] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < messages; i++)
+					{
+						final FrameSlot slot = buffer.claim();
+						slot.putInt(producer).putInt(i);
+						buffer.publish(slot);
+					}
+				}
+			};
+
+			threads[p].start();
+		}
+
+		final int[] next = new int[producers];
+		final FrameRingBuffer.Handler handler = new FrameRingBuffer.Handler()
+		{
+			@Override
+			public void handle(final FrameSlot slot)
+			{
+				final ByteBuffer message = ByteBuffer.wrap(slot.array(), 0, slot.length());
+				final int producer = message.getInt();
+				assertEquals(next[producer]++, message.getInt());
+			}
+		};
+
+		int total = 0;
+		final long deadline = System.currentTimeMillis() + 30000;
+
+		while (total < producers * messages && System.currentTimeMillis() < deadline)
+		{
+			total += buffer.drain(handler);
+		}
+
+		for (final Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		assertEquals(producers * messages, total);
+
+		for (int p = 0; p < producers; p++)
+		{
+			assertEquals(messages, next[p]);
+		}
+	}
+}
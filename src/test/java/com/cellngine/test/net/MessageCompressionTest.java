@@ -0,0 +1,135 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+import com.cellngine.net.MessageDeflater;
+import com.cellngine.net.MessageInflater;
+
+/**
+ * Test case for the MessageDeflater and MessageInflater objects.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class MessageCompressionTest extends TestCase
+{
+	private static byte[] state(final int tick)
+	{
+		return ("{\"entity\":42,\"x\":" + (100 + tick % 7) + ",\"y\":" + (200 - tick % 5)
+				+ ",\"health\":100,\"state\":\"walking\",\"team\":\"red\"}").getBytes();
+	}
+
+	private static byte[] toArray(final ByteBuffer buffer)
+	{
+		final byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/*
+	 * Round trip with context takeover: similar messages compress better than
+	 * the first one, and short messages are stored.
+	 */
+	public void test1() throws IOException
+	{
+		final MessageDeflater deflater = new MessageDeflater();
+		final MessageInflater inflater = new MessageInflater();
+
+		int first = 0;
+		int later = 0;
+
+		for (int tick = 0; tick < 100; tick++)
+		{
+			final byte[] message = state(tick);
+			final byte[] compressed = toArray(deflater.compress(message, 0, message.length));
+
+			assertEquals(MessageDeflater.DEFLATED, compressed[0]);
+			assertTrue(Arrays.equals(message, toArray(inflater.decompress(compressed, 0, compressed.length))));
+
+			if (tick == 0)
+			{
+				first = compressed.length;
+			}
+			else
+			{
+				later = Math.max(later, compressed.length);
+			}
+
+			//Short messages in between do not disturb the context.
+			final byte[] small = { (byte) tick, 1, 2 };
+			final byte[] stored = toArray(deflater.compress(small, 0, small.length));
+
+			assertEquals(MessageDeflater.STORED, stored[0]);
+			assertEquals(4, stored.length);
+			assertTrue(Arrays.equals(small, toArray(inflater.decompress(stored, 0, stored.length))));
+		}
+
+		assertTrue(later * 3 < first);
+
+		deflater.end();
+		inflater.end();
+	}
+
+	/*
+	 * Preset dictionaries, large incompressible messages and the size limit.
+	 */
+	public void test2() throws IOException
+	{
+		final byte[] dictionary = state(0);
+		final byte[] message = state(1);
+
+		final byte[] plain = toArray(new MessageDeflater().compress(message, 0, message.length));
+		final byte[] preset = toArray(new MessageDeflater(Deflater.BEST_COMPRESSION, 0, dictionary).compress(message,
+				0, message.length));
+		assertTrue(preset.length < plain.length);
+
+		final MessageInflater inflater = new MessageInflater(1000000, dictionary);
+		assertTrue(Arrays.equals(message, toArray(inflater.decompress(preset, 0, preset.length))));
+
+		final byte[] random = new byte[300000];
+		new Random(1).nextBytes(random);
+
+		final MessageDeflater deflater = new MessageDeflater();
+		final byte[] compressed = toArray(deflater.compress(random, 0, random.length));
+		assertTrue(Arrays.equals(random, toArray(new MessageInflater().decompress(compressed, 0, compressed.length))));
+
+		try
+		{
+			new MessageInflater(random.length - 1, null).decompress(compressed, 0, compressed.length);
+			fail();
+		}
+		catch (final IOException e)
+		{
+		}
+
+		try
+		{
+			new MessageInflater().decompress(new byte[] { 7, 1, 2 }, 0, 3);
+			fail();
+		}
+		catch (final IOException e)
+		{
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.net;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.cellngine.CO;
+import com.cellngine.crypto.RC4;
+import com.cellngine.io.StreamCipherInputStream;
+import com.cellngine.io.StreamCipherOutputStream;
+import com.cellngine.net.MultiplexedStream;
+import com.cellngine.net.Multiplexer;
+
+/**
+ * Test case for the Multiplexer object. Both sides are connected over the loopback interface with
+ * RC4 encrypted streams.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class MultiplexerTest extends TestCase
+{
+	private static byte[]	CLIENT_SEED	= "client".getBytes();
+	private static byte[]	SERVER_SEED	= "server".getBytes();
+
+	private ServerSocket	serverSocket;
+	private Multiplexer		client;
+	private Multiplexer		server;
+	private ExecutorService	executor;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		final Socket clientSocket = new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+		final Socket serverSocket = this.serverSocket.accept();
+
+		this.client = new Multiplexer(new StreamCipherInputStream(clientSocket.getInputStream(), new RC4(SERVER_SEED)),
+				new StreamCipherOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()), new RC4(
+						CLIENT_SEED)), true);
+		this.server = new Multiplexer(new StreamCipherInputStream(serverSocket.getInputStream(), new RC4(CLIENT_SEED)),
+				new StreamCipherOutputStream(new BufferedOutputStream(serverSocket.getOutputStream()), new RC4(
+						SERVER_SEED)), false);
+		this.executor = Executors.newCachedThreadPool();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		this.client.close();
+		this.server.close();
+		this.serverSocket.close();
+		this.executor.shutdownNow();
+	}
+
+	private static byte[] pattern(final int length, final int seed)
+	{
+		final byte[] data = new byte[length];
+
+		for (int i = 0; i < length; i++)
+		{
+			data[i] = (byte) (i * seed + (i >> 8));
+		}
+
+		return data;
+	}
+
+	private Future<?> write(final MultiplexedStream stream, final byte[] data)
+	{
+		return this.executor.submit(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws IOException
+			{
+				final OutputStream out = stream.getOutputStream();
+				out.write(data);
+				out.close();
+				return null;
+			}
+		});
+	}
+
+	/*
+	 * A large transfer that the receiver does not read does not hold up a
+	 * second stream, and arrives intact once it is read.
+	 */
+	public void test1() throws Exception
+	{
+		final byte[] large = pattern(2 * 1024 * 1024, 7);
+		final MultiplexedStream bulk = this.client.openStream(-1);
+		final Future<?> bulkWrite = this.write(bulk, large);
+
+		final MultiplexedStream remoteBulk = this.server.accept();
+		assertEquals(bulk.getId(), remoteBulk.getId());
+
+		//The bulk writer is stuck on flow control now.
+		Thread.sleep(100);
+		assertFalse(bulkWrite.isDone());
+
+		final MultiplexedStream chat = this.client.openStream(10);
+		this.write(chat, "hello".getBytes()).get(10, TimeUnit.SECONDS);
+
+		final MultiplexedStream remoteChat = this.server.accept();
+		assertEquals(chat.getId(), remoteChat.getId());
+		assertEquals("hello", CO.toString(CO.getBytesFromInputStream(remoteChat.getInputStream(), true)));
+
+		final byte[] received = CO.getBytesFromInputStream(remoteBulk.getInputStream(), true);
+		bulkWrite.get(10, TimeUnit.SECONDS);
+
+		assertEquals(large.length, received.length);
+
+		for (int i = 0; i < large.length; i++)
+		{
+			if (large[i] != received[i])
+			{
+				fail("Difference at " + i);
+			}
+		}
+	}
+
+	/*
+	 * Streams opened from both sides at the same time, in both directions.
+	 */
+	public void test2() throws Exception
+	{
+		final MultiplexedStream fromClient = this.client.openStream();
+		final MultiplexedStream fromServer = this.server.openStream();
+		assertFalse(fromClient.getId() == fromServer.getId());
+
+		final byte[] a = pattern(300000, 3);
+		final byte[] b = pattern(200000, 5);
+		this.write(fromClient, a);
+		this.write(fromServer, b);
+
+		final MultiplexedStream atServer = this.server.accept();
+		final MultiplexedStream atClient = this.client.accept();
+
+		assertEquals(a.length, CO.getBytesFromInputStream(atServer.getInputStream(), true).length);
+		assertEquals(b.length, CO.getBytesFromInputStream(atClient.getInputStream(), true).length);
+
+		//Answer on the accepted stream.
+		this.write(atServer, "reply".getBytes()).get(10, TimeUnit.SECONDS);
+		assertEquals("reply", CO.toString(CO.getBytesFromInputStream(fromClient.getInputStream(), true)));
+	}
+
+	/*
+	 * Closing the multiplexer ends all streams.
+	 */
+	public void test3() throws Exception
+	{
+		final MultiplexedStream stream = this.client.openStream();
+		stream.getOutputStream().write(1);
+		stream.getOutputStream().flush();
+
+		final InputStream in = this.server.accept().getInputStream();
+		assertEquals(1, in.read());
+
+		this.client.close();
+
+		try
+		{
+			in.read();
+			fail();
+		}
+		catch (final IOException e)
+		{
+		}
+
+		assertNull(this.server.accept());
+		assertFalse(this.server.isOpen());
+	}
+}
@@ -0,0 +1,182 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import junit.framework.TestCase;
+
+import com.cellngine.crypto.RC4;
+import com.cellngine.net.FrameDecoder;
+import com.cellngine.net.OutboundQueue;
+
+/**
+ * Test case for the OutboundQueue object.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class OutboundQueueTest extends TestCase
+{
+	/*
+	 * Accepts at most a given amount of bytes per write and counts the writes.
+	 */
+	private static class RecordingChannel implements GatheringByteChannel
+	{
+		final ByteArrayOutputStream	data	= new ByteArrayOutputStream();
+		final int					limit;
+		int							writes	= 0;
+
+		RecordingChannel(final int limit)
+		{
+			this.limit = limit;
+		}
+
+		@Override
+		public long write(final ByteBuffer[] srcs, final int offset, final int length)
+		{
+			this.writes++;
+
+			int written = 0;
+
+			for (int i = offset; i < offset + length && written < this.limit; i++)
+			{
+				while (srcs[i].hasRemaining() && written < this.limit)
+				{
+					this.data.write(srcs[i].get());
+					written++;
+				}
+			}
+
+			return written;
+		}
+
+		@Override
+		public long write(final ByteBuffer[] srcs)
+		{
+			return this.write(srcs, 0, srcs.length);
+		}
+
+		@Override
+		public int write(final ByteBuffer src)
+		{
+			return (int) this.write(new ByteBuffer[] { src });
+		}
+
+		@Override
+		public boolean isOpen()
+		{
+			return true;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	/*
+	 * Many small messages are written with a single call.
+	 */
+	public void test1() throws IOException
+	{
+		final OutboundQueue queue = new OutboundQueue();
+		final RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+
+		for (int i = 0; i < 1000; i++)
+		{
+			queue.add(new byte[] { (byte) i, (byte) (i >> 8) }, 0, 2);
+		}
+
+		assertEquals(6000, queue.getPendingBytes());
+		assertEquals(0, queue.write(channel));
+
+		queue.drain();
+
+		assertEquals(6000, queue.write(channel));
+		assertEquals(1, channel.writes);
+		assertTrue(queue.isWritten());
+		assertTrue(queue.isEmpty());
+
+		final FrameDecoder decoder = new FrameDecoder();
+		decoder.feed(channel.data.toByteArray(), 0, channel.data.size());
+
+		for (int i = 0; i < 1000; i++)
+		{
+			final byte[] message = decoder.next();
+			assertEquals((byte) i, message[0]);
+			assertEquals((byte) (i >> 8), message[1]);
+		}
+
+		assertNull(decoder.next());
+	}
+
+	/*
+	 * Partial writes spanning several buffers, a cipher change between messages and messages
+	 * added between writes.
+	 */
+	public void test2() throws IOException
+	{
+		final OutboundQueue queue = new OutboundQueue();
+		final RecordingChannel channel = new RecordingChannel(50000);
+		final byte[] large = new byte[200000];
+
+		for (int i = 0; i < large.length; i++)
+		{
+			large[i] = (byte) (i * 7);
+		}
+
+		queue.add("plain".getBytes(), 0, 5);
+		queue.setStreamCipher(new RC4("key".getBytes()));
+		queue.add(large, 0, large.length);
+		queue.drain();
+
+		assertEquals(50000, queue.write(channel));
+		assertFalse(queue.isWritten());
+
+		queue.add(large, 100, 10);
+		queue.drain();
+
+		while (!queue.isWritten())
+		{
+			queue.write(channel);
+		}
+
+		assertTrue(queue.isEmpty());
+		assertEquals(5 + 4 + 200000 + 4 + 10 + 4, channel.data.size());
+
+		final FrameDecoder decoder = new FrameDecoder();
+		decoder.feed(channel.data.toByteArray(), 0, 9);
+		assertEquals("plain", new String(decoder.next()));
+
+		decoder.setStreamCipher(new RC4("key".getBytes()));
+		decoder.feed(channel.data.toByteArray(), 9, channel.data.size() - 9);
+
+		final byte[] message = decoder.next();
+		assertEquals(large.length, message.length);
+
+		for (int i = 0; i < large.length; i++)
+		{
+			assertEquals(large[i], message[i]);
+		}
+
+		assertEquals(10, decoder.next().length);
+		assertNull(decoder.next());
+	}
+}
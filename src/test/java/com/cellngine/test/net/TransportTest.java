@@ -0,0 +1,347 @@
+/*
+	This file is part of cellngine.
+
+	cellngine is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	cellngine is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with cellngine.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.cellngine.test.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.cellngine.CO;
+import com.cellngine.crypto.RC4;
+import com.cellngine.net.Connection;
+import com.cellngine.net.ConnectionHandler;
+import com.cellngine.net.FlushPolicy;
+import com.cellngine.net.MessageDeflater;
+import com.cellngine.net.MessageInflater;
+import com.cellngine.net.Transport;
+
+/**
+ * Test case for the Transport object. All connections are made over the loopback interface.
+ *
+ * @author A.J.A. Boer <jboer@jboer.nl>
+ */
+public class TransportTest extends TestCase
+{
+	private static byte[]	CLIENT_SEED	= "client".getBytes();
+	private static byte[]	SERVER_SEED	= "server".getBytes();
+
+	/*
+	 * Records all events so the test can wait for them.
+	 */
+	private static class RecordingHandler implements ConnectionHandler
+	{
+		final BlockingQueue<byte[]>		messages	= new LinkedBlockingQueue<byte[]>();
+		final BlockingQueue<Boolean>	writability	= new LinkedBlockingQueue<Boolean>();
+		final BlockingQueue<Connection>	connections	= new LinkedBlockingQueue<Connection>();
+
+		@Override
+		public void connected(final Connection connection)
+		{
+			this.connections.add(connection);
+		}
+
+		@Override
+		public void received(final Connection connection, final byte[] message)
+		{
+			this.messages.add(message);
+		}
+
+		@Override
+		public void writabilityChanged(final Connection connection, final boolean writable)
+		{
+			this.writability.add(writable);
+		}
+
+		@Override
+		public void disconnected(final Connection connection, final IOException cause)
+		{
+		}
+	}
+
+	/*
+	 * Echoes every message. The first message is treated as a handshake after
+	 * which encryption is enabled in both directions.
+	 */
+	private static class EchoHandler extends RecordingHandler
+	{
+		@Override
+		public void received(final Connection connection, final byte[] message)
+		{
+			try
+			{
+				connection.send(message);
+
+				if (connection.getAttachment() == null)
+				{
+					connection.setAttachment(Boolean.TRUE);
+					connection.setStreamCiphers(new RC4(SERVER_SEED), new RC4(CLIENT_SEED));
+				}
+			}
+			catch (final IOException e)
+			{
+				connection.close();
+			}
+		}
+	}
+
+	private void echo(final Transport.Mode mode) throws Exception
+	{
+		final Transport server = new Transport(new EchoHandler(), mode);
+		final RecordingHandler handler = new RecordingHandler();
+		final Transport client = new Transport(handler, mode);
+
+		try
+		{
+			final InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			final Connection connection = client.connect(address);
+
+			connection.send("hello".getBytes());
+			assertEquals("hello", CO.toString(handler.messages.poll(10, TimeUnit.SECONDS)));
+
+			connection.setStreamCiphers(new RC4(CLIENT_SEED), new RC4(SERVER_SEED));
+
+			for (int i = 0; i < 2000; i++)
+			{
+				final byte[] message = new byte[i % 300];
+				Arrays.fill(message, (byte) i);
+				connection.send(message);
+			}
+
+			for (int i = 0; i < 2000; i++)
+			{
+				final byte[] message = handler.messages.poll(10, TimeUnit.SECONDS);
+
+				assertNotNull(message);
+				assertEquals(i % 300, message.length);
+
+				for (final byte b : message)
+				{
+					assertEquals((byte) i, b);
+				}
+			}
+		}
+		finally
+		{
+			client.close();
+			server.close();
+		}
+	}
+
+	private void backpressure(final Transport.Mode mode) throws Exception
+	{
+		final RecordingHandler serverHandler = new RecordingHandler();
+		final Transport server = new Transport(serverHandler, mode);
+		final RecordingHandler handler = new RecordingHandler();
+		final Transport client = new Transport(handler, Transport.Mode.SELECTOR);
+		client.setWriteBufferWaterMarks(16 * 1024, 64 * 1024);
+
+		try
+		{
+			final InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			final Connection connection = client.connect(address);
+			final Connection remote = serverHandler.connections.poll(10, TimeUnit.SECONDS);
+
+			remote.suspendReading();
+
+			final byte[] message = new byte[16 * 1024];
+			int sent = 0;
+
+			while (connection.isWritable() && sent < 10000)
+			{
+				connection.send(message);
+				sent++;
+
+				//Give the selector thread a chance to write.
+				if (sent % 64 == 0)
+				{
+					Thread.sleep(1);
+				}
+			}
+
+			assertEquals(Boolean.FALSE, handler.writability.poll(10, TimeUnit.SECONDS));
+
+			remote.resumeReading();
+
+			assertEquals(Boolean.TRUE, handler.writability.poll(10, TimeUnit.SECONDS));
+
+			for (int i = 0; i < sent; i++)
+			{
+				assertNotNull(serverHandler.messages.poll(10, TimeUnit.SECONDS));
+			}
+		}
+		finally
+		{
+			client.close();
+			server.close();
+		}
+	}
+
+	private void flushPolicy(final Transport.Mode mode) throws Exception
+	{
+		final RecordingHandler serverHandler = new RecordingHandler();
+		final Transport server = new Transport(serverHandler, mode);
+		final Transport client = new Transport(new RecordingHandler(), mode);
+		client.setFlushPolicy(FlushPolicy.EXPLICIT);
+
+		try
+		{
+			final InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			final Connection connection = client.connect(address);
+
+			//Held back until flushed explicitly.
+			for (int i = 0; i < 100; i++)
+			{
+				connection.send(new byte[] { (byte) i });
+			}
+
+			assertNull(serverHandler.messages.poll(200, TimeUnit.MILLISECONDS));
+			assertEquals(100 * 5, connection.getPendingBytes());
+
+			connection.flush();
+
+			for (int i = 0; i < 100; i++)
+			{
+				assertEquals((byte) i, serverHandler.messages.poll(10, TimeUnit.SECONDS)[0]);
+			}
+
+			//Written as soon as the flush size has been reached.
+			connection.setFlushPolicy(new FlushPolicy(1000, -1, TimeUnit.MILLISECONDS));
+			connection.send(new byte[500]);
+
+			assertNull(serverHandler.messages.poll(200, TimeUnit.MILLISECONDS));
+
+			connection.send(new byte[500]);
+
+			assertEquals(500, serverHandler.messages.poll(10, TimeUnit.SECONDS).length);
+			assertEquals(500, serverHandler.messages.poll(10, TimeUnit.SECONDS).length);
+
+			//Held back for at most 50 milliseconds.
+			connection.setFlushPolicy(new FlushPolicy(Transport.BUFFER_SIZE, 50, TimeUnit.MILLISECONDS));
+			connection.send(new byte[] { 1, 2, 3 });
+
+			assertEquals(3, serverHandler.messages.poll(10, TimeUnit.SECONDS).length);
+		}
+		finally
+		{
+			client.close();
+			server.close();
+		}
+	}
+
+	/*
+	 * Echoes every message. The first message is treated as a handshake after
+	 * which compression is enabled in both directions.
+	 */
+	private static class CompressingEchoHandler extends RecordingHandler
+	{
+		@Override
+		public void received(final Connection connection, final byte[] message)
+		{
+			try
+			{
+				connection.send(message);
+
+				if (connection.getAttachment() == null)
+				{
+					connection.setAttachment(Boolean.TRUE);
+					connection.setCompression(new MessageDeflater(), new MessageInflater());
+				}
+			}
+			catch (final IOException e)
+			{
+				connection.close();
+			}
+		}
+	}
+
+	private void compression(final Transport.Mode mode) throws Exception
+	{
+		final Transport server = new Transport(new CompressingEchoHandler(), mode);
+		final RecordingHandler handler = new RecordingHandler();
+		final Transport client = new Transport(handler, mode);
+
+		try
+		{
+			final InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			final Connection connection = client.connect(address);
+
+			connection.send("hello".getBytes());
+			assertEquals("hello", CO.toString(handler.messages.poll(10, TimeUnit.SECONDS)));
+
+			connection.setCompression(new MessageDeflater(), new MessageInflater());
+
+			for (int i = 0; i < 500; i++)
+			{
+				final byte[] message = ("state update " + (i % 10) + " of entity " + (i % 3)).getBytes();
+				connection.send(message);
+
+				assertTrue(Arrays.equals(message, handler.messages.poll(10, TimeUnit.SECONDS)));
+			}
+		}
+		finally
+		{
+			client.close();
+			server.close();
+		}
+	}
+
+	public void test1_1() throws Exception
+	{
+		this.echo(Transport.Mode.SELECTOR);
+	}
+
+	public void test1_2() throws Exception
+	{
+		this.echo(Transport.Mode.THREAD_PER_CONNECTION);
+	}
+
+	public void test2_1() throws Exception
+	{
+		this.backpressure(Transport.Mode.SELECTOR);
+	}
+
+	public void test2_2() throws Exception
+	{
+		this.backpressure(Transport.Mode.THREAD_PER_CONNECTION);
+	}
+
+	public void test3_1() throws Exception
+	{
+		this.flushPolicy(Transport.Mode.SELECTOR);
+	}
+
+	public void test3_2() throws Exception
+	{
+		this.flushPolicy(Transport.Mode.THREAD_PER_CONNECTION);
+	}
+
+	public void test4_1() throws Exception
+	{
+		this.compression(Transport.Mode.SELECTOR);
+	}
+
+	public void test4_2() throws Exception
+	{
+		this.compression(Transport.Mode.THREAD_PER_CONNECTION);
+	}
+}
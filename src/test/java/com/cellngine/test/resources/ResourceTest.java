@@ -18,16 +18,26 @@ package com.cellngine.test.resources;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.Vector;
 
 import junit.framework.TestCase;
 
 import com.cellngine.CO;
+import com.cellngine.crypto.RC4;
+import com.cellngine.io.BinaryWriter;
+import com.cellngine.io.ByteBufferInputStream;
+import com.cellngine.io.StreamCipherOutputStream;
 import com.cellngine.resources.ResourceEntry;
 import com.cellngine.resources.ResourceFile;
 
@@ -86,6 +96,7 @@ public class ResourceTest extends TestCase
 
 		for (final ResourceEntry entry : entries)
 		{
+			assertEquals(12, entry.getLength());
 			assertTrue(CO.toString(CO.getBytesFromInputStream(entry.getInputStream(), true)).equals("Hello, world"));
 		}
 	}
@@ -115,6 +126,7 @@ public class ResourceTest extends TestCase
 		for (final ResourceEntry entry : entries)
 		{
 			assertTrue(entry.isGzip());
+			assertEquals(input.getBytes("UTF-8").length, entry.getLength());
 			assertTrue(CO.toString(CO.getBytesFromInputStream(entry.getInputStream(), true)).equals(input));
 		}
 	}
@@ -301,6 +313,707 @@ public class ResourceTest extends TestCase
 		this.test3_3(true, "test6");
 	}
 
+	/*
+	 * A version 1 resource file, written by hand, can still be read.
+	 *
+	 * On pass: Older resource files remain readable.
+	 */
+	public void test7_1() throws Exception
+	{
+		final File file = File.createTempFile("test7", ".crf");
+
+		try
+		{
+			final byte[] contents = "Hello, world".getBytes("UTF-8");
+			final BinaryWriter writer = new BinaryWriter();
+
+			writer.putRaw(new byte[] { 0x00, 0x04, 'C', 'R', 'F', 0x27, 0x44, 0x02 }, 0, 8);
+			writer.putInt(1);
+			writer.putByte((byte) 0x00);
+			writer.putInt(1);
+			writer.putString("id");
+			writer.putInt(2);
+			writer.putString("dummy.txt");
+			writer.putString("test.txt");
+			writer.putByte((byte) 0x00);
+			writer.putBytes(contents);
+			writer.putRaw(CO.makeHash("id", "SHA-512"), 0, 64);
+
+			final FileOutputStream out = new FileOutputStream(file);
+			writer.writeTo(out);
+			out.close();
+
+			final List<ResourceEntry> entries = new ResourceFile(file.getAbsolutePath()).getEntries();
+
+			assertEquals(1, entries.size());
+			assertEquals("id", entries.get(0).getResourceID());
+			assertEquals(2, entries.get(0).getFileNames().size());
+			assertEquals(12, entries.get(0).getLength());
+			assertEquals("Hello, world", CO.toString(CO.getBytesFromInputStream(entries.get(0).getInputStream(), true)));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * An encrypted resource file cannot be opened with the wrong key, as the directory fails to
+	 * validate.
+	 *
+	 * On pass: The directory is encrypted.
+	 */
+	public void test7_2() throws Exception
+	{
+		final File file = File.createTempFile("test7", ".crf");
+
+		try
+		{
+			file.delete();
+
+			final ResourceFile rf = new ResourceFile(file.getAbsolutePath(), ENCRYPTION_KEY);
+			rf.addEntry("Hello, world".getBytes(), "dummy.txt");
+			rf.write(ENCRYPTION_KEY);
+
+			try
+			{
+				new ResourceFile(file.getAbsolutePath(), "wrongkey".getBytes());
+				fail();
+			}
+			catch (final RuntimeException e)
+			{
+				assertTrue(e.getMessage().startsWith("Validation failed"));
+			}
+
+			assertEquals(1, new ResourceFile(file.getAbsolutePath(), ENCRYPTION_KEY).getEntries().size());
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * A version 1 resource file that is encrypted as a single stream can still be read.
+	 *
+	 * On pass: Older encrypted resource files remain readable.
+	 */
+	public void test7_3() throws Exception
+	{
+		final File file = File.createTempFile("test7", ".crf");
+
+		try
+		{
+			final BinaryWriter writer = new BinaryWriter();
+			writer.putInt(2);
+
+			for (final String id : new String[] { "id1", "id2" })
+			{
+				writer.putString(id);
+				writer.putInt(1);
+				writer.putString(id + ".txt");
+				writer.putByte((byte) 0x00);
+				writer.putBytes(("Hello, " + id).getBytes("UTF-8"));
+			}
+
+			writer.putRaw(CO.makeHash("id1id2", "SHA-512"), 0, 64);
+
+			final FileOutputStream out = new FileOutputStream(file);
+			out.write(new byte[] { 0x00, 0x04, 'C', 'R', 'F', 0x27, 0x44, 0x02, 0, 0, 0, 1, 0x01 });
+			writer.writeTo(new StreamCipherOutputStream(out, new RC4(ENCRYPTION_KEY)));
+			out.close();
+
+			final ResourceFile rf = new ResourceFile(file.getAbsolutePath(), ENCRYPTION_KEY);
+
+			assertEquals("Hello, id2", CO.toString(CO.getBytesFromInputStream(rf.getEntry("id2.txt").getInputStream(),
+					true)));
+			assertEquals("Hello, id1", CO.toString(CO.getBytesFromInputStream(rf.getEntry("id1.txt").getInputStream(),
+					true)));
+			assertFalse(rf.map());
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * A version 1 resource file is rewritten as version 2, after which its entries are read
+	 * through the same ResourceFile object.
+	 *
+	 * On pass: The entries follow the new layout of the file after writing.
+	 */
+	public void test7_4() throws Exception
+	{
+		final File file = File.createTempFile("test7", ".crf");
+
+		try
+		{
+			final BinaryWriter writer = new BinaryWriter();
+
+			writer.putRaw(new byte[] { 0x00, 0x04, 'C', 'R', 'F', 0x27, 0x44, 0x02 }, 0, 8);
+			writer.putInt(1);
+			writer.putByte((byte) 0x00);
+			writer.putInt(2);
+
+			for (final String id : new String[] { "id1", "id2" })
+			{
+				writer.putString(id);
+				writer.putInt(1);
+				writer.putString(id + ".txt");
+				writer.putByte((byte) 0x00);
+				writer.putBytes(("Hello, " + id).getBytes("UTF-8"));
+			}
+
+			writer.putRaw(CO.makeHash("id1id2", "SHA-512"), 0, 64);
+
+			final FileOutputStream out = new FileOutputStream(file);
+			writer.writeTo(out);
+			out.close();
+
+			final ResourceFile rf = new ResourceFile(file.getAbsolutePath());
+			rf.addEntry("Hello, id3".getBytes(), "id3.txt");
+			rf.write();
+
+			assertEquals(2, CO.getBytesFromFile(file)[11]);
+			assertEquals(3, rf.getEntries().size());
+
+			for (final String id : new String[] { "id1", "id2", "id3" })
+			{
+				assertEquals("Hello, " + id, CO.toString(CO.getBytesFromInputStream(rf.getEntry(id + ".txt")
+						.getInputStream(), true)));
+			}
+
+			rf.close();
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * A version 2 resource file that claims to be encrypted as a single stream is rejected, as
+	 * only version 1 files use that mode.
+	 *
+	 * On pass: Version 2 files are either unencrypted or encrypted per entry.
+	 */
+	public void test7_5() throws Exception
+	{
+		final File file = File.createTempFile("test7", ".crf");
+
+		try
+		{
+			file.delete();
+
+			final ResourceFile rf = new ResourceFile(file.getAbsolutePath());
+			rf.addEntry("Hello, world".getBytes(), "dummy.txt");
+			rf.write();
+			rf.close();
+
+			final byte[] bytes = CO.getBytesFromFile(file);
+			bytes[12] = 0x01;
+
+			final FileOutputStream out = new FileOutputStream(file);
+			out.write(bytes);
+			out.close();
+
+			try
+			{
+				new ResourceFile(file.getAbsolutePath(), ENCRYPTION_KEY);
+				fail();
+			}
+			catch (final RuntimeException e)
+			{
+				assertEquals("Resource file is not valid.", e.getMessage());
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * Entries can be looked up by any of their file names, both before writing and after
+	 * opening the resource file again.
+	 *
+	 * On pass: The name lookup follows addEntry and the loaded directory.
+	 */
+	public void test8_1() throws Exception
+	{
+		final File file = File.createTempFile("test8", ".crf");
+
+		try
+		{
+			file.delete();
+
+			ResourceFile rf = new ResourceFile(file.getAbsolutePath());
+			rf.addEntry("Hello, world".getBytes(), "dummy.txt");
+			rf.addEntry("Goodbye".getBytes(), "other.txt");
+
+			assertFalse(rf.contains("test.txt"));
+
+			rf.addEntry("Hello, world".getBytes(), "test.txt");
+
+			assertEquals(2, rf.getEntries().size());
+			assertSame(rf.getEntry("dummy.txt"), rf.getEntry("test.txt"));
+			assertNotSame(rf.getEntry("dummy.txt"), rf.getEntry("other.txt"));
+
+			rf.write();
+			rf = new ResourceFile(file.getAbsolutePath());
+
+			assertTrue(rf.contains("dummy.txt"));
+			assertTrue(rf.contains("other.txt"));
+			assertFalse(rf.contains("missing.txt"));
+			assertNull(rf.getEntry("missing.txt"));
+			assertSame(rf.getEntry("dummy.txt"), rf.getEntry("test.txt"));
+			assertEquals("Goodbye", CO.toString(CO.getBytesFromInputStream(rf.getEntry("other.txt").getInputStream(),
+					true)));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * Listing by prefix returns the entries in a folder in name order, and follows later
+	 * additions.
+	 *
+	 * On pass: The prefix index covers exactly the matching file names.
+	 */
+	public void test8_2() throws Exception
+	{
+		final File file = File.createTempFile("test8", ".crf");
+
+		try
+		{
+			file.delete();
+
+			final ResourceFile rf = new ResourceFile(file.getAbsolutePath());
+			rf.addEntry("a".getBytes(), "ui/icons/b.png");
+			rf.addEntry("b".getBytes(), "ui/icons/a.png");
+			rf.addEntry("c".getBytes(), "ui/icons.txt");
+			rf.addEntry("d".getBytes(), "ui/iconsx/c.png");
+			rf.addEntry("e".getBytes(), "sound/a.wav");
+
+			final SortedMap<String, ResourceEntry> icons = rf.list("ui/icons/");
+
+			assertEquals(Arrays.asList("ui/icons/a.png", "ui/icons/b.png"), new ArrayList<String>(icons.keySet()));
+			assertSame(rf.getEntry("ui/icons/a.png"), icons.get("ui/icons/a.png"));
+			assertEquals(4, rf.list("ui/").size());
+			assertEquals(5, rf.list("").size());
+			assertTrue(rf.list("z").isEmpty());
+			assertEquals(1, rf.list("sound/").size());
+
+			rf.addEntry("f".getBytes(), "ui/icons/c.png");
+
+			assertEquals(3, icons.size());
+
+			try
+			{
+				icons.clear();
+				fail();
+			}
+			catch (final UnsupportedOperationException e)
+			{
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * The file names of a resource file that was opened again come from its name table, which
+	 * spans several restart points. Names added afterwards are merged into the lookups.
+	 *
+	 * On pass: Lookups, listings and file names match what was added.
+	 */
+	public void test8_3() throws Exception
+	{
+		final File file = File.createTempFile("test8", ".crf");
+
+		try
+		{
+			file.delete();
+
+			ResourceFile rf = new ResourceFile(file.getAbsolutePath());
+
+			for (int i = 0; i < 100; i++)
+			{
+				rf.addEntry(("contents " + i).getBytes(), "dir" + i % 3 + "/file" + i + ".txt");
+			}
+
+			rf.addEntry("contents 7".getBytes(), "dir1/alias\u00e9\ud83d\ude00.txt");
+			rf.write();
+			rf = new ResourceFile(file.getAbsolutePath());
+
+			assertEquals(100, rf.getEntries().size());
+
+			for (int i = 0; i < 100; i++)
+			{
+				final ResourceEntry entry = rf.getEntry("dir" + i % 3 + "/file" + i + ".txt");
+
+				assertEquals("contents " + i, CO.toString(CO.getBytesFromInputStream(entry.getInputStream(), true)));
+			}
+
+			assertFalse(rf.contains("dir0/file1.txt"));
+			assertFalse(rf.contains("dir1/file"));
+			assertFalse(rf.contains("zzz"));
+			assertSame(rf.getEntry("dir1/file7.txt"), rf.getEntry("dir1/alias\u00e9\ud83d\ude00.txt"));
+			assertEquals(2, rf.getEntry("dir1/file7.txt").getFileNames().size());
+			assertEquals(34, rf.list("dir0/").size());
+			assertEquals(34, rf.list("dir1/").size());
+			assertEquals(101, rf.list("").size());
+			assertEquals("dir1/alias\u00e9\ud83d\ude00.txt", rf.list("dir1/").firstKey());
+			assertEquals("dir2/file98.txt", rf.list("").lastKey());
+
+			rf.addEntry("new".getBytes(), "dir0/file00.txt");
+			rf.addEntry("contents 1".getBytes(), "dir0/copy.txt");
+
+			final SortedMap<String, ResourceEntry> dir0 = rf.list("dir0/");
+
+			assertEquals(36, dir0.size());
+			assertEquals("dir0/copy.txt", dir0.firstKey());
+			assertEquals("dir0/file0.txt", dir0.tailMap("dir0/f").firstKey());
+			assertSame(rf.getEntry("dir1/file1.txt"), dir0.get("dir0/copy.txt"));
+			assertTrue(rf.getEntry("dir1/file1.txt").getFileNames().contains("dir0/copy.txt"));
+
+			rf.write();
+			rf = new ResourceFile(file.getAbsolutePath());
+
+			assertEquals(101, rf.getEntries().size());
+			assertEquals(2, rf.getEntry("dir0/copy.txt").getFileNames().size());
+			assertEquals("new", CO.toString(CO.getBytesFromInputStream(rf.getEntry("dir0/file00.txt").getInputStream(),
+					true)));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * An unencrypted resource file is mapped into memory. Stored entries are slices of the
+	 * mapping, compressed entries are inflated from it.
+	 *
+	 * On pass: Mapped reads return the same data as regular reads.
+	 */
+	public void test9_1() throws Exception
+	{
+		final File file = File.createTempFile("test9", ".crf");
+
+		try
+		{
+			file.delete();
+
+			final StringBuilder sb = new StringBuilder();
+
+			for (int i = 0; i < 1000; i++)
+			{
+				sb.append(i);
+			}
+
+			ResourceFile rf = new ResourceFile(file.getAbsolutePath());
+			rf.addEntry("Hello, world".getBytes(), "stored.txt");
+			rf.addEntry(sb.toString().getBytes(), "compressed.txt");
+
+			assertFalse(rf.map());
+
+			rf.write();
+			rf = new ResourceFile(file.getAbsolutePath());
+
+			assertFalse(rf.isMapped());
+			assertTrue(rf.map());
+			assertTrue(rf.isMapped());
+
+			final ByteBuffer stored = rf.getEntry("stored.txt").getByteBuffer();
+
+			assertTrue(stored.isDirect());
+			assertTrue(stored.isReadOnly());
+			assertEquals("Hello, world", CO.toString(CO.getBytesFromInputStream(new ByteBufferInputStream(stored),
+					true)));
+			assertEquals(0, stored.position());
+
+			final InputStream in = rf.getEntry("stored.txt").getInputStream();
+
+			assertEquals(12, in.available());
+			assertEquals(7, in.skip(7));
+			assertEquals("world", CO.toString(CO.getBytesFromInputStream(in, true)));
+
+			assertEquals(sb.toString(), CO.toString(CO.getBytesFromInputStream(rf.getEntry("compressed.txt")
+					.getInputStream(), true)));
+			assertEquals(sb.length(), rf.getEntry("compressed.txt").getByteBuffer().remaining());
+
+			rf.write();
+
+			assertFalse(rf.isMapped());
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * Entries are read at a position, from several threads at once, through the channel that
+	 * the resource file shares. Compressed and encrypted entries are read at a position as well.
+	 *
+	 * On pass: Positional reads return the right bytes, before and after closing the file.
+	 */
+	public void test9_2() throws Exception
+	{
+		final File file = File.createTempFile("test9", ".crf");
+
+		try
+		{
+			final StringBuilder sb = new StringBuilder();
+
+			for (int i = 0; i < 1000; i++)
+			{
+				sb.append(i);
+			}
+
+			for (final byte[] key : new byte[][] { null, ENCRYPTION_KEY })
+			{
+				file.delete();
+
+				ResourceFile rf = new ResourceFile(file.getAbsolutePath(), key);
+				rf.addEntry("0123456789abcdefghijklmnopqrstu".getBytes(), "stored.txt");
+				rf.addEntry(sb.toString().getBytes(), "compressed.txt");
+				rf.write(key);
+				rf = new ResourceFile(file.getAbsolutePath(), key);
+
+				final ResourceEntry stored = rf.getEntry("stored.txt");
+				final ResourceEntry compressed = rf.getEntry("compressed.txt");
+				final ByteBuffer dst = ByteBuffer.allocate(5);
+
+				assertFalse(stored.isGzip());
+				assertTrue(compressed.isGzip());
+
+				assertEquals(5, stored.read(dst, 10));
+				assertEquals("abcde", new String(dst.array()));
+
+				dst.clear();
+				assertEquals(1, stored.read(dst, 30));
+				assertEquals('u', dst.get(0));
+				assertEquals(-1, stored.read(dst, 31));
+
+				dst.clear();
+				assertEquals(5, compressed.read(dst, 1000));
+				assertEquals(sb.substring(1000, 1005), new String(dst.array()));
+
+				final List<Thread> threads = new ArrayList<Thread>();
+				final List<Throwable> errors = new Vector<Throwable>();
+
+				for (int i = 0; i < 8; i++)
+				{
+					final int position = i;
+
+					threads.add(new Thread()
+					{
+						@Override
+						public void run()
+						{
+							try
+							{
+								for (int j = 0; j < 100; j++)
+								{
+									final ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+									stored.read(buffer, position);
+									buffer.flip();
+									assertEquals('0' + position, buffer.get(0));
+									assertEquals("0123456789abcdefghijklmnopqrstu", CO.toString(CO
+											.getBytesFromInputStream(stored.getInputStream(), true)));
+								}
+							}
+							catch (final Throwable e)
+							{
+								errors.add(e);
+							}
+						}
+					});
+				}
+
+				for (final Thread thread : threads)
+				{
+					thread.start();
+				}
+
+				for (final Thread thread : threads)
+				{
+					thread.join();
+				}
+
+				assertTrue(errors.toString(), errors.isEmpty());
+
+				rf.close();
+
+				dst.clear();
+				assertEquals(5, stored.read(dst, 0));
+				assertEquals("01234", new String(dst.array()));
+
+				rf.close();
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * An encrypted resource file gets a key per entry: the entries are decrypted in any order,
+	 * at a position and from the mapping, without the data before them.
+	 *
+	 * On pass: Entries of an encrypted resource file can be read independently.
+	 */
+	public void test9_3() throws Exception
+	{
+		final File file = File.createTempFile("test9", ".crf");
+
+		try
+		{
+			file.delete();
+
+			ResourceFile rf = new ResourceFile(file.getAbsolutePath(), ENCRYPTION_KEY);
+
+			for (int i = 0; i < 10; i++)
+			{
+				rf.addEntry(("Hello, world " + i).getBytes(), "file" + i + ".txt");
+			}
+
+			rf.write(ENCRYPTION_KEY);
+
+			final byte[] bytes = CO.getBytesFromFile(file);
+
+			assertEquals(0x02, bytes[12]);
+			assertEquals(-1, new String(bytes, "ISO-8859-1").indexOf("Hello"));
+
+			rf = new ResourceFile(file.getAbsolutePath(), ENCRYPTION_KEY);
+
+			for (int i = 9; i >= 0; i--)
+			{
+				final ResourceEntry entry = rf.getEntry("file" + i + ".txt");
+				final ByteBuffer dst = ByteBuffer.allocate(7);
+
+				assertEquals(7, entry.read(dst, 7));
+				assertEquals("world " + i, new String(dst.array()));
+			}
+
+			assertTrue(rf.map());
+
+			for (int i = 9; i >= 0; i--)
+			{
+				final ResourceEntry entry = rf.getEntry("file" + i + ".txt");
+
+				assertEquals("Hello, world " + i, CO.toString(CO.getBytesFromInputStream(entry.getInputStream(), true)));
+				assertEquals("Hello, world " + i, CO.toString(CO.getBytesFromInputStream(new ByteBufferInputStream(
+						entry.getByteBuffer()), true)));
+			}
+
+			rf.close();
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * An encrypted resource file is opened again, extended and written, after which its entries
+	 * are read through the same ResourceFile object.
+	 *
+	 * On pass: The entries use the keys of the new salt after writing.
+	 */
+	public void test9_4() throws Exception
+	{
+		final File file = File.createTempFile("test9", ".crf");
+
+		try
+		{
+			file.delete();
+
+			ResourceFile rf = new ResourceFile(file.getAbsolutePath(), ENCRYPTION_KEY);
+
+			for (int i = 0; i < 3; i++)
+			{
+				rf.addEntry(("Hello, world " + i).getBytes(), "file" + i + ".txt");
+			}
+
+			rf.write(ENCRYPTION_KEY);
+
+			rf = new ResourceFile(file.getAbsolutePath(), ENCRYPTION_KEY);
+			rf.addEntry("Hello, world 3".getBytes(), "file3.txt");
+			rf.write(ENCRYPTION_KEY);
+
+			for (int i = 0; i < 4; i++)
+			{
+				final ResourceEntry entry = rf.getEntry("file" + i + ".txt");
+
+				assertEquals("Hello, world " + i, CO.toString(CO.getBytesFromInputStream(entry.getInputStream(), true)));
+			}
+
+			rf.close();
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/*
+	 * A mapped resource file is written, after which a buffer obtained from the old mapping still
+	 * holds the old contents and the entries are read from the new file.
+	 *
+	 * On pass: Writing replaces the file instead of overwriting it in place.
+	 */
+	public void test9_5() throws Exception
+	{
+		final File file = File.createTempFile("test9", ".crf");
+
+		try
+		{
+			file.delete();
+
+			final ResourceFile rf = new ResourceFile(file.getAbsolutePath());
+			rf.addEntry("Hello, a".getBytes(), "a.txt");
+			rf.write();
+
+			assertTrue(rf.map());
+
+			final ByteBuffer old = rf.getEntry("a.txt").getByteBuffer();
+
+			//Windows does not allow a file to be replaced while it is mapped.
+			if (File.separatorChar == '\\') { return; }
+
+			//Encrypting changes every byte of the data forks.
+			rf.addEntry("Hello, b".getBytes(), "b.txt");
+			rf.write(ENCRYPTION_KEY);
+
+			assertEquals("Hello, a", CO.toString(CO.getBytesFromInputStream(new ByteBufferInputStream(old), true)));
+			assertEquals("Hello, b", CO.toString(CO.getBytesFromInputStream(rf.getEntry("b.txt").getInputStream(),
+					true)));
+			assertEquals(1, file.getParentFile().list(new FilenameFilter()
+			{
+				@Override
+				public boolean accept(final File dir, final String name)
+				{
+					return name.startsWith(file.getName());
+				}
+			}).length);
+
+			rf.close();
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
 	//Source: http://stackoverflow.com/questions/4245863/fast-way-to-compare-inputstreams
 	private static boolean isEqual(final InputStream i1, final InputStream i2) throws IOException
 	{